@@ -0,0 +1,346 @@
+package client;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import protocol.RequestDeserializer;
+import server.Domain;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief This class is an asynchronous client of the central server, without graphical interface: each operation returns a future of the response of the server, for batch tools and tests.
+ *
+ * @details Each request carries a correlation id, and its future is completed with the response carrying the same id, whether it is a success or a failure, such as the server being busy.
+ * The futures are completed exceptionally if the connection is lost. Up to a number of requests are sent without waiting for their responses; the next ones wait in a queue and are sent as the responses arrive, so that an operation never blocks.
+ * The requests sent before the key agreement is done wait for it, and fail if it fails.
+ * The futures are completed by the thread receiving the responses: the actions chained to them mustn't block, and may send other requests.
+ */
+public class AsyncClient implements Closeable {
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64;
+
+    /**
+     * @brief A request waiting to be sent, and the future of its response.
+     */
+    private static final class Pending {
+        private final Request request;
+        private final CompletableFuture<Request> response;
+
+        private Pending(Request request, CompletableFuture<Request> response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final int maxInFlightRequests;
+    private final KeyPair publicPrivateKey;
+    private final Gson gson = new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create();
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    private final Map<Integer, CompletableFuture<Request>> responses = new ConcurrentHashMap<>(); // the futures of the requests sent, by correlation id
+    private final ArrayDeque<Pending> waiting = new ArrayDeque<>(); // guarded by this
+    private int inFlightRequests; // guarded by this
+    private boolean sending; // guarded by this: a thread is sending the waiting requests, the others leave them to it
+    private boolean closed; // guarded by this
+    private Socket socket;
+    private DataOutputStream dos;
+    private volatile SecretKey sharedSecret; // null until the key agreement is done
+    private volatile Integer publicKeyRequestId;
+
+    public AsyncClient() throws GeneralSecurityException {
+        this("127.0.0.1", 4321, DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+    }
+
+    /**
+     * @param maxInFlightRequests The maximum number of requests sent and not answered yet.
+     */
+    public AsyncClient(String host, int port, int maxInFlightRequests) throws GeneralSecurityException {
+        if (maxInFlightRequests < 1)
+            throw new IllegalArgumentException("At least one request must be in flight");
+        this.host = host;
+        this.port = port;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.publicPrivateKey = ClientCrypto.generateKeyPair();
+    }
+
+    /**
+     * @brief Open the connection to the central server, then agree on a key with it.
+     *
+     * @return The future of the response to the request of the public key of the server. The waiting requests are sent once it succeeds.
+     */
+    public CompletableFuture<Request> connect() throws IOException {
+        this.socket = new Socket(this.host, this.port);
+        this.dos = new DataOutputStream(this.socket.getOutputStream());
+        DataInputStream dis = new DataInputStream(this.socket.getInputStream());
+        Thread receiver = new Thread(() -> this.receive(dis), "async-client-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        CompletableFuture<Request> response = new CompletableFuture<>();
+        synchronized (this) {
+            this.inFlightRequests++;
+        }
+        this.send(new Pending(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, this.publicPrivateKey.getPublic().getEncoded()), response));
+        return response;
+    }
+
+    public CompletableFuture<Request> signUp(String mail, String name, String pwd) {
+        return this.request(new Request(ProtocolCommand.SIGN_UP, mail, name, pwd));
+    }
+
+    public CompletableFuture<Request> signIn(String mail, String pwd) {
+        return this.request(new Request(ProtocolCommand.SIGN_IN, mail, pwd, false));
+    }
+
+    public CompletableFuture<Request> signOut() {
+        return this.request(new Request(ProtocolCommand.SIGN_OUT));
+    }
+
+    public CompletableFuture<Request> createSale(Domain dom, String title, String descriptif, int price) {
+        return this.request(new Request(ProtocolCommand.CREATE_SALE, dom, title, descriptif, price));
+    }
+
+    public CompletableFuture<Request> updateSale(String title, String descriptif, int price, int id) {
+        return this.request(new Request(ProtocolCommand.UPDATE_SALE, title, descriptif, price, id));
+    }
+
+    public CompletableFuture<Request> deleteSale(int id) {
+        return this.request(new Request(ProtocolCommand.DELETE_SALE, id));
+    }
+
+    public CompletableFuture<Request> domainList() {
+        return this.request(new Request(ProtocolCommand.DOMAINS_LIST));
+    }
+
+    /**
+     * @param version The version returned with the previous page, 0 with the first page to pin the version of the domain, or null to read the current sales.
+     */
+    public CompletableFuture<Request> salesFromDomain(Domain domain, int pageSize, Integer cursor, Long version) {
+        return this.request(new Request(ProtocolCommand.SALES_FROM_DOMAIN, domain, pageSize, cursor, version));
+    }
+
+    public CompletableFuture<Request> salesByPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit) {
+        return this.request(new Request(ProtocolCommand.SALES_BY_PRICE, domain, minPrice, maxPrice, descending, limit));
+    }
+
+    public CompletableFuture<Request> searchSales(String query, int limit) {
+        return this.request(new Request(ProtocolCommand.SEARCH_SALES, query, limit));
+    }
+
+    public CompletableFuture<Request> mySales() {
+        return this.request(new Request(ProtocolCommand.MY_SALES));
+    }
+
+    /**
+     * @brief Queue a request, then send the waiting requests for which there is room, once the key agreement is done.
+     *
+     * @details A request is never sent before the requests waiting before it, so that the server receives the requests in the order of the calls.
+     */
+    private CompletableFuture<Request> request(Request request) {
+        CompletableFuture<Request> response = new CompletableFuture<>();
+        synchronized (this) {
+            if (this.closed) {
+                response.completeExceptionally(new IOException("The connection to the central server is closed"));
+                return response;
+            }
+            this.waiting.add(new Pending(request, response));
+        }
+        this.sendWaiting();
+        return response;
+    }
+
+    /**
+     * @brief Send the waiting requests for which there is room, in order, once the key agreement is done.
+     *
+     * @details A single thread at a time takes the requests from the queue and writes them, so that they are written in the order of the queue.
+     * It checks for room and stops sending at once, so that a thread making room meanwhile either lets it send one more request, or sends it itself.
+     */
+    private void sendWaiting() {
+        synchronized (this) {
+            if (this.sending)
+                return;
+            this.sending = true;
+        }
+        while (true) {
+            Pending next;
+            synchronized (this) {
+                if (this.sharedSecret == null || this.closed || this.inFlightRequests >= this.maxInFlightRequests || this.waiting.isEmpty()) {
+                    this.sending = false;
+                    return;
+                }
+                this.inFlightRequests++;
+                next = this.waiting.poll();
+            }
+            this.send(next);
+        }
+    }
+
+    /**
+     * @brief Write a request counted in flight with a new correlation id. The frame is built in memory, then written at once, so that the requests of several threads aren't interleaved.
+     */
+    private void send(Pending pending) {
+        int id = this.nextRequestId.incrementAndGet();
+        pending.request.setId(id);
+        if (pending.request.getCommand() == ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER)
+            this.publicKeyRequestId = id;
+        this.responses.put(id, pending.response);
+        try {
+            byte[] json = this.gson.toJson(pending.request).getBytes();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (pending.request.getCommand() == ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER) {
+                out.writeInt(json.length);
+                out.write(json);
+            } else {
+                byte[] initializationVector = new byte[12];
+                this.random.nextBytes(initializationVector);
+                byte[] encrypted = ClientCrypto.encrypt(new String(json), this.sharedSecret, initializationVector).getBytes();
+                out.writeInt(initializationVector.length + encrypted.length);
+                out.write(initializationVector);
+                out.write(encrypted);
+            }
+            synchronized (this.dos) {
+                this.dos.write(bytes.toByteArray());
+                this.dos.flush();
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            if (this.responses.remove(id) != null) {
+                pending.response.completeExceptionally(e);
+                this.answered();
+            }
+        }
+    }
+
+    /**
+     * @brief Receive the responses and complete their futures, until the connection is closed. Run by the receiving thread.
+     */
+    private void receive(DataInputStream dis) {
+        IOException failure = null;
+        try {
+            while (failure == null) {
+                byte[] frame = dis.readNBytes(dis.readInt());
+                Request response = this.decode(frame);
+                // a response without id answers the request of the public key, when the server rejects the connection before reading it
+                CompletableFuture<Request> future = this.responses.remove(response.getId() != null ? response.getId() : this.publicKeyRequestId);
+                if (future == null) // a second response to a request, which has no future anymore
+                    continue;
+                if (response.getCommand() == ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK)
+                    this.performKeyAgreement(response);
+                else if (response.getCommand() == ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO)
+                    failure = new IOException("The central server has refused the key agreement: " + response.getParams().get("Error"));
+                this.answered();
+                future.complete(response);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (GeneralSecurityException | RuntimeException e) {
+            failure = new IOException("Invalid response from the central server", e);
+        }
+        this.fail(failure);
+    }
+
+    /**
+     * @brief Decode a response, which the server sends in clear before the key agreement and for SERVER_BUSY, and otherwise encrypted: the initialization vector, then the encrypted JSON in Base64.
+     */
+    private Request decode(byte[] frame) throws GeneralSecurityException {
+        if (this.sharedSecret == null || isInClear(frame))
+            return this.gson.fromJson(new String(frame), Request.class);
+        return this.gson.fromJson(ClientCrypto.decrypt(new String(Arrays.copyOfRange(frame, 12, frame.length)), this.sharedSecret, Arrays.copyOfRange(frame, 0, 12)), Request.class);
+    }
+
+    /**
+     * @brief Tell whether a frame is in clear, from its bytes after the initialization vector: the JSON of a request always has quotes there, which Base64 never has.
+     *
+     * @details The random bytes of the initialization vector are not looked at, since they may contain anything, e.g. the name of a field.
+     */
+    static boolean isInClear(byte[] frame) {
+        if (frame.length <= 12) // too short for an initialization vector and a tag
+            return true;
+        for (int i = 12; i < frame.length; i++)
+            if (frame[i] == '"')
+                return true;
+        return false;
+    }
+
+    /**
+     * @details The key is derived as the client with a graphical interface does, so that the server can't tell them apart.
+     */
+    private void performKeyAgreement(Request response) throws GeneralSecurityException {
+        this.sharedSecret = ClientCrypto.agreeOnKey(this.publicPrivateKey, (byte[]) response.getParams().get("PublicKey"));
+    }
+
+    /**
+     * @brief Count a request as answered, then send the waiting requests for which there is room, once the key agreement is done.
+     */
+    private void answered() {
+        synchronized (this) {
+            this.inFlightRequests--;
+        }
+        this.sendWaiting();
+    }
+
+    /**
+     * @brief Close the connection once it is lost or the key agreement has failed, and complete exceptionally the futures of the requests sent and waiting.
+     */
+    private void fail(IOException failure) {
+        List<Pending> waiting;
+        synchronized (this) {
+            this.closed = true;
+            waiting = new ArrayList<>(this.waiting);
+            this.waiting.clear();
+        }
+        try {
+            if (this.socket != null)
+                this.socket.close();
+        } catch (IOException ignored) {
+            // the connection is lost anyway
+        }
+        for (Integer id: new ArrayList<>(this.responses.keySet())) {
+            CompletableFuture<Request> future = this.responses.remove(id);
+            if (future != null)
+                future.completeExceptionally(failure);
+        }
+        for (Pending pending: waiting)
+            pending.response.completeExceptionally(failure);
+    }
+
+    /**
+     * @brief Get the number of requests sent and not answered yet.
+     */
+    public synchronized int getInFlightRequests() {
+        return this.inFlightRequests;
+    }
+
+    /**
+     * @brief Close the connection: the futures not completed yet are completed exceptionally.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            this.closed = true;
+        }
+        if (this.socket != null)
+            this.socket.close();
+        else
+            this.fail(new IOException("The connection to the central server is closed"));
+    }
+}
@@ -1,5 +1,6 @@
 package client;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -9,44 +10,30 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
 
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import javax.swing.JFrame;
 
 import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.KeyAgreement;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
 
 import java.security.PublicKey;
-import java.security.KeyFactory;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-import java.security.spec.X509EncodedKeySpec;
 
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
-import org.apache.commons.codec.binary.Base64;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -56,7 +43,6 @@ import graphicalUI.PerspectiveView;
 
 import static org.awaitility.Awaitility.await;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 import server.Domain;
 import server.Sale;
@@ -109,6 +95,8 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
     private JFrame frame;
     private GraphicalUI gui;
     private Sale[] sales;
+    private Integer salesNextCursor; // the cursor of the next page of sales, null if the last page has been received
+    private Long salesVersion; // the version of the listings of the pages of sales, to read the next page at the same version
     private Domain[] domains;
     private HashMap<String, String> messages;
     private DatagramSocket serverUDP;
@@ -201,7 +189,7 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
         if (!requestString.contains("command")) { // a naive test to check if the message is encrypted
             byte[] initializationVector = Arrays.copyOfRange(inRequestBytes, 0, 12); // extract the initialization vector which is by convention the first 12 bytes
             requestString = new String(Arrays.copyOfRange(inRequestBytes, 12, inRequestBytes.length));
-            String decryptedRequestStr = decrypt("AES/GCM/NoPadding", requestString, this.sharedSecret, initializationVector);
+            String decryptedRequestStr = ClientCrypto.decrypt(requestString, this.sharedSecret, initializationVector);
             Gson gsonRequest = new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create();
             inRequest = gsonRequest.fromJson(decryptedRequestStr, Request.class);
         } else {
@@ -212,23 +200,34 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
         return inRequest;
     }
 
+    /**
+     * @brief Send a request to the central server.
+     *
+     * @details The frame is built in memory, then written at once, so that requests sent by several threads aren't interleaved.
+     * The requests carry no correlation id: the server answers them in order, as the callbacks of this client expect.
+     */
     private void serializeRequest(Request outRequest) throws IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         if (this.socket == null)
             this.openSocketToCentralServer();
         else {
             this.logger.info("[SEND] " + outRequest);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
             if ((outRequest.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK) && (outRequest.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER)) {
                 // encrypt any time expect for the request to exchange public key (because the shared secret is not yet established)
                 byte[] initializationVector = this.generate12Bytes();
-                String outRequestEncrypted = encrypt("AES/GCM/NoPadding", new Gson().toJson(outRequest), this.sharedSecret, initializationVector);
-                this.dos.writeInt(initializationVector.length + outRequestEncrypted.getBytes().length);
-                this.dos.write(initializationVector);
-                this.dos.writeBytes(outRequestEncrypted);
+                String outRequestEncrypted = ClientCrypto.encrypt(new Gson().toJson(outRequest), this.sharedSecret, initializationVector);
+                out.writeInt(initializationVector.length + outRequestEncrypted.getBytes().length);
+                out.write(initializationVector);
+                out.writeBytes(outRequestEncrypted);
             } else {
-                this.dos.writeInt(new Gson().toJson(outRequest).getBytes().length);
-                this.dos.writeBytes(new Gson().toJson(outRequest));
+                out.writeInt(new Gson().toJson(outRequest).getBytes().length);
+                out.writeBytes(new Gson().toJson(outRequest));
+            }
+            synchronized (this.dos) {
+                this.dos.write(bytes.toByteArray());
+                this.dos.flush();
             }
-            this.dos.flush();
         }
     }
     
@@ -241,7 +240,7 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
         Request inRequest;
         if (!inRequestString.contains("command")) {
             byte[] iv = Arrays.copyOfRange(inRequestBytes, 0, 12);
-            String s = decrypt("AES/GCM/NoPadding", inRequestString, this.sharedSecret, iv);
+            String s = ClientCrypto.decrypt(inRequestString, this.sharedSecret, iv);
             Gson gson = new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create();
             inRequest = gson.fromJson(s, Request.class);
         } else {
@@ -259,7 +258,7 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
         Request outRequest = new Request(ProtocolCommand.UDP_MSG, dest, msg);
         this.logger.info("[SEND] " + outRequest);
         byte[] initializationVector = this.generate12Bytes();
-        String outRequestEncrypted = encrypt("AES/GCM/NoPadding", new Gson().toJson(outRequest), this.sharedSecret, initializationVector);
+        String outRequestEncrypted = ClientCrypto.encrypt(new Gson().toJson(outRequest), this.sharedSecret, initializationVector);
         byte[] outRequestEncryptedBytes = new byte[initializationVector.length + outRequestEncrypted.getBytes().length];
         System.arraycopy(initializationVector, 0, outRequestEncryptedBytes, 0, initializationVector.length);
         System.arraycopy(outRequestEncrypted.getBytes(), 0, outRequestEncryptedBytes, initializationVector.length, outRequestEncrypted.getBytes().length);
@@ -284,69 +283,28 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
             case DOMAINS_LIST_KO -> this.domainListKo(inRequest);
             case SALES_FROM_DOMAIN_OK -> this.salesFromDomainOk(inRequest);
             case SALES_FROM_DOMAIN_KO -> this.salesFromDomainKo(inRequest);
+            case SALES_BY_PRICE_OK -> this.salesByPriceOk(inRequest);
+            case SALES_BY_PRICE_KO -> this.salesByPriceKo(inRequest);
+            case SEARCH_SALES_OK -> this.searchSalesOk(inRequest);
+            case SEARCH_SALES_KO -> this.searchSalesKo(inRequest);
+            case MY_SALES_OK -> this.mySalesOk(inRequest);
+            case MY_SALES_KO -> this.mySalesKo(inRequest);
             case DELETE_SALE_OK -> this.deleteSaleOk(inRequest);
             case DELETE_SALE_KO -> this.deleteSaleKo(inRequest);
             case UDP_SERVER_OK -> this.udpServerOk(inRequest);
             case UDP_SERVER_KO -> this.udpServerKo(inRequest);
+            case SERVER_BUSY -> this.serverBusy(inRequest);
             default -> throw new UnsupportedOperationException("Unimplemented case");
         }
         this.lastProcessedCommand = inRequest.command; // store the last processed command for testing purposes
     }
 
-    private String encrypt(String algorithm, String plain, SecretKey key, byte[] initializationVector) throws InvalidAlgorithmParameterException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException {
-        Cipher cipher = Cipher.getInstance(algorithm);
-        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, initializationVector));
-        cipher.updateAAD("v1".getBytes(UTF_8));
-        byte[] cipherText = cipher.doFinal(plain.getBytes());
-        return new String(Base64.encodeBase64(cipherText));
-    }
-
-    private String decrypt(String algorithm, String cipherText, SecretKey key, byte[] initializationVector) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
-        Cipher cipher = Cipher.getInstance(algorithm);
-        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, initializationVector));
-        cipher.updateAAD("v1".getBytes(UTF_8));
-        byte[] plainText = cipher.doFinal(java.util.Base64.getDecoder().decode(cipherText));
-        return new String(plainText);
-    }
-
     private void initializePrivatePublicKey() throws NoSuchAlgorithmException {
-        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
-        kpg.initialize(256);
-        this.publicPrivateKey = kpg.generateKeyPair();
+        this.publicPrivateKey = ClientCrypto.generateKeyPair();
     }
 
     private void performKeyAgreement(Request req) throws InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException {
-        byte[] otherPublicKeyBytes = (byte[]) req.getParams().get("PublicKey");
-        KeyFactory keyFactory = KeyFactory.getInstance("EC");
-        PublicKey otherPublicKey = keyFactory.generatePublic(new X509EncodedKeySpec(otherPublicKeyBytes));
-        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
-        keyAgreement.init(this.publicPrivateKey.getPrivate());
-        keyAgreement.doPhase(otherPublicKey, true);
-        byte[] sharedSecret = keyAgreement.generateSecret();
-        MessageDigest hash = MessageDigest.getInstance("SHA-256");
-        hash.update(sharedSecret);
-        List<ByteBuffer> keys = Arrays.asList(ByteBuffer.wrap(this.publicPrivateKey.getPublic().getEncoded()), ByteBuffer.wrap(otherPublicKeyBytes));
-        Collections.sort(keys);
-        hash.update(keys.get(0));
-        hash.update(keys.get(1));
-        byte[] derivedKey = hash.digest(); // derived key from the shared secret
-        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        KeySpec spec = new PBEKeySpec(encodeHexString(derivedKey).toCharArray(), "key".getBytes(), 65536, 256);
-        this.sharedSecret = new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
-    }
-
-    private String byteToHex(byte b) {
-        char[] hexDigits = new char[2];
-        hexDigits[0] = Character.forDigit((b >> 4) & 0xF, 16);
-        hexDigits[1] = Character.forDigit((b & 0xF), 16);
-        return new String(hexDigits);
-    }
-
-    private String encodeHexString(byte[] byteArray) {
-        StringBuilder hexStringBuffer = new StringBuilder();
-        for (byte b : byteArray)
-            hexStringBuffer.append(byteToHex(b));
-        return hexStringBuffer.toString();
+        this.sharedSecret = ClientCrypto.agreeOnKey(this.publicPrivateKey, (byte[]) req.getParams().get("PublicKey"));
     }
 
     public byte[] generate12Bytes() throws NoSuchAlgorithmException, IOException {
@@ -422,6 +380,34 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
         this.serializeRequest(new Request(ProtocolCommand.SALES_FROM_DOMAIN, domain));
     }
 
+    @Override
+    public void salesFromDomain(Domain domain, int pageSize, Integer cursor) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        this.serializeRequest(new Request(ProtocolCommand.SALES_FROM_DOMAIN, domain, pageSize, cursor));
+    }
+
+    /**
+     * @param version The version returned with the previous page, so that the next page shows the domain as the previous ones did, or 0 with the first page to pin the version of the domain.
+     */
+    @Override
+    public void salesFromDomain(Domain domain, int pageSize, Integer cursor, Long version) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        this.serializeRequest(new Request(ProtocolCommand.SALES_FROM_DOMAIN, domain, pageSize, cursor, version));
+    }
+
+    @Override
+    public void salesByPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        this.serializeRequest(new Request(ProtocolCommand.SALES_BY_PRICE, domain, minPrice, maxPrice, descending, limit));
+    }
+
+    @Override
+    public void searchSales(String query, int limit) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        this.serializeRequest(new Request(ProtocolCommand.SEARCH_SALES, query, limit));
+    }
+
+    @Override
+    public void mySales() throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        this.serializeRequest(new Request(ProtocolCommand.MY_SALES));
+    }
+
     @Override
     public void requestUDPCoordinate(String mail) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         //TODO
@@ -546,6 +532,8 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
     public void salesFromDomainOk(Request req) {
         this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SALES_FROM_DOMAIN_OK, Arrays.toString((Sale[]) req.getParams().get("AnnoncesFromDomain"))).toString());
         this.sales = (Sale[]) req.getParams().get("AnnoncesFromDomain");
+        this.salesNextCursor = (Integer) req.getParams().get("NextCursor");
+        this.salesVersion = (Long) req.getParams().get("Version");
         this.gui.updateAnnonceList();
     }
 
@@ -553,6 +541,55 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
     public void salesFromDomainKo(Request req) {
         this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SALES_FROM_DOMAIN_KO, req.getParams().get("Error")).toString());
         this.sales = new Sale[]{}; // empty the list of annonces
+        this.salesNextCursor = null;
+        this.gui.updateAnnonceList();
+    }
+
+    @Override
+    public void salesByPriceOk(Request req) {
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SALES_BY_PRICE_OK, Arrays.toString((Sale[]) req.getParams().get("Sales"))).toString());
+        this.sales = (Sale[]) req.getParams().get("Sales");
+        this.salesNextCursor = null;
+        this.gui.updateAnnonceList();
+    }
+
+    @Override
+    public void salesByPriceKo(Request req) {
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SALES_BY_PRICE_KO, req.getParams().get("Error")).toString());
+        this.sales = new Sale[]{};
+        this.salesNextCursor = null;
+        this.gui.updateAnnonceList();
+    }
+
+    @Override
+    public void searchSalesOk(Request req) {
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SEARCH_SALES_OK, Arrays.toString((Sale[]) req.getParams().get("Sales"))).toString());
+        this.sales = (Sale[]) req.getParams().get("Sales");
+        this.salesNextCursor = null;
+        this.gui.updateAnnonceList();
+    }
+
+    @Override
+    public void searchSalesKo(Request req) {
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SEARCH_SALES_KO, req.getParams().get("Error")).toString());
+        this.sales = new Sale[]{};
+        this.salesNextCursor = null;
+        this.gui.updateAnnonceList();
+    }
+
+    @Override
+    public void mySalesOk(Request req) {
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_MY_SALES_OK, Arrays.toString((Sale[]) req.getParams().get("Sales"))).toString());
+        this.sales = (Sale[]) req.getParams().get("Sales");
+        this.salesNextCursor = null;
+        this.gui.updateAnnonceList();
+    }
+
+    @Override
+    public void mySalesKo(Request req) {
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_MY_SALES_KO, req.getParams().get("Error")).toString());
+        this.sales = new Sale[]{};
+        this.salesNextCursor = null;
         this.gui.updateAnnonceList();
     }
 
@@ -571,6 +608,11 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
         //TODO
     }
 
+    @Override
+    public void serverBusy(Request req) { // the request has been dropped, the view is left as it was so that the user can send it again
+        this.printMessageToLoggerAndClientConsole(new InternalLogMessage(TokenInternalLogMessage.CLIENT_LOG_SERVER_BUSY, req.getParams().get("Error")).toString());
+    }
+
     @Override
     public void requestUDPServerKO(Request req) {
         //TODO
@@ -619,6 +661,14 @@ public class Client implements Runnable, ClientSendRequestsToCentralServer, Clie
     public Sale[] getSales() {
         return this.sales;
     }
+
+    public Integer getSalesNextCursor() {
+        return this.salesNextCursor;
+    }
+
+    public Long getSalesVersion() {
+        return this.salesVersion;
+    }
     
     public PublicKey getPublicKey() {
         return this.publicPrivateKey.getPublic();
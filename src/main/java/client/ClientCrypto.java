@@ -0,0 +1,89 @@
+package client;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * @brief This class gathers the cryptography of the clients of the central server: the key agreement with the server, and the encryption of the requests with the agreed key.
+ *
+ * @details The key is agreed with ECDH, hashed with SHA-256 with the two public keys sorted, then derived with PBKDF2, as the server does.
+ * The requests are encrypted with AES-GCM, authenticating the version of the protocol, and encoded in Base64.
+ */
+final class ClientCrypto {
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final byte[] PROTOCOL_VERSION = "v1".getBytes(UTF_8);
+
+    private ClientCrypto() {
+    }
+
+    /**
+     * @brief Generate the key pair of a client, to agree on a key with the server.
+     */
+    static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * @brief Agree on the key encrypting the requests, from the key pair of the client and the public key of the server.
+     */
+    static SecretKey agreeOnKey(KeyPair publicPrivateKey, byte[] otherPublicKeyBytes) throws InvalidKeySpecException, NoSuchAlgorithmException, InvalidKeyException {
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH");
+        keyAgreement.init(publicPrivateKey.getPrivate());
+        keyAgreement.doPhase(KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(otherPublicKeyBytes)), true);
+        MessageDigest hash = MessageDigest.getInstance("SHA-256");
+        hash.update(keyAgreement.generateSecret());
+        List<ByteBuffer> keys = Arrays.asList(ByteBuffer.wrap(publicPrivateKey.getPublic().getEncoded()), ByteBuffer.wrap(otherPublicKeyBytes));
+        Collections.sort(keys);
+        hash.update(keys.get(0));
+        hash.update(keys.get(1));
+        PBEKeySpec spec = new PBEKeySpec(HexFormat.of().formatHex(hash.digest()).toCharArray(), "key".getBytes(), 65536, 256);
+        return new SecretKeySpec(SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded(), "AES");
+    }
+
+    /**
+     * @return The encrypted text, in Base64.
+     */
+    static String encrypt(String plain, SecretKey key, byte[] initializationVector) throws InvalidAlgorithmParameterException, InvalidKeyException, NoSuchPaddingException, NoSuchAlgorithmException, IllegalBlockSizeException, BadPaddingException {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, initializationVector));
+        cipher.updateAAD(PROTOCOL_VERSION);
+        return Base64.getEncoder().encodeToString(cipher.doFinal(plain.getBytes()));
+    }
+
+    /**
+     * @param cipherText The encrypted text, in Base64.
+     */
+    static String decrypt(String cipherText, SecretKey key, byte[] initializationVector) throws NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, initializationVector));
+        cipher.updateAAD(PROTOCOL_VERSION);
+        return new String(cipher.doFinal(Base64.getDecoder().decode(cipherText)));
+    }
+}
@@ -6,8 +6,13 @@ public enum ErrorLogMessage {
     MAIL_NOT_VALID("Mail not valid"),
     COMBINATION_MAIL_PWD_INVALID("Combination mail and password is invalid"),
     NOT_RESPONDING_TO_REQUEST("Server is not responding to request"),
+    SERVER_BUSY("Server is busy, retry later"),
     NO_SALES_IN_THAT_DOMAIN("There is no annonce in that domain"),
-    NOT_OWNER("You are not the owner of that annonce");
+    NO_SALES_IN_THAT_PRICE_RANGE("There is no annonce in that price range"),
+    NO_SALES_MATCHING_THE_QUERY("There is no annonce matching the search"),
+    NO_SALES_OF_THAT_CLIENT("You have no annonce"),
+    NOT_OWNER("You are not the owner of that annonce"),
+    NOT_SIGNED_IN("You are not signed in");
 
     private String content;
 
@@ -103,6 +103,27 @@ public class InternalLogMessage {
             case CLIENT_LOG_UDP_SERVER_KO -> {
                 return "[INTERNAL] Failed to send UDP server address and port";
             }
+            case CLIENT_LOG_SALES_BY_PRICE_OK -> {
+                return "[INTERNAL] Sales by price are: " + this.content[0];
+            }
+            case CLIENT_LOG_SALES_BY_PRICE_KO -> {
+                return "[INTERNAL] Failed request sales by price: (error=\"" + this.content[0] + "\")";
+            }
+            case CLIENT_LOG_SEARCH_SALES_OK -> {
+                return "[INTERNAL] Sales matching the search are: " + this.content[0];
+            }
+            case CLIENT_LOG_SEARCH_SALES_KO -> {
+                return "[INTERNAL] Failed request search sales: (error=\"" + this.content[0] + "\")";
+            }
+            case CLIENT_LOG_MY_SALES_OK -> {
+                return "[INTERNAL] Your sales are: " + this.content[0];
+            }
+            case CLIENT_LOG_MY_SALES_KO -> {
+                return "[INTERNAL] Failed request my sales: (error=\"" + this.content[0] + "\")";
+            }
+            case CLIENT_LOG_SERVER_BUSY -> {
+                return "[INTERNAL] The server is busy, try again later: (error=\"" + this.content[0] + "\")";
+            }
         }
         return null;
     }
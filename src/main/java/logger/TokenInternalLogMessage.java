@@ -30,4 +30,11 @@ public enum TokenInternalLogMessage {
     CLIENT_LOG_REQUEST_PUBLIC_KEY_KO(),
     CLIENT_LOG_UDP_SERVER_OK(),
     CLIENT_LOG_UDP_SERVER_KO(), 
+    CLIENT_LOG_SALES_BY_PRICE_OK(),
+    CLIENT_LOG_SALES_BY_PRICE_KO(),
+    CLIENT_LOG_SEARCH_SALES_OK(),
+    CLIENT_LOG_SEARCH_SALES_KO(),
+    CLIENT_LOG_MY_SALES_OK(),
+    CLIENT_LOG_MY_SALES_KO(),
+    CLIENT_LOG_SERVER_BUSY(),
 }
\ No newline at end of file
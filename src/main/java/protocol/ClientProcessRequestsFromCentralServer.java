@@ -26,11 +26,18 @@ public interface ClientProcessRequestsFromCentralServer {
     void domainListKo(Request req);
     void salesFromDomainOk(Request r);
     void salesFromDomainKo(Request r);
+    void salesByPriceOk(Request r);
+    void salesByPriceKo(Request r);
+    void searchSalesOk(Request r);
+    void searchSalesKo(Request r);
+    void mySalesOk(Request r);
+    void mySalesKo(Request r);
     void deleteSaleOk(Request r);
     void deleteSaleKo(Request r);
     void udpServerOk(Request r);
     void udpServerKo(Request r);
     void requestUDPServerOk(Request r);
     void requestUDPServerKO(Request r);
+    void serverBusy(Request r);
     void notHandledRequest();
 }
@@ -35,5 +35,26 @@ public enum ProtocolCommand
     REQUEST_UDP_COORDINATES(),
     REQUEST_UDP_COORDINATES_OK(),
     REQUEST_UDP_COORDINATES_KO(),
-    UDP_MSG()
+    UDP_MSG(),
+    SALES_BY_PRICE(),
+    SALES_BY_PRICE_OK(),
+    SALES_BY_PRICE_KO(),
+    SEARCH_SALES(),
+    SEARCH_SALES_OK(),
+    SEARCH_SALES_KO(),
+    MY_SALES(),
+    MY_SALES_OK(),
+    MY_SALES_KO(),
+    SERVER_BUSY();
+
+    /**
+     * @brief Get the failure answering this command, e.g. SIGN_UP_KO for SIGN_UP, or null if it has none.
+     */
+    public ProtocolCommand getFailure() {
+        try {
+            return ProtocolCommand.valueOf(this.name() + "_KO");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 }
\ No newline at end of file
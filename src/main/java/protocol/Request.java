@@ -9,11 +9,13 @@ import java.util.Map;
  * @brief This class is used to transmit information and commands between the client and the server.
  *
  * @details A request contains a command and an array of parameters. The processing of parameters depends on the command.
+ * A request may carry a correlation id chosen by the client, which the server copies into the response, so that the responses of pipelined requests can be matched even when they arrive out of order.
  */
 public class Request {
 
     public ProtocolCommand command;
     public Map<String, Object> param;
+    public Integer id; // the correlation id, null if the request has none
 
     public Request (ProtocolCommand command, Object... params) {
         this.command = command;
@@ -64,9 +66,42 @@ public class Request {
             case DOMAINS_LIST -> {}
             case DOMAINS_LIST_OK -> this.param.put("Domains", params[0]);
             case DOMAINS_LIST_KO -> this.param.put("Error", params[0]);
-            case SALES_FROM_DOMAIN -> this.param.put("Domain", params[0]);
-            case SALES_FROM_DOMAIN_OK -> this.param.put("AnnoncesFromDomain", params[0]);
+            case SALES_FROM_DOMAIN -> {
+                this.param.put("Domain", params[0]);
+                if (params.length > 1) { // the pagination is optional: without it, the server sends the first page of the default size
+                    this.param.put("PageSize", params[1]);
+                    this.param.put("Cursor", params[2]);
+                    if (params.length > 3) // absent for the first page
+                        this.param.put("Version", params[3]);
+                }
+            }
+            case SALES_FROM_DOMAIN_OK -> {
+                this.param.put("AnnoncesFromDomain", params[0]);
+                if (params.length > 1)
+                    this.param.put("NextCursor", params[1]);
+                if (params.length > 2)
+                    this.param.put("Version", params[2]);
+            }
             case SALES_FROM_DOMAIN_KO -> this.param.put("Error", params[0]);
+            case SALES_BY_PRICE -> {
+                this.param.put("Domain", params[0]);
+                this.param.put("MinPrice", params[1]);
+                this.param.put("MaxPrice", params[2]);
+                this.param.put("Descending", params[3]);
+                this.param.put("Limit", params[4]);
+            }
+            case SALES_BY_PRICE_OK -> this.param.put("Sales", params[0]);
+            case SALES_BY_PRICE_KO -> this.param.put("Error", params[0]);
+            case SEARCH_SALES -> {
+                this.param.put("Query", params[0]);
+                this.param.put("Limit", params[1]);
+            }
+            case SEARCH_SALES_OK -> this.param.put("Sales", params[0]);
+            case SEARCH_SALES_KO -> this.param.put("Error", params[0]);
+            case MY_SALES -> {}
+            case MY_SALES_OK -> this.param.put("Sales", params[0]);
+            case MY_SALES_KO -> this.param.put("Error", params[0]);
+            case SERVER_BUSY -> this.param.put("Error", params[0]);
             default -> throw new UnsupportedOperationException("Unimplemented case");
         }
     }
@@ -79,6 +114,14 @@ public class Request {
         return this.param;
     }
 
+    public Integer getId() {
+        return this.id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
     @Override
     public String toString() {
         return new Gson().toJson(this);
@@ -19,8 +19,13 @@ public class RequestDeserializer implements JsonDeserializer<Request> {
     @Override
     public Request deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
         JsonObject jsonObject = jsonElement.getAsJsonObject();
-        ProtocolCommand command = ProtocolCommand.valueOf(jsonObject.get("command").getAsString());
-        JsonObject hashMap = (JsonObject) jsonObject.get("param");
+        Request request = this.deserializeParams(ProtocolCommand.valueOf(jsonObject.get("command").getAsString()), (JsonObject) jsonObject.get("param"));
+        if (jsonObject.has("id"))
+            request.setId(jsonObject.get("id").getAsInt());
+        return request;
+    }
+
+    private Request deserializeParams(ProtocolCommand command, JsonObject hashMap) {
         switch (command) {
             case REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER -> {
                 byte[] publicKey = new Gson().fromJson(hashMap.get("PublicKey"), byte[].class);
@@ -128,16 +133,67 @@ public class RequestDeserializer implements JsonDeserializer<Request> {
             }
             case SALES_FROM_DOMAIN -> {
                 Domain dom = new Gson().fromJson(hashMap.get("Domain"), Domain.class);
-                return new Request(command, dom);
+                if (!hashMap.has("PageSize"))
+                    return new Request(command, dom);
+                int pageSize = new Gson().fromJson(hashMap.get("PageSize"), int.class);
+                Integer cursor = new Gson().fromJson(hashMap.get("Cursor"), Integer.class); // absent for the first page
+                Long version = new Gson().fromJson(hashMap.get("Version"), Long.class); // absent for the first page
+                return new Request(command, dom, pageSize, cursor, version);
             }
             case SALES_FROM_DOMAIN_OK -> {
                 Sale[] annonces = new Gson().fromJson(hashMap.get("AnnoncesFromDomain"), Sale[].class);
-                return new Request(command, (Object) annonces);
+                Integer nextCursor = new Gson().fromJson(hashMap.get("NextCursor"), Integer.class); // absent for the last page
+                Long version = new Gson().fromJson(hashMap.get("Version"), Long.class);
+                return new Request(command, annonces, nextCursor, version);
             }
             case SALES_FROM_DOMAIN_KO -> {
                 String error = new Gson().fromJson(hashMap.get("Error"), String.class);
                 return new Request(command, error);
             }
+            case SALES_BY_PRICE -> {
+                Domain dom = new Gson().fromJson(hashMap.get("Domain"), Domain.class);
+                int minPrice = new Gson().fromJson(hashMap.get("MinPrice"), int.class);
+                int maxPrice = new Gson().fromJson(hashMap.get("MaxPrice"), int.class);
+                boolean descending = new Gson().fromJson(hashMap.get("Descending"), boolean.class);
+                int limit = new Gson().fromJson(hashMap.get("Limit"), int.class);
+                return new Request(command, dom, minPrice, maxPrice, descending, limit);
+            }
+            case SALES_BY_PRICE_OK -> {
+                Sale[] sales = new Gson().fromJson(hashMap.get("Sales"), Sale[].class);
+                return new Request(command, (Object) sales);
+            }
+            case SALES_BY_PRICE_KO -> {
+                String error = new Gson().fromJson(hashMap.get("Error"), String.class);
+                return new Request(command, error);
+            }
+            case SEARCH_SALES -> {
+                String query = new Gson().fromJson(hashMap.get("Query"), String.class);
+                int limit = new Gson().fromJson(hashMap.get("Limit"), int.class);
+                return new Request(command, query, limit);
+            }
+            case SEARCH_SALES_OK -> {
+                Sale[] sales = new Gson().fromJson(hashMap.get("Sales"), Sale[].class);
+                return new Request(command, (Object) sales);
+            }
+            case SEARCH_SALES_KO -> {
+                String error = new Gson().fromJson(hashMap.get("Error"), String.class);
+                return new Request(command, error);
+            }
+            case MY_SALES -> {
+                return new Request(ProtocolCommand.MY_SALES);
+            }
+            case MY_SALES_OK -> {
+                Sale[] sales = new Gson().fromJson(hashMap.get("Sales"), Sale[].class);
+                return new Request(command, (Object) sales);
+            }
+            case MY_SALES_KO -> {
+                String error = new Gson().fromJson(hashMap.get("Error"), String.class);
+                return new Request(command, error);
+            }
+            case SERVER_BUSY -> {
+                String error = new Gson().fromJson(hashMap.get("Error"), String.class);
+                return new Request(command, error);
+            }
             default -> throw new UnsupportedOperationException("Unimplemented case");
         }
     }
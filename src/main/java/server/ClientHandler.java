@@ -35,10 +35,15 @@ import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.codec.binary.Base64;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -46,17 +51,30 @@ import java.io.IOException;
 /**
  * @@brief This class handles the communication between the server and the client.
  * 
- * @details A thread of ClientHandler is created for each client. This thread communicates with the server to process the requests from the client.
+ * @details With the THREAD_PER_CLIENT and VIRTUAL_THREAD_PER_CLIENT engines, a thread of ClientHandler is created for each client. This thread communicates with the server to process the requests from the client.
+ * With the SELECTOR engine, the requests are read by the selector thread, then decoded and answered by the workers, and the responses are written to the connection of the client.
+ * A request which isn't admitted by the server, because too many requests are in flight, is answered that the server is busy. The handler is removed from the server once the connection is closed.
+ * A request carrying a correlation id which doesn't change the session of the client is independent: it is processed concurrently with the other independent requests of the client, and its response, carrying the same id, may be sent before theirs.
+ * Any other request is processed alone, once the requests received before it are answered.
  */
 public class ClientHandler implements Runnable, ServerProcessRequestsFromClient {
+    private static final int MAX_CONCURRENT_REQUESTS = 16; // the independent requests of a client processed at once, above which the next ones aren't read
+
     private Socket socket = null;
     private DataInputStream dis = null;
     private DataOutputStream dos = null;
+    private SelectorEngine.Connection connection = null; // null if the client is served by its own thread
     private Server server = null;
     private SecretKey sk = null;
     private boolean stopReceiveCommand = false;
     private int id;
     private String mail;
+    private final Set<Long> pins = ConcurrentHashMap.newKeySet(); // the pins of the pages of sales sent to this client, which only it renews and releases
+    private final ThreadLocal<Integer> answeredId = new ThreadLocal<>(); // the correlation id of the request answered by the current thread
+    private final ReentrantLock sendLock = new ReentrantLock(); // so that the responses answered concurrently are written one after the other
+    private final ReentrantLock concurrentLock = new ReentrantLock(); // guards concurrentRequests, with the THREAD_PER_CLIENT and VIRTUAL_THREAD_PER_CLIENT engines
+    private final Condition concurrentRequestDone = this.concurrentLock.newCondition();
+    private int concurrentRequests;
 
     public ClientHandler(Socket socket, Server server, int id) throws IOException {
         this.socket = socket;
@@ -67,6 +85,20 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
         this.server.getLogger().info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CLIENT_HANDLER_CREATED, this.id).toString());
     }
 
+    /**
+     * @brief Create the handler of a client of the selector engine, which has neither a thread nor streams.
+     */
+    ClientHandler(SelectorEngine.Connection connection, Server server, int id) {
+        this.connection = connection;
+        this.server = server;
+        this.id = id;
+        this.server.getLogger().info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CLIENT_HANDLER_CREATED, this.id).toString());
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
     private String byteToHex(byte num) {
         char[] hexDigits = new char[2];
         hexDigits[0] = Character.forDigit((num >> 4) & 0xF, 16);
@@ -106,19 +138,121 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
 
     @Override
     public void run() {
-        while (!this.stopReceiveCommand) {
+        try {
+            while (!this.stopReceiveCommand) {
+                try {
+                    Request req = receiveRequest();
+                    if (req == null) {
+                        this.stopReceiveCommand = true;
+                        continue;
+                    }
+                    boolean admitted = this.server.admitRequest();
+                    if (admitted && isIndependent(req)) {
+                        this.answerConcurrently(req);
+                        continue;
+                    }
+                    try {
+                        if (admitted)
+                            this.awaitConcurrentRequestsBelow(1);
+                        this.answer(req, admitted);
+                    } finally {
+                        if (admitted)
+                            this.server.releaseRequest();
+                    }
+                } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException |
+                         ClassNotFoundException | InvalidAlgorithmParameterException | NoSuchPaddingException |
+                         IllegalBlockSizeException | BadPaddingException | InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            this.awaitConcurrentRequestsBelow(1); // the client has closed its socket, but may still read the responses
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.server.removeClientHandler(this);
             try {
-                Request req = receiveRequest();
-                if (req == null) {
-                    this.stopReceiveCommand = true;
-                    continue;
+                this.socket.close();
+            } catch (IOException ignored) {
+                // the client is gone anyway
+            }
+        }
+    }
+
+    /**
+     * @brief Get the pins of the pages of sales sent to this client and not released yet.
+     */
+    Set<Long> getPins() {
+        return this.pins;
+    }
+
+    /**
+     * @brief Check whether a request can be processed concurrently with the other requests of its client: it carries a correlation id, and it only reads, so that it neither changes the session of the client nor a sale another request may read.
+     */
+    static boolean isIndependent(Request request) {
+        return request.getId() != null && switch (request.getCommand()) {
+            case DOMAINS_LIST, SALES_FROM_DOMAIN, SALES_BY_PRICE, SEARCH_SALES, MY_SALES -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @brief Process an independent request which has been admitted on another thread, once fewer than MAX_CONCURRENT_REQUESTS requests of the client are processed. Called by the thread reading the requests.
+     *
+     * @details The connection is closed if the request fails, as it is when a request processed by the thread reading the requests fails.
+     */
+    private void answerConcurrently(Request request) throws InterruptedException {
+        this.awaitConcurrentRequestsBelow(MAX_CONCURRENT_REQUESTS);
+        this.concurrentLock.lock();
+        try {
+            this.concurrentRequests++;
+        } finally {
+            this.concurrentLock.unlock();
+        }
+        this.server.runConcurrently(() -> {
+            try {
+                this.answer(request, true);
+            } catch (Exception e) {
+                this.server.getLogger().warning("Closing the connection of the client handler " + this.id + ": " + e);
+                try {
+                    this.socket.close();
+                } catch (IOException ignored) {
+                    // the client is gone anyway
+                }
+            } finally {
+                this.server.releaseRequest();
+                this.concurrentLock.lock();
+                try {
+                    this.concurrentRequests--;
+                    this.concurrentRequestDone.signalAll();
+                } finally {
+                    this.concurrentLock.unlock();
                 }
-                processInput(req);
-            } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException |
-                     ClassNotFoundException | InvalidAlgorithmParameterException | NoSuchPaddingException |
-                     IllegalBlockSizeException | BadPaddingException e) {
-                throw new RuntimeException(e);
             }
+        });
+    }
+
+    private void awaitConcurrentRequestsBelow(int max) throws InterruptedException {
+        this.concurrentLock.lock();
+        try {
+            while (this.concurrentRequests >= max)
+                this.concurrentRequestDone.await();
+        } finally {
+            this.concurrentLock.unlock();
+        }
+    }
+
+    /**
+     * @brief Process a request, or answer that the server is busy if it hasn't been admitted. The response carries the correlation id of the request.
+     */
+    void answer(Request request, boolean admitted) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException, InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException {
+        this.answeredId.set(request.getId());
+        try {
+            if (admitted)
+                this.processInput(request);
+            else
+                this.responseBusy(request);
+        } finally {
+            this.answeredId.remove();
         }
     }
 
@@ -132,6 +266,9 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
             case UPDATE_SALE -> this.responseToUpdateSale(inRequest);
             case DELETE_SALE -> this.responseDeleteSale(inRequest);
             case SALES_FROM_DOMAIN -> this.responseAnnonceFromDomain(inRequest);
+            case SALES_BY_PRICE -> this.responseSalesByPrice(inRequest);
+            case SEARCH_SALES -> this.responseSearchSales(inRequest);
+            case MY_SALES -> this.responseMySales();
             case DOMAINS_LIST -> this.responseDomainsList();
             default -> throw new UnsupportedOperationException("Unimplemented case");
         }
@@ -145,7 +282,23 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
             this.server.getLogger().info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CLIENT_HANDLER, this.id).toString());
             return null;
         }
-        byte[] json_bytes = this.dis.readNBytes(json_len);
+        return this.decode(this.dis.readNBytes(json_len));
+    }
+
+    /**
+     * @brief Answer a request that the server is busy, with the failure of the request, or SERVER_BUSY if it has none, without processing it.
+     */
+    private void responseBusy(Request inRequest) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        ProtocolCommand failure = inRequest.getCommand().getFailure();
+        if (failure == null)
+            failure = ProtocolCommand.SERVER_BUSY;
+        this.sendRequest(new Request(failure, ErrorLogMessage.SERVER_BUSY.getContent()));
+    }
+
+    /**
+     * @brief Deserialize a request, after decrypting it unless it is sent in clear. The requests of a client are decoded one at a time, in order, since a request of the public key changes the key of the next ones.
+     */
+    Request decode(byte[] json_bytes) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         String json_str = new String(json_bytes);
         Request request;
         if (!json_str.contains("command")) {
@@ -163,18 +316,43 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
         return request;
     }
     
+    /**
+     * @details The response carries the correlation id of the request answered by the current thread, if any.
+     * The frame is built in memory, then written at once: to the socket, or to the connection of the selector engine.
+     */
     public void sendRequest(Request request) throws IOException, InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
-        if (request.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO && request.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK && request.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER) {
+        request.setId(this.answeredId.get());
+        byte[] frame;
+        if (request.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO && request.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK && request.getCommand() != ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER && request.getCommand() != ProtocolCommand.SERVER_BUSY) { // SERVER_BUSY may answer a client without key
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
             byte[] initializationVector = this.generateIv();
             String s = encrypt("AES/GCM/NoPadding", new Gson().toJson(request), this.sk, initializationVector);
-            this.dos.writeInt(initializationVector.length + s.getBytes().length);
-            this.dos.write(initializationVector);
-            this.dos.writeBytes(s);
-        } else {
-            this.dos.writeInt(new Gson().toJson(request).getBytes().length);
-            this.dos.writeBytes(new Gson().toJson(request));
+            out.writeInt(initializationVector.length + s.getBytes().length);
+            out.write(initializationVector);
+            out.writeBytes(s);
+            frame = bytes.toByteArray();
+        } else
+            frame = encodeInClear(request);
+        if (this.connection != null)
+            this.connection.send(frame);
+        else {
+            this.sendLock.lock();
+            try {
+                this.dos.write(frame);
+                this.dos.flush();
+            } finally {
+                this.sendLock.unlock();
+            }
         }
-        this.dos.flush();
+    }
+
+    /**
+     * @brief Build the frame of a request sent in clear: the length of its JSON, then its JSON.
+     */
+    static byte[] encodeInClear(Request request) {
+        byte[] json = new Gson().toJson(request).getBytes();
+        return ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array();
     }
     
     @Override
@@ -197,10 +375,12 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
             // TODO: first check the format of the mail and then check if it is already taken
             if (!this.server.isMailRegister(mailFromReq))
                 if (this.server.isMailValid(mailFromReq))
-                    if (this.server.isNameValid(nameFromReq)) {
-                        this.server.addClient(mailFromReq, nameFromReq, (String) inRequest.getParams().get("Pwd"));
-                        outRequest = new Request(ProtocolCommand.SIGN_UP_OK, mailFromReq, nameFromReq);
-                    } else
+                    if (this.server.isNameValid(nameFromReq))
+                        if (this.server.addClient(mailFromReq, nameFromReq, (String) inRequest.getParams().get("Pwd")))
+                            outRequest = new Request(ProtocolCommand.SIGN_UP_OK, mailFromReq, nameFromReq);
+                        else // another client took the mail in the meantime
+                            outRequest = new Request(ProtocolCommand.SIGN_UP_KO, ErrorLogMessage.MAIL_ALREADY_TAKEN.getContent());
+                    else
                         outRequest = new Request(ProtocolCommand.SIGN_UP_KO, ErrorLogMessage.NAME_NOT_VALID.getContent());
                 else
                     outRequest = new Request(ProtocolCommand.SIGN_UP_KO, ErrorLogMessage.MAIL_NOT_VALID.getContent());
@@ -218,14 +398,22 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
         String pwdFromReq = (String) inRequest.getParams().get("Pwd");
         boolean sendDomainList = (boolean) inRequest.getParams().get("SendDomainList");
         //TODO: check if the mail is valid
+        Client client = this.server.getClientFromMail(mailFromReq);
         if (this.server.isRespondingToRequest())
-            if (this.server.isMailRegister(mailFromReq))
-                if (this.server.isPasswordValid(mailFromReq, pwdFromReq)) {
+            if (client != null)
+                if (this.server.isPasswordValid(client, pwdFromReq)) {
                     this.mail = mailFromReq;
-                    if (sendDomainList)
-                        this.responseDomainsList();
+                    if (sendDomainList) { // sent before the response, without the correlation id, which tags the response only
+                        Integer id = this.answeredId.get();
+                        this.answeredId.remove();
+                        try {
+                            this.responseDomainsList();
+                        } finally {
+                            this.answeredId.set(id);
+                        }
+                    }
                     // the name is returned
-                    outRequest = new Request(ProtocolCommand.SIGN_IN_OK, this.server.getClientFromMail((String) inRequest.getParams().get("Mail")).getName());
+                    outRequest = new Request(ProtocolCommand.SIGN_IN_OK, client.getName());
                     //request = new Request(ProtocolCommand.DOMAINS_LIST, (Object) this.server.getDomainList());
                 } else
                     outRequest = new Request(ProtocolCommand.SIGN_IN_KO, ErrorLogMessage.COMBINATION_MAIL_PWD_INVALID.getContent());
@@ -249,11 +437,14 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
     @Override
     public void responseToCreateSale(Request inRequest) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         Request outRequest;
-        if (this.server.isRespondingToRequest()) {
+        if (!this.server.isRespondingToRequest())
+            outRequest = new Request(ProtocolCommand.CREATE_SALE_KO, ErrorLogMessage.NOT_RESPONDING_TO_REQUEST.getContent());
+        else if (this.mail == null)
+            outRequest = new Request(ProtocolCommand.CREATE_SALE_KO, ErrorLogMessage.NOT_SIGNED_IN.getContent());
+        else {
             this.server.addSale(this.mail, (Domain) inRequest.getParams().get("Domain"), (String) inRequest.getParams().get("Title"), (String) inRequest.getParams().get("Descriptif"), (int) inRequest.getParams().get("Price"));
             outRequest = new Request(ProtocolCommand.CREATE_SALE_OK, inRequest.getParams().get("Title"));
-        } else
-            outRequest = new Request(ProtocolCommand.CREATE_SALE_KO, ErrorLogMessage.NOT_RESPONDING_TO_REQUEST.getContent());
+        }
         this.sendRequest(outRequest);
     }
 
@@ -300,10 +491,13 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
     public void responseAnnonceFromDomain(Request inRequest) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         Request request;
         Domain domainFromReq = (Domain) inRequest.getParams().get("Domain");
+        Integer pageSizeFromReq = (Integer) inRequest.getParams().get("PageSize");
+        Integer cursorFromReq = (Integer) inRequest.getParams().get("Cursor");
+        Long versionFromReq = (Long) inRequest.getParams().get("Version");
         if (this.server.isRespondingToRequest()) {
-            Sale[] annonces = this.server.getSalesOfDomain(domainFromReq);
-            if (annonces.length != 0)
-                request = new Request(ProtocolCommand.SALES_FROM_DOMAIN_OK, (Object) annonces);
+            SalePage page = this.server.getSalesOfDomain(domainFromReq, cursorFromReq, pageSizeFromReq != null ? pageSizeFromReq : Server.DEFAULT_PAGE_SIZE, versionFromReq, this.pins);
+            if (page.getSales().length != 0)
+                request = new Request(ProtocolCommand.SALES_FROM_DOMAIN_OK, page.getSales(), page.getNextCursor(), page.getPin() != 0 ? page.getPin() : null); // no version if nothing is pinned
             else
                 request = new Request(ProtocolCommand.SALES_FROM_DOMAIN_KO, ErrorLogMessage.NO_SALES_IN_THAT_DOMAIN.getContent());
         } else {
@@ -312,6 +506,48 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
         this.sendRequest(request);
     }
 
+    @Override
+    public void responseSalesByPrice(Request inRequest) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        Request outRequest;
+        if (this.server.isRespondingToRequest()) {
+            Sale[] sales = this.server.getSalesOfDomainByPrice((Domain) inRequest.getParams().get("Domain"), (int) inRequest.getParams().get("MinPrice"), (int) inRequest.getParams().get("MaxPrice"), (boolean) inRequest.getParams().get("Descending"), (int) inRequest.getParams().get("Limit"));
+            if (sales.length != 0)
+                outRequest = new Request(ProtocolCommand.SALES_BY_PRICE_OK, (Object) sales);
+            else
+                outRequest = new Request(ProtocolCommand.SALES_BY_PRICE_KO, ErrorLogMessage.NO_SALES_IN_THAT_PRICE_RANGE.getContent());
+        } else
+            outRequest = new Request(ProtocolCommand.SALES_BY_PRICE_KO, ErrorLogMessage.NOT_RESPONDING_TO_REQUEST.getContent());
+        this.sendRequest(outRequest);
+    }
+
+    @Override
+    public void responseSearchSales(Request inRequest) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        Request outRequest;
+        if (this.server.isRespondingToRequest()) {
+            Sale[] sales = this.server.searchSales((String) inRequest.getParams().get("Query"), (int) inRequest.getParams().get("Limit"));
+            if (sales.length != 0)
+                outRequest = new Request(ProtocolCommand.SEARCH_SALES_OK, (Object) sales);
+            else
+                outRequest = new Request(ProtocolCommand.SEARCH_SALES_KO, ErrorLogMessage.NO_SALES_MATCHING_THE_QUERY.getContent());
+        } else
+            outRequest = new Request(ProtocolCommand.SEARCH_SALES_KO, ErrorLogMessage.NOT_RESPONDING_TO_REQUEST.getContent());
+        this.sendRequest(outRequest);
+    }
+
+    @Override
+    public void responseMySales() throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
+        Request outRequest;
+        if (this.server.isRespondingToRequest()) {
+            Sale[] sales = this.server.getSalesOfOwner(this.mail);
+            if (sales.length != 0)
+                outRequest = new Request(ProtocolCommand.MY_SALES_OK, (Object) sales);
+            else
+                outRequest = new Request(ProtocolCommand.MY_SALES_KO, ErrorLogMessage.NO_SALES_OF_THAT_CLIENT.getContent());
+        } else
+            outRequest = new Request(ProtocolCommand.MY_SALES_KO, ErrorLogMessage.NOT_RESPONDING_TO_REQUEST.getContent());
+        this.sendRequest(outRequest);
+    }
+
     @Override
     public void responseUDPServerInsertion(Request req) throws InvalidAlgorithmParameterException, NoSuchPaddingException, IllegalBlockSizeException, IOException, NoSuchAlgorithmException, BadPaddingException, InvalidKeyException {
         Request request;
@@ -343,7 +579,7 @@ public class ClientHandler implements Runnable, ServerProcessRequestsFromClient
     public SecretKey getKeyFromSecret(String password, String salt) throws NoSuchAlgorithmException, InvalidKeySpecException {
         SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
         KeySpec spec = new PBEKeySpec(password.toCharArray(), salt.getBytes(), 65536, 256);
-        return new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+        return new SecretKeySpec(this.server.offload(() -> factory.generateSecret(spec)).getEncoded(), "AES");
     }
 
     public byte[] generateIv() {
@@ -0,0 +1,29 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * @brief This interface is the storage engine of the clients, by mail.
+ */
+public interface ClientRepository extends Closeable {
+    /**
+     * @brief Register a client, unless its mail is already taken. The registration is atomic.
+     *
+     * @return True if the client has been registered.
+     */
+    boolean add(Client client) throws IOException;
+
+    /**
+     * @return The client, or null if the mail isn't registered.
+     */
+    Client get(String mail);
+
+    boolean contains(String mail);
+
+    void remove(String mail);
+
+    Iterable<Client> clients();
+
+    boolean isEmpty();
+}
@@ -0,0 +1,10 @@
+package server;
+
+/**
+ * @brief The engines serving the connections of the clients to the server.
+ */
+public enum ConnectionEngine {
+    THREAD_PER_CLIENT, // a thread per client, blocking on its socket
+    VIRTUAL_THREAD_PER_CLIENT, // a virtual thread per client, blocking on its socket, from Java 21, else a platform thread per client, with a warning in the log
+    SELECTOR // a selector thread multiplexing the non-blocking sockets, and a small pool of workers processing the requests
+}
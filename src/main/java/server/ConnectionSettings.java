@@ -0,0 +1,124 @@
+package server;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @brief This class gathers the settings of the connections of the server: the port it listens to, which engine serves the clients, how many threads process their requests, and how many clients and requests are admitted at once.
+ *
+ * @details A client connecting beyond the maximum number of connections is answered that the server is busy and disconnected, and a request beyond the maximum number of requests in flight is answered that the server is busy without being processed,
+ * so that the memory and the latency of the server stay bounded under overload.
+ */
+public class ConnectionSettings {
+    public static final int DEFAULT_PORT = 4321;
+    public static final int DEFAULT_BACKLOG = 1024;
+    public static final int DEFAULT_MAX_CONNECTIONS = 10_000;
+    public static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 1024;
+    public static final int NOT_LISTENING = -1; // the port of a server which serves no client, e.g. run by an offline tool on its data directory
+
+    private final ConnectionEngine engine;
+    private final int workers;
+    private final int maxConnections;
+    private final int maxInFlightRequests;
+    private final int port;
+
+    public ConnectionSettings(ConnectionEngine engine) {
+        this(engine, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ConnectionSettings(ConnectionEngine engine, int workers) {
+        this(engine, workers, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_IN_FLIGHT_REQUESTS);
+    }
+
+    /**
+     * @param workers The number of threads processing the requests of the selector engine, or the independent requests with the engines of a thread per client, and computing the key derivations of the virtual thread per client engine.
+     * @param maxConnections The maximum number of clients connected at once.
+     * @param maxInFlightRequests The maximum number of requests received and not answered yet, all clients included.
+     */
+    public ConnectionSettings(ConnectionEngine engine, int workers, int maxConnections, int maxInFlightRequests) {
+        this(engine, workers, maxConnections, maxInFlightRequests, DEFAULT_PORT);
+    }
+
+    /**
+     * @param port The port the server listens to, 0 for a port chosen by the system, e.g. for the tests, which is then given by Server.getPort, or NOT_LISTENING.
+     */
+    public ConnectionSettings(ConnectionEngine engine, int workers, int maxConnections, int maxInFlightRequests, int port) {
+        if (workers < 1)
+            throw new IllegalArgumentException("There must be at least one worker");
+        if (maxConnections < 1 || maxInFlightRequests < 1)
+            throw new IllegalArgumentException("At least one client and one request must be admitted");
+        if ((port < 0 && port != NOT_LISTENING) || port > 0xFFFF)
+            throw new IllegalArgumentException("The port must be between 0 and 65535");
+        if (port == NOT_LISTENING && engine == ConnectionEngine.SELECTOR)
+            throw new IllegalArgumentException("The selector engine needs a port to listen to");
+        this.engine = engine;
+        this.workers = workers;
+        this.maxConnections = maxConnections;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.port = port;
+    }
+
+    public static ConnectionSettings threadPerClient() {
+        return new ConnectionSettings(ConnectionEngine.THREAD_PER_CLIENT);
+    }
+
+    /**
+     * @brief Get the settings of a server which doesn't listen to any port, so that it can be built while another server runs, e.g. by an offline tool.
+     */
+    public static ConnectionSettings notListening() {
+        return new ConnectionSettings(ConnectionEngine.THREAD_PER_CLIENT, 1, 1, 1, NOT_LISTENING);
+    }
+
+    public ConnectionEngine getEngine() {
+        return this.engine;
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    public int getMaxInFlightRequests() {
+        return this.maxInFlightRequests;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * @brief Get the same settings with another engine.
+     */
+    public ConnectionSettings withEngine(ConnectionEngine engine) {
+        return new ConnectionSettings(engine, this.workers, this.maxConnections, this.maxInFlightRequests, this.port);
+    }
+
+    /**
+     * @brief Tell whether this Java version has virtual threads, which exist from Java 21.
+     */
+    public static boolean hasVirtualThreads() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * @brief Get the factory of the threads of the client handlers, with the engines of a thread per client.
+     *
+     * @details The server is compiled for Java 17, so the virtual threads, which exist from Java 21, are created by reflection.
+     * The server falls back to a platform thread per client before Java 21 (see hasVirtualThreads), so it never calls this method with the virtual thread engine there.
+     * @throws UnsupportedOperationException If the virtual threads don't exist in this Java version.
+     */
+    public ThreadFactory handlerThreads() {
+        if (this.engine != ConnectionEngine.VIRTUAL_THREAD_PER_CLIENT)
+            return Thread::new;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, "client-handler-", 0L);
+            return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("The virtual threads need Java 21, this is Java " + Runtime.version().feature(), e);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package server;
+
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief This class holds the listings of a domain, i.e. the sales sent to the clients, sorted by id, with their recent versions.
+ *
+ * @details Every write gets a version from a clock shared by the domains, and the version of the last write published in the domain is the version read by a new reader.
+ * The slots of the listings, sorted by id, are published as an array which is replaced when a listing is created (copy-on-write).
+ * An update or a delete only pushes a new version of the listing in front of its slot, so it costs a binary search: a deleted listing becomes a tombstone keeping its id.
+ * A reader never locks: it reads the slots as of a version by skipping the versions written after it, so that it pages through a stable view of the domain while it is written.
+ * Writers of the same domain are serialized on this instance, so that writers of other domains don't wait.
+ * The older versions and the tombstones are garbage once no reader pins a version old enough to see them: a compaction task drops them once they exceed a fraction of the slots.
+ * A reader of the current listings pins the current version too, for the duration of its read only, so that a compaction never cuts a version it is reading.
+ * The current listings are also indexed by price in a concurrent skip list, to answer price range queries without scanning the domain.
+ */
+public class DomainListings {
+    public static final double DEFAULT_GARBAGE_THRESHOLD = 0.25;
+
+    private static final Sale[] EMPTY = new Sale[0];
+    private static final Version[] NO_SLOTS = new Version[0];
+
+    /**
+     * @brief A version of a listing, linked to the version it replaced.
+     */
+    private static final class Version {
+        private final int id;
+        private final Sale listing; // null if the listing has been deleted
+        private final long version;
+        private volatile Version previous; // cut by the compactions once no reader can see it
+
+        private Version(int id, Sale listing, long version, Version previous) {
+            this.id = id;
+            this.listing = listing;
+            this.version = version;
+            this.previous = previous;
+        }
+
+        /**
+         * @brief Get the listing as of a version, or null if it didn't exist yet or was deleted.
+         */
+        private Sale at(long version) {
+            for (Version v = this; v != null; v = v.previous)
+                if (v.version <= version)
+                    return v.listing;
+            return null;
+        }
+    }
+
+    /**
+     * @brief The current listings as of a version.
+     */
+    private static final class LiveListings {
+        private final long version;
+        private final Sale[] listings;
+
+        private LiveListings(long version, Sale[] listings) {
+            this.version = version;
+            this.listings = listings;
+        }
+    }
+
+    private volatile Version[] slots = NO_SLOTS; // the latest version of each listing, sorted by id
+    private volatile long version; // the version of the last write published
+    private volatile int size; // the number of current listings, guarded by this for the writes
+    private volatile int garbage; // the number of versions which aren't current listings, i.e. the replaced versions and the tombstones, guarded by this for the writes
+    private int retained; // the garbage kept by the last compaction since a reader could still see it, guarded by this
+    private boolean compactionScheduled; // guarded by this
+    private volatile LiveListings live = new LiveListings(0, EMPTY);
+    private final ConcurrentSkipListMap<Long, Sale> byPrice = new ConcurrentSkipListMap<>(); // the current listings by price, then by id
+    private final AtomicLong clock;
+    private final ReadVersions readers;
+    private final Executor compactor;
+    private final double garbageThreshold;
+
+    /**
+     * @brief Listings with their own clock and readers, compacted by the thread writing the version which crosses the default threshold.
+     */
+    public DomainListings() {
+        this(new AtomicLong(), new ReadVersions(), Runnable::run, DEFAULT_GARBAGE_THRESHOLD);
+    }
+
+    /**
+     * @param clock The clock of the versions, shared by the domains.
+     * @param readers The versions pinned by the readers, shared by the domains.
+     * @param compactor The executor of the compactions.
+     * @param garbageThreshold The fraction of garbage versions in the slots above which they are compacted, between 0 and 1.
+     */
+    public DomainListings(AtomicLong clock, ReadVersions readers, Executor compactor, double garbageThreshold) {
+        if (!(garbageThreshold >= 0 && garbageThreshold <= 1))
+            throw new IllegalArgumentException("The garbage threshold must be between 0 and 1");
+        this.clock = clock;
+        this.readers = readers;
+        this.compactor = compactor;
+        this.garbageThreshold = garbageThreshold;
+    }
+
+    /**
+     * @brief Get the version of the last write published in this domain.
+     */
+    public long version() {
+        return this.version;
+    }
+
+    /**
+     * @brief Pin the current version, to read the following pages as of that version until it is released.
+     *
+     * @return The pin, whose version is given by ReadVersions.renew.
+     */
+    public long pin() {
+        return this.readers.pin(this::version);
+    }
+
+    /**
+     * @brief Get the current listings. The returned array is shared by every reader: it must not be modified.
+     *
+     * @details Since the slots are written in place, the current listings are copied from them, once per version, by its first reader.
+     */
+    public Sale[] snapshot() {
+        long version = this.version;
+        LiveListings live = this.live;
+        if (live.version == version)
+            return live.listings;
+        long pin = this.readers.pinForRead(this::version);
+        try {
+            version = this.version; // not older than the pinned version, so the compactions keep it until the pin is released
+            Version[] slots = this.slots;
+            Sale[] listings = new Sale[slots.length];
+            int count = 0;
+            for (Version slot: slots) {
+                Sale listing = slot.at(version); // ignore the writes published meanwhile, which the next reader will see
+                if (listing != null)
+                    listings[count++] = listing;
+            }
+            listings = count == listings.length ? listings : Arrays.copyOf(listings, count);
+            this.live = new LiveListings(version, listings); // stale if a reader of a newer version has cached its listings meanwhile, in which case they are copied again
+            return listings;
+        } finally {
+            this.readers.release(pin);
+        }
+    }
+
+    /**
+     * @brief Publish a version written in place, or a new array of slots.
+     */
+    private void publish(Version[] slots, long version) {
+        this.slots = slots;
+        this.version = version;
+    }
+
+    /**
+     * @brief Add a listing. A new sale has the greatest id, so its listing is appended; a replayed sale may have to be inserted before the others.
+     *
+     * @details A listing whose id still has a slot, e.g. a deleted sale restored since its delete couldn't be logged, gets a new version in front of that slot, as an update does:
+     * a second slot with the same id would hide it behind the tombstone.
+     */
+    public synchronized void add(Sale listing) {
+        Version[] current = this.slots;
+        int existing = firstIndexAfter(current, listing.getId() - 1);
+        if (existing < current.length && current[existing].id == listing.getId()) {
+            if (current[existing].listing != null) {
+                this.replace(listing);
+                return;
+            }
+            long version = this.clock.incrementAndGet();
+            current[existing] = new Version(listing.getId(), listing, version, current[existing]); // the tombstone and the deleted version stay garbage
+            this.publish(current, version);
+            this.size++;
+            this.byPrice.put(priceKey(listing.getPrice(), listing.getId()), listing);
+            return;
+        }
+        long version = this.clock.incrementAndGet();
+        int index = firstIndexAfter(current, listing.getId());
+        Version[] next = new Version[current.length + 1];
+        System.arraycopy(current, 0, next, 0, index);
+        next[index] = new Version(listing.getId(), listing, version, null);
+        System.arraycopy(current, index, next, index + 1, current.length - index);
+        this.publish(next, version);
+        this.size++;
+        this.byPrice.put(priceKey(listing.getPrice(), listing.getId()), listing);
+    }
+
+    /**
+     * @brief Add listings at once, with a single copy of the slots, e.g. when sales are imported. They are published together, with the version of the last one.
+     *
+     * @param listings New listings sorted by id. They are appended if their ids are greater than the current ones, else inserted one at a time.
+     */
+    public synchronized void addAll(Sale[] listings) {
+        if (listings.length == 0)
+            return;
+        Version[] current = this.slots;
+        if (current.length > 0 && current[current.length - 1].id >= listings[0].getId()) {
+            for (Sale listing: listings)
+                this.add(listing);
+            return;
+        }
+        Version[] next = Arrays.copyOf(current, current.length + listings.length);
+        long version = 0;
+        for (int i = 0; i < listings.length; i++) {
+            version = this.clock.incrementAndGet();
+            next[current.length + i] = new Version(listings[i].getId(), listings[i], version, null);
+        }
+        this.publish(next, version);
+        this.size += listings.length;
+        for (Sale listing: listings)
+            this.byPrice.put(priceKey(listing.getPrice(), listing.getId()), listing);
+    }
+
+    /**
+     * @brief Replace the listing having the same id as the given one, in place. The replaced version is kept for the readers of older versions.
+     */
+    public synchronized void replace(Sale listing) {
+        long version = this.clock.incrementAndGet();
+        Version[] current = this.slots;
+        int index = indexOf(current, listing.getId());
+        Sale replaced = current[index].listing;
+        current[index] = new Version(listing.getId(), listing, version, current[index]);
+        this.publish(current, version);
+        this.byPrice.put(priceKey(listing.getPrice(), listing.getId()), listing);
+        if (replaced.getPrice() != listing.getPrice())
+            this.byPrice.remove(priceKey(replaced.getPrice(), listing.getId()));
+        this.addGarbage(1);
+    }
+
+    /**
+     * @brief Replace a listing by a tombstone, in place. The deleted version is kept for the readers of older versions.
+     */
+    public synchronized void remove(int id) {
+        long version = this.clock.incrementAndGet();
+        Version[] current = this.slots;
+        int index = indexOf(current, id);
+        Sale listing = current[index].listing;
+        current[index] = new Version(id, null, version, current[index]);
+        this.publish(current, version);
+        this.size--;
+        this.byPrice.remove(priceKey(listing.getPrice(), id));
+        this.addGarbage(2); // the deleted listing and its tombstone
+    }
+
+    /**
+     * @brief Count garbage versions and schedule a compaction if the garbage collectable since the last one exceeds the threshold.
+     */
+    private void addGarbage(int versions) {
+        this.garbage += versions;
+        if (!this.compactionScheduled && this.garbage - this.retained > this.garbageThreshold * this.slots.length) {
+            this.compactionScheduled = true;
+            this.compactor.execute(this::compact);
+        }
+    }
+
+    /**
+     * @brief Drop the versions which no reader can see anymore, with a single copy of the slots. The readers of the previous slots keep reading them.
+     *
+     * @details A reader sees the first version of a slot older than its own, so the versions following the one seen by the oldest reader are cut, and the slots whose visible version is a tombstone are dropped.
+     */
+    public synchronized void compact() {
+        this.compactionScheduled = false;
+        if (this.garbage == 0)
+            return;
+        long oldest = this.readers.oldest(this::version);
+        Version[] current = this.slots;
+        Version[] next = new Version[current.length];
+        int count = 0;
+        int garbage = 0;
+        for (Version slot: current) {
+            Version seen = slot;
+            int kept = 1;
+            while (seen.version > oldest && seen.previous != null) {
+                seen = seen.previous;
+                kept++;
+            }
+            seen.previous = null;
+            if (seen == slot && slot.listing == null) // deleted before every reader
+                continue;
+            next[count++] = slot;
+            garbage += slot.listing == null ? kept : kept - 1;
+        }
+        this.garbage = garbage;
+        this.retained = garbage;
+        this.slots = count == next.length ? next : Arrays.copyOf(next, count);
+    }
+
+    /**
+     * @brief Get the number of garbage versions waiting for a compaction.
+     */
+    public int garbage() {
+        return this.garbage;
+    }
+
+    /**
+     * @brief Get the current listing of a sale, or null if the domain has no sale with that id.
+     */
+    public Sale get(int id) {
+        Version[] current = this.slots;
+        int index = firstIndexAfter(current, id - 1);
+        return index < current.length && current[index].id == id ? current[index].listing : null;
+    }
+
+    /**
+     * @brief Get the current listings whose price is in a range, sorted by price then by id.
+     *
+     * @details The first listing is located in O(log n), then only the returned listings are visited.
+     * @param minPrice The lowest price, included.
+     * @param maxPrice The highest price, included.
+     * @param descending True to start from the most expensive listing.
+     * @param limit The maximum number of listings.
+     */
+    public Sale[] byPrice(int minPrice, int maxPrice, boolean descending, int limit) {
+        if (minPrice > maxPrice || limit <= 0)
+            return EMPTY;
+        NavigableMap<Long, Sale> range = this.byPrice.subMap(priceKey(minPrice, 0), true, priceKey(maxPrice, Integer.MAX_VALUE), true);
+        if (descending)
+            range = range.descendingMap();
+        Sale[] listings = new Sale[Math.min(limit, 16)];
+        int count = 0;
+        for (Sale listing: range.values()) {
+            if (count == listings.length)
+                listings = Arrays.copyOf(listings, Math.min(limit, count * 2));
+            listings[count++] = listing;
+            if (count == limit)
+                break;
+        }
+        return Arrays.copyOf(listings, count);
+    }
+
+    /**
+     * @brief The key of a listing in the price index: the price in the high bits and the id, which is never negative, in the low bits.
+     */
+    private static long priceKey(int price, int id) {
+        return ((long) price << 32) | id;
+    }
+
+    /**
+     * @brief Get a page of the current listings. The current version is pinned while the page is read.
+     */
+    public SalePage page(Integer after, int limit) {
+        long pin = this.readers.pinForRead(this::version);
+        try {
+            return this.page(after, limit, this.version); // not older than the pinned version
+        } finally {
+            this.readers.release(pin);
+        }
+    }
+
+    /**
+     * @brief Get a page of the listings as of a version.
+     *
+     * @details Since the listings are sorted by id and a new sale always gets a greater id, a page is located by binary search and pages don't shift when sales are created or deleted.
+     * Read at the version pinned by the first page, the following pages show the domain as it was then, whatever is written meanwhile.
+     * @param after The id after which the page starts (the cursor), or null for the first page.
+     * @param limit The maximum number of listings in the page, at least 1.
+     * @param version The version to read, pinned or not older than a version pinned during the read, else a compaction may cut it.
+     */
+    public SalePage page(Integer after, int limit, long version) {
+        Version[] current = this.slots;
+        int index = after == null ? 0 : firstIndexAfter(current, after);
+        Sale[] listings = new Sale[Math.min(limit, current.length - index)];
+        int count = 0;
+        for (; index < current.length && count < listings.length; index++) {
+            Sale listing = current[index].at(version);
+            if (listing != null)
+                listings[count++] = listing;
+        }
+        while (index < current.length && current[index].at(version) == null)
+            index++;
+        Integer nextCursor = index < current.length ? listings[count - 1].getId() : null;
+        return new SalePage(count == listings.length ? listings : Arrays.copyOf(listings, count), nextCursor);
+    }
+
+    /**
+     * @brief Get the number of current listings.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @brief Binary search of the first slot whose id is greater than the given one.
+     */
+    private static int firstIndexAfter(Version[] slots, int id) {
+        int low = 0;
+        int high = slots.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (slots[mid].id <= id)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @brief Binary search of a slot by id.
+     */
+    private static int indexOf(Version[] slots, int id) {
+        int low = 0;
+        int high = slots.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = slots[mid].id;
+            if (midId < id)
+                low = mid + 1;
+            else if (midId > id)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        throw new IllegalStateException("No listing for the sale " + id);
+    }
+}
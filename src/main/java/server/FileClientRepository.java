@@ -0,0 +1,150 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief This class stores the clients in a file: only the position of each client in the file is kept on the heap, by mail.
+ *
+ * @details A client is appended as the length of its record followed by its fields, each one written as its length in bytes (-1 for null) followed by its UTF-8 bytes.
+ * A removed client is only forgotten by the index. The reads are positional, so they don't block each other nor the appends.
+ * As the other engines, the file is only the memory of the repository: it is truncated when the repository is created and deleted when it is closed.
+ */
+public class FileClientRepository implements ClientRepository {
+    private final Path file;
+    private final FileChannel channel;
+    private final ConcurrentHashMap<String, Long> positions = new ConcurrentHashMap<>(); // the position of the record of each client, by mail
+    private long end; // guarded by this
+
+    public FileClientRepository(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.file = directory.resolve("clients.records");
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized boolean add(Client client) throws IOException {
+        if (this.positions.containsKey(client.getMail()))
+            return false;
+        byte[][] fields = {bytesOf(client.getMail()), bytesOf(client.getName()), bytesOf(client.getPwd()), bytesOf(client.getSalt())};
+        int length = 0;
+        for (byte[] field: fields)
+            length += 4 + (field == null ? 0 : field.length);
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length);
+        for (byte[] field: fields) {
+            record.putInt(field == null ? -1 : field.length);
+            if (field != null)
+                record.put(field);
+        }
+        record.flip();
+        long position = this.end;
+        while (record.hasRemaining())
+            position += this.channel.write(record, position);
+        this.positions.put(client.getMail(), this.end);
+        this.end = position;
+        return true;
+    }
+
+    private static byte[] bytesOf(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Client get(String mail) {
+        Long position = mail == null ? null : this.positions.get(mail);
+        if (position == null)
+            return null;
+        try {
+            ByteBuffer length = this.read(position, 4);
+            ByteBuffer record = this.read(position + 4, length.getInt());
+            return new Client(getString(record), getString(record), getString(record), getString(record));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining())
+            if (this.channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("The record of a client is truncated");
+        return buffer.flip();
+    }
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0)
+            return null;
+        String s = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return s;
+    }
+
+    @Override
+    public boolean contains(String mail) {
+        return this.positions.containsKey(mail);
+    }
+
+    @Override
+    public void remove(String mail) {
+        this.positions.remove(mail);
+    }
+
+    /**
+     * @brief Iterate over the clients, read from the file one at a time.
+     */
+    @Override
+    public Iterable<Client> clients() {
+        return () -> new Iterator<>() {
+            private final Iterator<String> mails = FileClientRepository.this.positions.keySet().iterator();
+            private Client next = this.advance();
+
+            private Client advance() {
+                while (this.mails.hasNext()) {
+                    Client client = FileClientRepository.this.get(this.mails.next());
+                    if (client != null) // removed meanwhile
+                        return client;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Client next() {
+                if (this.next == null)
+                    throw new NoSuchElementException();
+                Client client = this.next;
+                this.next = this.advance();
+                return client;
+            }
+        };
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.positions.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.channel.close();
+        } finally {
+            Files.deleteIfExists(this.file);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief This class stores the clients in a concurrent hash map keyed by mail.
+ */
+public class InMemoryClientRepository implements ClientRepository {
+    private final ConcurrentHashMap<String, Client> clients = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean add(Client client) {
+        return this.clients.putIfAbsent(client.getMail(), client) == null;
+    }
+
+    @Override
+    public Client get(String mail) {
+        return this.clients.get(mail);
+    }
+
+    @Override
+    public boolean contains(String mail) {
+        return this.clients.containsKey(mail);
+    }
+
+    @Override
+    public void remove(String mail) {
+        this.clients.remove(mail);
+    }
+
+    @Override
+    public Iterable<Client> clients() {
+        return this.clients.values();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.clients.isEmpty();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,182 @@
+package server;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @brief This class stores the sales on the heap: the sales by id in a striped hash table, and the listings of each domain in copy-on-write arrays.
+ *
+ * @details The listings of a domain are returned without copying, and a listing is built once when its sale is written.
+ * Every write of a listing gets a version from a clock shared by the domains, so that a reader can page through a domain as of the version it has pinned.
+ * The versions replaced and the deleted listings are left in place, and a background thread compacts them once they exceed a fraction of their domain and no reader pins them.
+ */
+public class InMemorySaleRepository implements SaleRepository {
+    private final StripedSaleTable sales = new StripedSaleTable(); // the sales by id
+    private final Map<Domain, DomainListings> listingsByDomain = new EnumMap<>(Domain.class); // the listings of each domain, sorted by id
+    private final AtomicLong clock = new AtomicLong(); // the version of the last write
+    private final ReadVersions readers;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "listings-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public InMemorySaleRepository() {
+        this(DomainListings.DEFAULT_GARBAGE_THRESHOLD, ReadVersions.DEFAULT_LEASE_MILLIS);
+    }
+
+    /**
+     * @param garbageThreshold The fraction of garbage versions in the listings of a domain above which they are compacted.
+     * @param leaseMillis How long a version stays pinned after the last page read at that version.
+     */
+    public InMemorySaleRepository(double garbageThreshold, long leaseMillis) {
+        this.readers = new ReadVersions(leaseMillis);
+        for (Domain domain: Domain.values())
+            this.listingsByDomain.put(domain, new DomainListings(this.clock, this.readers, this.compactor, garbageThreshold));
+    }
+
+    @Override
+    public Sale get(int id) {
+        return this.sales.get(id);
+    }
+
+    @Override
+    public Sale getListing(int id) {
+        Sale sale = this.sales.get(id);
+        return sale == null ? null : this.listingsByDomain.get(sale.getDomain()).get(id); // null if the sale has just been deleted
+    }
+
+    @Override
+    public void put(Sale sale, String ownerName) {
+        Sale listing = new Sale(ownerName, sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), sale.getId());
+        if (this.sales.put(sale.getId(), sale) == null)
+            this.listingsByDomain.get(sale.getDomain()).add(listing);
+        else
+            this.listingsByDomain.get(sale.getDomain()).replace(listing);
+    }
+
+    /**
+     * @details The listings are appended to their domain with a single copy of its snapshot.
+     */
+    @Override
+    public void addAll(Sale[] sales, String[] ownerNames) {
+        if (sales.length == 0)
+            return;
+        Sale[] listings = new Sale[sales.length];
+        for (int i = 0; i < sales.length; i++) {
+            Sale sale = sales[i];
+            this.sales.put(sale.getId(), sale);
+            listings[i] = new Sale(ownerNames[i], sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), sale.getId());
+        }
+        this.listingsByDomain.get(sales[0].getDomain()).addAll(listings);
+    }
+
+    @Override
+    public boolean remove(int id) {
+        Sale sale = this.sales.remove(id);
+        if (sale == null)
+            return false;
+        this.listingsByDomain.get(sale.getDomain()).remove(id);
+        return true;
+    }
+
+    /**
+     * @details The current snapshot of the domain is returned without locking nor copying.
+     */
+    @Override
+    public Sale[] listings(Domain domain) {
+        return this.listingsByDomain.get(domain).snapshot();
+    }
+
+    @Override
+    public SalePage page(Domain domain, Integer after, int limit) {
+        return this.listingsByDomain.get(domain).page(after, limit);
+    }
+
+    @Override
+    public long pin(Domain domain) {
+        return this.listingsByDomain.get(domain).pin();
+    }
+
+    @Override
+    public void release(long pin) {
+        this.readers.release(pin);
+    }
+
+    /**
+     * @details The page is read without locking, by skipping the versions of the listings written after the pinned one.
+     */
+    @Override
+    public SalePage page(Domain domain, Integer after, int limit, long pin) {
+        DomainListings listings = this.listingsByDomain.get(domain);
+        long version = this.readers.renew(pin);
+        if (version < 0)
+            return listings.page(after, limit);
+        SalePage page = listings.page(after, limit, version);
+        return new SalePage(page.getSales(), page.getNextCursor(), pin);
+    }
+
+    @Override
+    public Sale[] byPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit) {
+        return this.listingsByDomain.get(domain).byPrice(minPrice, maxPrice, descending, limit);
+    }
+
+    /**
+     * @details The sales are iterated domain by domain, over the snapshot of the listings of each domain taken when the iteration reaches it: nothing is copied.
+     */
+    @Override
+    public Iterable<Sale> sales() {
+        return () -> new Iterator<>() {
+            private final Iterator<DomainListings> domains = InMemorySaleRepository.this.listingsByDomain.values().iterator();
+            private Sale[] listings = new Sale[0];
+            private int index;
+            private Sale next = this.advance();
+
+            /**
+             * @brief Find the next sale which hasn't been deleted meanwhile, or null if there is none.
+             */
+            private Sale advance() {
+                while (true) {
+                    while (this.index < this.listings.length) {
+                        Sale sale = InMemorySaleRepository.this.sales.get(this.listings[this.index++].getId());
+                        if (sale != null) // deleted meanwhile
+                            return sale;
+                    }
+                    if (!this.domains.hasNext())
+                        return null;
+                    this.listings = this.domains.next().snapshot();
+                    this.index = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Sale next() {
+                if (this.next == null)
+                    throw new NoSuchElementException();
+                Sale sale = this.next;
+                this.next = this.advance();
+                return sale;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return this.sales.size();
+    }
+
+    @Override
+    public void close() {
+        this.compactor.shutdownNow();
+    }
+}
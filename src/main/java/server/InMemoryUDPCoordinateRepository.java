@@ -0,0 +1,27 @@
+package server;
+
+import client.IpAddressUDPServer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief This class stores the addresses of the UDP servers of the clients in a concurrent hash map.
+ */
+public class InMemoryUDPCoordinateRepository implements UDPCoordinateRepository {
+    private final ConcurrentHashMap<String, IpAddressUDPServer> addresses = new ConcurrentHashMap<>();
+
+    @Override
+    public void put(String mail, IpAddressUDPServer address) {
+        this.addresses.put(mail, address);
+    }
+
+    @Override
+    public IpAddressUDPServer get(String mail) {
+        return this.addresses.get(mail);
+    }
+
+    @Override
+    public boolean contains(String mail) {
+        return this.addresses.containsKey(mail);
+    }
+}
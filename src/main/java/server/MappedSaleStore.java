@@ -0,0 +1,640 @@
+package server;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @brief This class stores the sales outside of the heap, in memory-mapped files, so that the number of sales doesn't weigh on the garbage collector.
+ *
+ * @details A sale is a fixed-size record of the records file, located by its id: the id, the price, the domain, then the references of its strings (owner, name of the owner, title, content).
+ * The strings are appended to a second file, as their length followed by their UTF-8 bytes; a record is updated in place, and its previous strings are left unused.
+ * Once the unused strings outweigh the used ones, the strings are compacted: the used ones are copied to a new strings file, which replaces the previous one.
+ * The references of the strings carry the generation of their file, and the previous file stays mapped for the views positioned before the compaction.
+ * Both files are mapped by chunks, mapped as the store grows; a string never spans two chunks.
+ * The sales are read through flyweight views: a SaleView is positioned on a record without allocating, and only decodes the strings which are asked for.
+ * Each record is guarded by a sequence number (seqlock): it is odd while the record is written, and incremented by a write, so that the readers never block and never see a half-written record.
+ * The ids of each domain, and their prices, are indexed on the heap in sorted sets, so that a page or a range of prices is read without scanning the records of the other sales.
+ * The files are only the memory of the store: they are truncated when the store is created and deleted when it is closed, the durability is given by the write-ahead log and the snapshots.
+ * It is the sale repository of the FILE engine.
+ */
+public class MappedSaleStore implements SaleRepository {
+    private static final int RECORD_SIZE = 48;
+    private static final int SEQUENCE = 0;
+    private static final int STATE = 4;
+    private static final int DOMAIN = 5;
+    private static final int PRICE = 8;
+    private static final int OWNER = 16;
+    private static final int OWNER_NAME = 24;
+    private static final int TITLE = 32;
+    private static final int CONTENT = 40;
+    private static final byte ABSENT = 0; // never written, or deleted
+    private static final byte LIVE = 1;
+    private static final long NULL_STRING = -1;
+    private static final int GENERATION_SHIFT = 48; // a reference is the generation of its strings file, then the position of the string in it
+    private static final long POSITION_MASK = (1L << GENERATION_SHIFT) - 1;
+    private static final int GENERATION_MASK = 0x7FFF;
+    private static final int DEFAULT_RECORDS_PER_CHUNK = 1 << 20; // 48 MB
+    private static final int DEFAULT_STRING_CHUNK_SIZE = 1 << 26; // 64 MB
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final Domain[] DOMAINS = Domain.values();
+
+    /**
+     * @brief A strings file and its chunks.
+     */
+    private static final class Strings {
+        private final FileChannel channel;
+        private final int generation;
+        private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+        private long end; // where the next string is appended, guarded by this
+        private long garbage; // the size of the strings left unused, guarded by this
+
+        private Strings(FileChannel channel, int generation) {
+            this.channel = channel;
+            this.generation = generation & GENERATION_MASK;
+        }
+
+        private boolean holds(long reference) {
+            return (int) (reference >>> GENERATION_SHIFT) == this.generation;
+        }
+    }
+
+    private final Path recordsFile;
+    private final Path stringsFile;
+    private final FileChannel records;
+    private final int recordsPerChunk;
+    private final int stringChunkSize;
+    private volatile MappedByteBuffer[] recordChunks = new MappedByteBuffer[0];
+    private volatile Strings strings; // where the strings are appended
+    private volatile Strings previousStrings; // the strings file being compacted, null if no compaction is running
+    private final ReentrantReadWriteLock compaction = new ReentrantReadWriteLock(); // read by the writers, written by a compaction of the strings
+    private final Map<Domain, NavigableSet<Integer>> ids = new EnumMap<>(Domain.class); // the ids of the sales of each domain
+    private final Map<Domain, NavigableSet<Long>> prices = new EnumMap<>(Domain.class); // the keys (price then id) of the sales of each domain
+    private volatile int end; // one more than the greatest id ever stored
+    private int size; // the number of live sales, guarded by this
+
+    /**
+     * @brief Create an empty store in a directory, replacing the files of a previous store.
+     */
+    public MappedSaleStore(Path directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_CHUNK, DEFAULT_STRING_CHUNK_SIZE);
+    }
+
+    MappedSaleStore(Path directory, int recordsPerChunk, int stringChunkSize) throws IOException {
+        Files.createDirectories(directory);
+        this.recordsFile = directory.resolve("sales.records");
+        this.stringsFile = directory.resolve("sales.strings");
+        this.recordsPerChunk = recordsPerChunk;
+        this.stringChunkSize = stringChunkSize;
+        this.records = FileChannel.open(this.recordsFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.strings = new Strings(FileChannel.open(this.stringsFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE), 0);
+        } catch (IOException e) {
+            this.records.close();
+            throw e;
+        }
+        for (Domain domain: DOMAINS) {
+            this.ids.put(domain, new ConcurrentSkipListSet<>());
+            this.prices.put(domain, new ConcurrentSkipListSet<>());
+        }
+    }
+
+    /**
+     * @brief A flyweight over the record of a sale. A view is reused from record to record and must not be shared between threads.
+     *
+     * @details moveTo copies the fixed part of the record into the view, so that the getters of a view are consistent with each other even if the sale is updated meanwhile.
+     */
+    public class SaleView {
+        private int id = -1;
+        private Domain domain;
+        private int price;
+        private long owner;
+        private long ownerName;
+        private long title;
+        private long content;
+        private Strings strings; // the strings files of the references, read with them
+        private Strings previousStrings;
+
+        private SaleView() {
+        }
+
+        /**
+         * @brief Position the view on a sale.
+         *
+         * @return True if the sale exists, false if it doesn't or has been deleted, in which case the view is left unpositioned.
+         */
+        public boolean moveTo(int id) {
+            this.id = -1;
+            MappedByteBuffer[] chunks = MappedSaleStore.this.recordChunks;
+            if (id < 0 || id / MappedSaleStore.this.recordsPerChunk >= chunks.length)
+                return false;
+            MappedByteBuffer chunk = chunks[id / MappedSaleStore.this.recordsPerChunk];
+            int at = (id % MappedSaleStore.this.recordsPerChunk) * RECORD_SIZE;
+            while (true) {
+                int sequence = (int) INT.getAcquire(chunk, at + SEQUENCE);
+                if ((sequence & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                boolean live = chunk.get(at + STATE) == LIVE;
+                byte domain = chunk.get(at + DOMAIN);
+                this.price = chunk.getInt(at + PRICE);
+                this.owner = chunk.getLong(at + OWNER);
+                this.ownerName = chunk.getLong(at + OWNER_NAME);
+                this.title = chunk.getLong(at + TITLE);
+                this.content = chunk.getLong(at + CONTENT);
+                this.strings = MappedSaleStore.this.strings; // before the previous file, see compact
+                this.previousStrings = MappedSaleStore.this.previousStrings;
+                VarHandle.loadLoadFence();
+                if ((int) INT.getVolatile(chunk, at + SEQUENCE) != sequence)
+                    continue; // written meanwhile
+                if (!live)
+                    return false;
+                this.domain = DOMAINS[domain];
+                this.id = id;
+                return true;
+            }
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public Domain getDomain() {
+            return this.domain;
+        }
+
+        public int getPrice() {
+            return this.price;
+        }
+
+        /**
+         * @return The mail of the owner.
+         */
+        public String getOwner() {
+            return this.readString(this.owner);
+        }
+
+        public String getOwnerName() {
+            return this.readString(this.ownerName);
+        }
+
+        public String getTitle() {
+            return this.readString(this.title);
+        }
+
+        public String getContent() {
+            return this.readString(this.content);
+        }
+
+        private String readString(long reference) {
+            if (reference == NULL_STRING)
+                return null;
+            return MappedSaleStore.this.readString(this.strings.holds(reference) ? this.strings : this.previousStrings, reference);
+        }
+
+        /**
+         * @brief Copy the sale on the heap, with the mail of its owner.
+         */
+        public Sale toSale() {
+            return new Sale(this.getOwner(), this.domain, this.getTitle(), this.getContent(), this.price, this.id);
+        }
+
+        /**
+         * @brief Copy the listing of the sale on the heap, i.e. the sale with the name of its owner instead of the mail.
+         */
+        public Sale toListing() {
+            return new Sale(this.getOwnerName(), this.domain, this.getTitle(), this.getContent(), this.price, this.id);
+        }
+    }
+
+    /**
+     * @brief Create a view, to read the sales without copying them on the heap.
+     */
+    public SaleView view() {
+        return new SaleView();
+    }
+
+    /**
+     * @brief Insert or replace a sale.
+     *
+     * @param ownerName The name of the owner, stored with the sale so that its listing is read without a join.
+     */
+    @Override
+    public void put(Sale sale, String ownerName) throws IOException {
+        int id = sale.getId();
+        if (id < 0)
+            throw new IllegalArgumentException("The id of a sale can't be negative");
+        boolean added;
+        this.compaction.readLock().lock();
+        try {
+            Strings strings = this.strings;
+            long owner = this.writeString(strings, sale.getOwner());
+            long name = this.writeString(strings, ownerName);
+            long title = this.writeString(strings, sale.getTitle());
+            long content = this.writeString(strings, sale.getContent());
+            MappedByteBuffer chunk = this.recordChunk(id);
+            int at = (id % this.recordsPerChunk) * RECORD_SIZE;
+            int sequence = lock(chunk, at);
+            added = chunk.get(at + STATE) != LIVE;
+            if (!added)
+                this.forget(chunk, at, id);
+            chunk.put(at + STATE, LIVE);
+            chunk.put(at + DOMAIN, (byte) sale.getDomain().ordinal());
+            chunk.putInt(at + PRICE, sale.getPrice());
+            chunk.putLong(at + OWNER, owner);
+            chunk.putLong(at + OWNER_NAME, name);
+            chunk.putLong(at + TITLE, title);
+            chunk.putLong(at + CONTENT, content);
+            this.ids.get(sale.getDomain()).add(id);
+            this.prices.get(sale.getDomain()).add(priceKey(sale.getPrice(), id));
+            INT.setRelease(chunk, at + SEQUENCE, sequence + 2);
+        } finally {
+            this.compaction.readLock().unlock();
+        }
+        synchronized (this) {
+            if (added)
+                this.size++;
+            if (id >= this.end)
+                this.end = id + 1;
+        }
+        this.compactIfWasteful();
+    }
+
+    /**
+     * @brief Delete a sale.
+     *
+     * @return True if the sale existed.
+     */
+    @Override
+    public boolean remove(int id) {
+        MappedByteBuffer[] chunks = this.recordChunks;
+        if (id < 0 || id / this.recordsPerChunk >= chunks.length)
+            return false;
+        MappedByteBuffer chunk = chunks[id / this.recordsPerChunk];
+        int at = (id % this.recordsPerChunk) * RECORD_SIZE;
+        boolean removed;
+        this.compaction.readLock().lock();
+        try {
+            int sequence = lock(chunk, at);
+            removed = chunk.get(at + STATE) == LIVE;
+            if (removed)
+                this.forget(chunk, at, id);
+            chunk.put(at + STATE, ABSENT);
+            INT.setRelease(chunk, at + SEQUENCE, sequence + 2);
+        } finally {
+            this.compaction.readLock().unlock();
+        }
+        if (removed)
+            synchronized (this) {
+                this.size--;
+            }
+        return removed; // its strings are compacted by a next write
+
+    }
+
+    /**
+     * @brief Remove a live record from the indexes, and count its strings as unused. The sequence of the record must be held.
+     */
+    private void forget(MappedByteBuffer chunk, int at, int id) {
+        Domain domain = DOMAINS[chunk.get(at + DOMAIN)];
+        this.ids.get(domain).remove(id);
+        this.prices.get(domain).remove(priceKey(chunk.getInt(at + PRICE), id));
+        Strings strings = this.strings;
+        long garbage = 0;
+        for (int field: new int[] {OWNER, OWNER_NAME, TITLE, CONTENT}) {
+            long reference = chunk.getLong(at + field);
+            if (reference != NULL_STRING && strings.holds(reference)) // the strings of a previous file are freed by its compaction
+                garbage += 4 + readLength(strings, reference);
+        }
+        synchronized (strings) {
+            strings.garbage += garbage;
+        }
+    }
+
+    private static long priceKey(int price, int id) {
+        return ((long) price << 32) | id;
+    }
+
+    /**
+     * @brief Take the sequence of a record, spinning while another writer holds it, and make it odd.
+     *
+     * @return The sequence before the write.
+     */
+    private static int lock(MappedByteBuffer chunk, int at) {
+        while (true) {
+            int sequence = (int) INT.getVolatile(chunk, at + SEQUENCE);
+            if ((sequence & 1) == 0 && INT.compareAndSet(chunk, at + SEQUENCE, sequence, sequence + 1)) {
+                VarHandle.storeStoreFence(); // the fields are written after the sequence is odd
+                return sequence;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * @brief Get a copy of a sale, with the mail of its owner, or null if there is no sale with that id.
+     */
+    @Override
+    public Sale get(int id) {
+        SaleView view = this.view();
+        return view.moveTo(id) ? view.toSale() : null;
+    }
+
+    /**
+     * @brief Get a copy of the listing of a sale, or null if there is no sale with that id.
+     */
+    @Override
+    public Sale getListing(int id) {
+        SaleView view = this.view();
+        return view.moveTo(id) ? view.toListing() : null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @brief Get the listings of a domain, sorted by id.
+     */
+    @Override
+    public Sale[] listings(Domain domain) {
+        List<Sale> listings = new ArrayList<>();
+        SaleView view = this.view();
+        for (int id: this.ids.get(domain))
+            if (view.moveTo(id) && view.getDomain() == domain) // skip the sales deleted or moved meanwhile
+                listings.add(view.toListing());
+        return listings.toArray(new Sale[0]);
+    }
+
+    /**
+     * @brief Get a page of the listings of a domain. The ids of the domain are read in order from the cursor, so the pages don't shift when sales are created or deleted.
+     *
+     * @param after The id after which the page starts (the cursor), or null for the first page.
+     * @param limit The maximum number of listings in the page, at least 1.
+     */
+    @Override
+    public SalePage page(Domain domain, Integer after, int limit) {
+        List<Sale> listings = new ArrayList<>();
+        SaleView view = this.view();
+        NavigableSet<Integer> ids = this.ids.get(domain);
+        Iterator<Integer> iterator = (after == null ? ids : ids.tailSet(after, false)).iterator();
+        boolean more = false;
+        while (iterator.hasNext()) {
+            int id = iterator.next();
+            if (!view.moveTo(id) || view.getDomain() != domain) // deleted or moved meanwhile
+                continue;
+            if (listings.size() == limit) {
+                more = true;
+                break;
+            }
+            listings.add(view.toListing());
+        }
+        Integer nextCursor = more ? listings.get(listings.size() - 1).getId() : null;
+        return new SalePage(listings.toArray(new Sale[0]), nextCursor);
+    }
+
+    /**
+     * @brief Get the listings of a domain whose price is in a range, sorted by price then by id.
+     *
+     * @details The range is read from the price index of the domain, in order: only the returned listings are read from the records.
+     * @param descending True to start from the most expensive listing.
+     */
+    @Override
+    public Sale[] byPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit) {
+        if (minPrice > maxPrice || limit <= 0)
+            return new Sale[0];
+        NavigableSet<Long> range = this.prices.get(domain).subSet(priceKey(minPrice, 0), true, priceKey(maxPrice, Integer.MAX_VALUE), true);
+        List<Sale> listings = new ArrayList<>();
+        SaleView view = this.view();
+        for (long key: descending ? range.descendingSet() : range) {
+            int id = (int) key;
+            if (view.moveTo(id) && view.getDomain() == domain && view.getPrice() == (int) (key >> 32)) { // skip the sales deleted or updated meanwhile
+                listings.add(view.toListing());
+                if (listings.size() == limit)
+                    break;
+            }
+        }
+        return listings.toArray(new Sale[0]);
+    }
+
+    /**
+     * @brief Iterate over the sales, with the mail of their owner, in id order. The sales are copied on the heap one at a time.
+     */
+    @Override
+    public Iterable<Sale> sales() {
+        return () -> new Iterator<>() {
+            private final SaleView view = MappedSaleStore.this.view();
+            private int next = MappedSaleStore.this.nextOf(0, this.view);
+
+            @Override
+            public boolean hasNext() {
+                return this.next >= 0;
+            }
+
+            @Override
+            public Sale next() {
+                if (this.next < 0)
+                    throw new NoSuchElementException();
+                Sale sale = this.view.toSale();
+                this.next = MappedSaleStore.this.nextOf(this.next + 1, this.view);
+                return sale;
+            }
+        };
+    }
+
+    /**
+     * @brief Position a view on the first sale whose id is at least the given one.
+     *
+     * @details The state of the records is first read without the sequence, to skip the deleted records quickly; the view checks the candidates.
+     * @return The id of the sale, or -1 if there is none.
+     */
+    private int nextOf(int from, SaleView view) {
+        int end = this.end; // read first: the chunks of the records before it are mapped
+        MappedByteBuffer[] chunks = this.recordChunks;
+        for (int id = Math.max(from, 0); id < end; id++) {
+            MappedByteBuffer chunk = chunks[id / this.recordsPerChunk];
+            int at = (id % this.recordsPerChunk) * RECORD_SIZE;
+            if (chunk.get(at + STATE) == LIVE && view.moveTo(id))
+                return id;
+        }
+        return -1;
+    }
+
+    /**
+     * @brief Get the chunk of the records file holding a record, mapping the chunks up to it if needed.
+     */
+    private MappedByteBuffer recordChunk(int id) throws IOException {
+        int index = id / this.recordsPerChunk;
+        MappedByteBuffer[] chunks = this.recordChunks;
+        if (index < chunks.length)
+            return chunks[index];
+        synchronized (this.records) {
+            chunks = this.recordChunks;
+            if (index >= chunks.length) {
+                long chunkSize = (long) this.recordsPerChunk * RECORD_SIZE;
+                chunks = this.mapChunks(this.records, chunks, index, chunkSize);
+                this.recordChunks = chunks;
+            }
+            return chunks[index];
+        }
+    }
+
+    private MappedByteBuffer[] mapChunks(FileChannel channel, MappedByteBuffer[] chunks, int last, long chunkSize) throws IOException {
+        MappedByteBuffer[] mapped = Arrays.copyOf(chunks, last + 1);
+        for (int i = chunks.length; i <= last; i++) {
+            mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * chunkSize, chunkSize); // extends the file, which is sparse until written
+            mapped[i].order(ByteOrder.nativeOrder());
+        }
+        return mapped;
+    }
+
+    /**
+     * @brief Append a string to a strings file.
+     *
+     * @return The reference of the string, i.e. the generation of the file and the position of the string, or NULL_STRING for null.
+     */
+    private long writeString(Strings strings, String s) throws IOException {
+        if (s == null)
+            return NULL_STRING;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + bytes.length;
+        if (length > this.stringChunkSize)
+            throw new IllegalArgumentException("A string of " + bytes.length + " bytes doesn't fit in the store");
+        long position;
+        MappedByteBuffer chunk;
+        synchronized (strings) {
+            position = strings.end;
+            if (position % this.stringChunkSize + length > this.stringChunkSize)
+                position += this.stringChunkSize - position % this.stringChunkSize; // to the next chunk
+            strings.end = position + length;
+            int index = (int) (position / this.stringChunkSize);
+            MappedByteBuffer[] chunks = strings.chunks;
+            if (index >= chunks.length) {
+                chunks = this.mapChunks(strings.channel, chunks, index, this.stringChunkSize);
+                strings.chunks = chunks;
+            }
+            chunk = chunks[index];
+        }
+        int at = (int) (position % this.stringChunkSize);
+        chunk.putInt(at, bytes.length);
+        chunk.put(at + 4, bytes); // published by the release of the sequence of the record referencing the string
+        return ((long) strings.generation << GENERATION_SHIFT) | position;
+    }
+
+    private String readString(Strings strings, long reference) {
+        long position = reference & POSITION_MASK;
+        MappedByteBuffer chunk = strings.chunks[(int) (position / this.stringChunkSize)];
+        int at = (int) (position % this.stringChunkSize);
+        byte[] bytes = new byte[chunk.getInt(at)];
+        chunk.get(at + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readLength(Strings strings, long reference) {
+        long position = reference & POSITION_MASK;
+        return strings.chunks[(int) (position / this.stringChunkSize)].getInt((int) (position % this.stringChunkSize));
+    }
+
+    /**
+     * @brief Compact the strings if the unused ones outweigh the used ones, and take at least a chunk.
+     */
+    private void compactIfWasteful() throws IOException {
+        Strings strings = this.strings;
+        synchronized (strings) {
+            if (strings.garbage < this.stringChunkSize || strings.garbage * 2 <= strings.end)
+                return;
+        }
+        this.compact();
+    }
+
+    /**
+     * @brief Copy the strings of the live sales to a new strings file, which replaces the previous one.
+     *
+     * @details The writers wait for the compaction, which copies the strings record by record, holding its sequence: the readers only wait for the record they read.
+     * A view reads the current file then the previous one after the references of a record: if it reads the references of the previous file, the compaction of the record
+     * hasn't been published yet, so the previous file is still set, or the record has changed and the view reads it again.
+     * A compaction which failed, e.g. the disk is full, is resumed by the next one, the previous file being kept until then.
+     */
+    private void compact() throws IOException {
+        this.compaction.writeLock().lock();
+        try {
+            Strings strings = this.strings;
+            if (this.previousStrings == null) {
+                synchronized (strings) {
+                    if (strings.garbage < this.stringChunkSize || strings.garbage * 2 <= strings.end)
+                        return; // compacted meanwhile
+                }
+                Path compacted = this.stringsFile.resolveSibling(this.stringsFile.getFileName() + ".compacted");
+                FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    Files.move(compacted, this.stringsFile, StandardCopyOption.REPLACE_EXISTING); // the previous file stays mapped until its chunks are garbage collected
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+                this.previousStrings = strings;
+                strings = new Strings(channel, strings.generation + 1);
+                this.strings = strings;
+            }
+            Strings previous = this.previousStrings;
+            MappedByteBuffer[] chunks = this.recordChunks;
+            for (int id = 0, end = this.end; id < end; id++) {
+                MappedByteBuffer chunk = chunks[id / this.recordsPerChunk];
+                int at = (id % this.recordsPerChunk) * RECORD_SIZE;
+                if (chunk.get(at + STATE) != LIVE) // no writer meanwhile
+                    continue;
+                int sequence = lock(chunk, at);
+                try {
+                    for (int field: new int[] {OWNER, OWNER_NAME, TITLE, CONTENT}) {
+                        long reference = chunk.getLong(at + field);
+                        if (reference != NULL_STRING && !strings.holds(reference))
+                            chunk.putLong(at + field, this.writeString(strings, readString(previous, reference)));
+                    }
+                } finally {
+                    INT.setRelease(chunk, at + SEQUENCE, sequence + 2);
+                }
+            }
+            this.previousStrings = null;
+            previous.channel.close();
+        } finally {
+            this.compaction.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @brief Close and delete the files. The memory is unmapped once the chunks are garbage collected, so that a reader still holding them doesn't crash.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.records.close();
+            this.strings.channel.close();
+            Strings previous = this.previousStrings;
+            if (previous != null)
+                previous.channel.close();
+        } finally {
+            Files.deleteIfExists(this.recordsFile);
+            Files.deleteIfExists(this.stringsFile);
+        }
+    }
+}
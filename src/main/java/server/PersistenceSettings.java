@@ -0,0 +1,50 @@
+package server;
+
+import java.nio.file.Path;
+
+/**
+ * @brief This class gathers the settings of the persistence of the server: where the data is stored, how the writes are committed and how often a snapshot is taken.
+ */
+public class PersistenceSettings {
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 512;
+    public static final long DEFAULT_GROUP_COMMIT_MAX_WAIT_MICROS = 0; // a batch gathers the records appended while the previous one was forced
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
+
+    private final Path directory;
+    private final int groupCommitSize;
+    private final long groupCommitMaxWaitMicros;
+    private final long snapshotIntervalSeconds;
+
+    public PersistenceSettings(Path directory) {
+        this(directory, DEFAULT_GROUP_COMMIT_SIZE, DEFAULT_GROUP_COMMIT_MAX_WAIT_MICROS, DEFAULT_SNAPSHOT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * @param directory The directory of the write-ahead log and of the snapshot.
+     * @param groupCommitSize The number of writes after which they are forced to the disk together without waiting.
+     * @param groupCommitMaxWaitMicros How long a write waits for other writes to be forced to the disk together.
+     * @param snapshotIntervalSeconds The delay between two snapshots, or 0 to take them only on demand.
+     */
+    public PersistenceSettings(Path directory, int groupCommitSize, long groupCommitMaxWaitMicros, long snapshotIntervalSeconds) {
+        this.directory = directory;
+        this.groupCommitSize = groupCommitSize;
+        this.groupCommitMaxWaitMicros = groupCommitMaxWaitMicros;
+        this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public int getGroupCommitSize() {
+        return this.groupCommitSize;
+    }
+
+    public long getGroupCommitMaxWaitMicros() {
+        return this.groupCommitMaxWaitMicros;
+    }
+
+    public long getSnapshotIntervalSeconds() {
+        return this.snapshotIntervalSeconds;
+    }
+}
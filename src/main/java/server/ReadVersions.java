@@ -0,0 +1,166 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * @brief This class tracks the versions pinned by the readers paging through the listings, so that the older versions of the listings are kept only while a reader may still read them.
+ *
+ * @details A reader pins a version with its first page and gets a pin, a token which it sends back with the following pages and which is released by its last page.
+ * Releasing a pin twice, or a pin which has expired, has no effect, and the pins are random numbers, so that a reader can't guess the pin of another one.
+ * A reader may give up before its last page, so a pin is also a lease: it expires if it isn't renewed by a page within the lease duration.
+ * The pins are kept in a concurrent map and nothing is locked: the readers of every domain pin, renew and release concurrently. The expired pins are forgotten by the compactions,
+ * and by a pin at most once per lease duration, so that the pins given up don't pile up on a domain which is never compacted.
+ */
+public class ReadVersions {
+    public static final long DEFAULT_LEASE_MILLIS = 60_000;
+
+    private static final long RELEASED = Long.MIN_VALUE; // the deadline of a pin released or forgotten, which can't be renewed anymore
+
+    /**
+     * @brief A pinned version and the expiration of its lease.
+     */
+    private static final class Pin {
+        private volatile long version;
+        private final AtomicLong deadline;
+
+        private Pin(long version, long deadline) {
+            this.version = version;
+            this.deadline = new AtomicLong(deadline);
+        }
+    }
+
+    private final Map<Long, Pin> pins = new ConcurrentHashMap<>(); // by token
+    private final long leaseMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final AtomicLong nextReadPin = new AtomicLong(-1); // the pins of single reads are negative, never sent to a client
+    private final AtomicLong nextPurge = new AtomicLong(); // the time from which a pin forgets the expired pins
+
+    public ReadVersions() {
+        this(DEFAULT_LEASE_MILLIS);
+    }
+
+    /**
+     * @param leaseMillis How long a version stays pinned after the last page read at that version.
+     */
+    public ReadVersions(long leaseMillis) {
+        this.leaseMillis = leaseMillis;
+    }
+
+    /**
+     * @brief Pin the current version.
+     *
+     * @param current The version of the last write published.
+     * @return The pin, to renew and release the version.
+     */
+    public long pin(LongSupplier current) {
+        this.purgeIfDue();
+        long version = current.getAsLong();
+        Pin pin = new Pin(version, System.currentTimeMillis() + this.leaseMillis);
+        long token;
+        do
+            token = this.random.nextLong() & Long.MAX_VALUE;
+        while (token == 0 || this.pins.putIfAbsent(token, pin) != null); // 0 is never a pin
+        this.validate(pin, current);
+        return token;
+    }
+
+    /**
+     * @brief Pin the current version for the duration of a single read, e.g. of a page of the current listings. The reader must release the pin once done.
+     *
+     * @details The pin isn't random, since it isn't given to a client.
+     */
+    public long pinForRead(LongSupplier current) {
+        this.purgeIfDue();
+        Pin pin = new Pin(current.getAsLong(), System.currentTimeMillis() + this.leaseMillis);
+        long token = this.nextReadPin.getAndDecrement();
+        this.pins.put(token, pin);
+        this.validate(pin, current);
+        return token;
+    }
+
+    /**
+     * @brief Make the version of a new pin the current one once the pin is visible, so that a concurrent compaction either sees the pin, or computed the oldest version before it.
+     *
+     * @details A compaction reads the current version before the pins: if it missed the pin, the version read here after publishing it is at least the one of the compaction.
+     */
+    private void validate(Pin pin, LongSupplier current) {
+        long version;
+        while ((version = current.getAsLong()) != pin.version)
+            pin.version = version;
+    }
+
+    /**
+     * @brief Extend the lease of a pin.
+     *
+     * @return The pinned version, or -1 if the pin isn't held anymore, e.g. its lease has expired: its listings may have been compacted.
+     */
+    public long renew(long token) {
+        Pin pin = this.pins.get(token);
+        if (pin == null)
+            return -1;
+        while (true) {
+            long deadline = pin.deadline.get();
+            long now = System.currentTimeMillis();
+            if (deadline < now) // expired or released
+                return -1;
+            if (pin.deadline.compareAndSet(deadline, now + this.leaseMillis))
+                return pin.version;
+        }
+    }
+
+    /**
+     * @brief Release a pin. Nothing is done if it has already been released or has expired.
+     */
+    public void release(long token) {
+        Pin pin = this.pins.remove(token);
+        if (pin != null)
+            pin.deadline.set(RELEASED);
+    }
+
+    /**
+     * @brief Forget the expired pins, once per lease duration.
+     */
+    private void purgeIfDue() {
+        long now = System.currentTimeMillis();
+        long due = this.nextPurge.get();
+        if (now >= due && this.nextPurge.compareAndSet(due, now + Math.max(this.leaseMillis, 0)))
+            this.purge(now);
+    }
+
+    /**
+     * @brief Forget the pins expired at a time. A pin renewed meanwhile is kept, since its deadline has changed.
+     */
+    private void purge(long now) {
+        for (Map.Entry<Long, Pin> entry: this.pins.entrySet()) {
+            long deadline = entry.getValue().deadline.get();
+            if (deadline < now && entry.getValue().deadline.compareAndSet(deadline, RELEASED))
+                this.pins.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @brief Get the oldest version which may still be read, forgetting the expired pins.
+     *
+     * @param current The version of the last write published, which is returned if no version is pinned.
+     */
+    public long oldest(LongSupplier current) {
+        long oldest = current.getAsLong(); // before the pins, see validate
+        long now = System.currentTimeMillis();
+        this.purge(now);
+        for (Pin pin: this.pins.values())
+            if (pin.deadline.get() != RELEASED)
+                oldest = Math.min(oldest, pin.version);
+        return oldest;
+    }
+
+    /**
+     * @brief Get the number of pins held or expired but not forgotten yet.
+     */
+    public int size() {
+        return this.pins.size();
+    }
+}
@@ -0,0 +1,252 @@
+package server;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @brief This class imports and exports the sales of a server as newline-delimited JSON, one sale per line.
+ *
+ * @details A line holds the fields id, owner (the mail), domain, title, content and price. The id is written by the export and ignored by the import: the imported sales get new ids.
+ * The import is a pipeline: a reader thread cuts the file in batches of lines, a pool of parsers parses the batches in parallel, and the calling thread creates the sales of each batch at once, in the order of the file.
+ * The number of batches in flight is bounded, so the memory used by the import doesn't depend on the size of the file.
+ * A line which can't be parsed, or whose owner isn't registered, is rejected and counted; the blank lines are skipped.
+ */
+public class SaleBulkLoader {
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * @brief The number of imported and rejected lines.
+     */
+    public static class Report {
+        private final long imported;
+        private final long rejected;
+
+        public Report(long imported, long rejected) {
+            this.imported = imported;
+            this.rejected = rejected;
+        }
+
+        public long getImported() {
+            return this.imported;
+        }
+
+        public long getRejected() {
+            return this.rejected;
+        }
+    }
+
+    /**
+     * @brief The sales parsed from a batch of lines, or the end of the file if sales is null.
+     */
+    private static final class Batch {
+        private final List<Sale> sales;
+        private final int rejected;
+
+        private Batch(List<Sale> sales, int rejected) {
+            this.sales = sales;
+            this.rejected = rejected;
+        }
+    }
+
+    private static final Batch END = new Batch(null, 0);
+
+    /**
+     * @brief Import the sales of a file into a server, with one parser per processor.
+     */
+    public static Report importSales(Server server, Path file) throws IOException {
+        return importSales(server, file, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param parsers The number of threads parsing the lines.
+     * @param batchSize The number of lines of a batch.
+     */
+    public static Report importSales(Server server, Path file, int parsers, int batchSize) throws IOException {
+        if (parsers < 1 || batchSize < 1)
+            throw new IllegalArgumentException("There must be at least one parser and one line per batch");
+        ExecutorService pool = Executors.newFixedThreadPool(parsers, runnable -> {
+            Thread thread = new Thread(runnable, "sale-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Future<Batch>> batches = new ArrayBlockingQueue<>(2 * parsers); // in the order of the file
+        Thread reader = new Thread(() -> readBatches(server, file, batchSize, pool, batches), "sale-reader");
+        reader.setDaemon(true);
+        reader.start();
+        long imported = 0;
+        long rejected = 0;
+        try {
+            while (true) {
+                Batch batch = batches.take().get();
+                if (batch == END)
+                    break;
+                imported += server.addSales(batch.sales);
+                rejected += batch.rejected;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The import of " + file + " has been interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Failed to import " + file, e.getCause());
+        } finally {
+            reader.interrupt(); // unblock the reader if the import failed
+            pool.shutdownNow();
+        }
+        if (rejected > 0)
+            server.getLogger().warning("Rejected " + rejected + " lines of " + file);
+        return new Report(imported, rejected);
+    }
+
+    /**
+     * @brief Read the file by batches of lines, and submit each batch to the parsers. Runs in its own thread, so that reading overlaps parsing.
+     */
+    private static void readBatches(Server server, Path file, int batchSize, ExecutorService pool, BlockingQueue<Future<Batch>> batches) {
+        try {
+            try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                List<String> lines = new ArrayList<>(batchSize);
+                String line;
+                while ((line = in.readLine()) != null) {
+                    lines.add(line);
+                    if (lines.size() == batchSize) {
+                        List<String> full = lines;
+                        batches.put(pool.submit(() -> parse(server, full)));
+                        lines = new ArrayList<>(batchSize);
+                    }
+                }
+                if (!lines.isEmpty()) {
+                    List<String> last = lines;
+                    batches.put(pool.submit(() -> parse(server, last)));
+                }
+            } catch (IOException e) {
+                batches.put(CompletableFuture.failedFuture(e));
+                return;
+            }
+            batches.put(CompletableFuture.completedFuture(END));
+        } catch (InterruptedException | RejectedExecutionException e) {
+            // the import has failed, the parsers are stopped
+        }
+    }
+
+    private static Batch parse(Server server, List<String> lines) {
+        List<Sale> sales = new ArrayList<>(lines.size());
+        int rejected = 0;
+        for (String line: lines) {
+            if (line.isBlank())
+                continue;
+            Sale sale = parse(line);
+            if (sale != null && server.isMailRegister(sale.getOwner()))
+                sales.add(sale);
+            else
+                rejected++;
+        }
+        return new Batch(sales, rejected);
+    }
+
+    /**
+     * @return The sale of a line, with the id 0, or null if the line isn't a valid sale.
+     */
+    private static Sale parse(String line) {
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            String owner = null;
+            Domain domain = null;
+            String title = null;
+            String content = null;
+            Integer price = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "owner" -> owner = reader.nextString();
+                    case "domain" -> domain = Domain.valueOf(reader.nextString());
+                    case "title" -> title = reader.nextString();
+                    case "content" -> content = reader.nextString();
+                    case "price" -> price = reader.nextInt();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (reader.peek() != JsonToken.END_DOCUMENT || owner == null || domain == null || title == null || content == null || price == null)
+                return null;
+            return new Sale(owner, domain, title, content, price, 0);
+        } catch (IOException | RuntimeException e) { // malformed JSON, null or mistyped field, unknown domain
+            return null;
+        }
+    }
+
+    /**
+     * @brief Export the sales of a server to a file, replacing it. The sales are streamed one at a time.
+     *
+     * @details The writes done during the export may or may not be exported.
+     * @return The number of exported sales.
+     */
+    public static long exportSales(Server server, Path file) throws IOException {
+        long exported = 0;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), 1 << 16)) {
+            JsonWriter json = new JsonWriter(out);
+            json.setLenient(true); // one value per line
+            for (Sale sale: server.getAllSales()) {
+                json.beginObject();
+                json.name("id").value(sale.getId());
+                json.name("owner").value(sale.getOwner());
+                json.name("domain").value(sale.getDomain().name());
+                json.name("title").value(sale.getTitle());
+                json.name("content").value(sale.getContent());
+                json.name("price").value(sale.getPrice());
+                json.endObject();
+                out.write('\n');
+                exported++;
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * @brief Import or export the sales of the server persisted in a directory, while the server isn't running: import|export &lt;data directory&gt; &lt;file&gt;.
+     *
+     * @details A snapshot is taken after an import, so that the server doesn't replay the imported sales on startup.
+     * The server of the tool doesn't listen, so the tool runs even while a server of another directory listens to the port.
+     */
+    public static void main(String[] args) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.err.println("Usage: import|export <data directory> <file>");
+            System.exit(2);
+        }
+        Server server = new Server(true, false, new PersistenceSettings(Paths.get(args[1])), null, ConnectionSettings.notListening());
+        try {
+            if (args[0].equals("import")) {
+                Report report = importSales(server, Paths.get(args[2]));
+                server.takeSnapshot();
+                System.out.println("Imported " + report.getImported() + " sales, rejected " + report.getRejected() + " lines");
+            } else {
+                System.out.println("Exported " + exportSales(server, Paths.get(args[2])) + " sales");
+            }
+        } finally {
+            server.stopProcess();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package server;
+
+/**
+ * @brief This class is an event of the change feed: a sale created, updated or deleted, at its offset in the feed.
+ */
+public class SaleChange {
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+
+    private final long offset;
+    private final Type type;
+    private final Sale sale;
+
+    /**
+     * @param sale The sale after the change, with the mail of its owner, or the sale deleted.
+     */
+    public SaleChange(long offset, Type type, Sale sale) {
+        this.offset = offset;
+        this.type = type;
+        this.sale = sale;
+    }
+
+    public long getOffset() {
+        return this.offset;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public Sale getSale() {
+        return this.sale;
+    }
+
+    @Override
+    public String toString() {
+        return this.offset + " " + this.type + " " + this.sale;
+    }
+}
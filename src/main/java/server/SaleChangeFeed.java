@@ -0,0 +1,304 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @brief This class is the ordered feed of the changes of the sales, to drive the consumers downstream (analytics, caches) without polling the listings.
+ *
+ * @details The changes are numbered by consecutive offsets, in the order in which they are applied: the changes of a sale are in the order of its writes, since they are appended while holding the lock of its domain.
+ * The feed retains the last changes in a ring of bounded capacity. A change can be read from its offset as long as it is retained.
+ * A subscription is a consumer tailing the feed from an offset: the feed never overwrites a change which a subscription hasn't read,
+ * so the writers wait for the slowest subscription when the ring is full (backpressure) rather than dropping changes. Without subscriptions, the oldest changes are overwritten.
+ * The writers append while holding the lock of a domain, so they wait for a bounded time only: a subscription still holding the ring after that is cut off,
+ * its next poll fails and its consumer has to subscribe again from the oldest change retained. A stalled consumer thus never blocks the writes of the server.
+ * The consumers read the changes by batches, to tail the feed at high throughput.
+ * The feed lives in memory: it starts empty at the offset 0 when the server starts, without the writes restored from the disk.
+ */
+public class SaleChangeFeed {
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 1000;
+
+    private final SaleChange[] ring;
+    private final int mask;
+    private final long maxWaitNanos; // how long a writer waits for the slowest subscription before cutting it off
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changesAppended = this.lock.newCondition(); // signaled to the subscriptions waiting for changes
+    private final Condition changesRead = this.lock.newCondition(); // signaled to the writers waiting for the slowest subscription
+    private final List<Subscription> subscriptions = new ArrayList<>(); // guarded by the lock
+    private long next; // the offset of the next change, guarded by the lock
+    private boolean closed; // guarded by the lock
+
+    public SaleChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of changes retained, rounded up to a power of two.
+     */
+    public SaleChangeFeed(int capacity) {
+        this(capacity, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param capacity The number of changes retained, rounded up to a power of two.
+     * @param maxWaitMillis How long a writer waits for a subscription to read the change it would overwrite, before cutting the subscription off.
+     */
+    public SaleChangeFeed(int capacity, long maxWaitMillis) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.ring = new SaleChange[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * @brief Append a change, waiting for the slowest subscription to read the change it would overwrite, or cutting it off if it is too slow.
+     *
+     * @return The offset of the change.
+     */
+    public long append(SaleChange.Type type, Sale sale) {
+        this.lock.lock();
+        try {
+            this.awaitRoom();
+            long offset = this.next++;
+            this.ring[(int) (offset & this.mask)] = new SaleChange(offset, type, sale);
+            this.changesAppended.signalAll();
+            return offset;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Append the changes of many sales at once, e.g. imported, with a single lock of the feed unless a subscription is too slow.
+     */
+    public void appendAll(SaleChange.Type type, Sale[] sales) {
+        this.lock.lock();
+        try {
+            for (Sale sale: sales) {
+                if (this.next - this.slowest() >= this.ring.length) {
+                    this.changesAppended.signalAll(); // the changes already appended may be read meanwhile
+                    this.awaitRoom();
+                }
+                long offset = this.next++;
+                this.ring[(int) (offset & this.mask)] = new SaleChange(offset, type, sale);
+            }
+            this.changesAppended.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Wait until the next change doesn't overwrite a change which a subscription hasn't read, cutting off the subscriptions still too late after the maximum wait. The lock must be held.
+     *
+     * @details The wait isn't interrupted, so that a change is never lost.
+     */
+    private void awaitRoom() {
+        long nanos = this.maxWaitNanos;
+        while (!this.closed && this.next - this.slowest() >= this.ring.length) {
+            if (nanos <= 0) {
+                this.cutOff(this.next - this.ring.length);
+                return;
+            }
+            try {
+                nanos = this.changesRead.awaitNanos(nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // restored, but the change is still appended
+                this.cutOff(this.next - this.ring.length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @brief Cut off the subscriptions which haven't read a change before an offset. The lock must be held.
+     */
+    private void cutOff(long offset) {
+        this.subscriptions.removeIf(subscription -> {
+            if (subscription.position > offset)
+                return false;
+            subscription.lagged = true;
+            return true;
+        });
+        this.changesAppended.signalAll();
+    }
+
+    /**
+     * @brief Get the offset of the slowest subscription, or of the next change if there is no subscription. The lock must be held.
+     */
+    private long slowest() {
+        long slowest = this.next;
+        for (Subscription subscription: this.subscriptions)
+            slowest = Math.min(slowest, subscription.position);
+        return slowest;
+    }
+
+    /**
+     * @brief Get the offset of the oldest change retained.
+     */
+    public long oldestOffset() {
+        this.lock.lock();
+        try {
+            return Math.max(0, this.next - this.ring.length);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Get the offset of the next change, i.e. the number of changes appended.
+     */
+    public long nextOffset() {
+        this.lock.lock();
+        try {
+            return this.next;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Read the changes retained from an offset, without waiting.
+     *
+     * @param max The maximum number of changes.
+     * @return The changes from the offset, empty if there is none yet.
+     * @throws IllegalArgumentException If the change at that offset isn't retained anymore.
+     */
+    public List<SaleChange> read(long offset, int max) {
+        this.lock.lock();
+        try {
+            return this.copy(offset, max);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Copy the changes from an offset. The lock must be held.
+     */
+    private List<SaleChange> copy(long offset, int max) {
+        long oldest = Math.max(0, this.next - this.ring.length);
+        if (offset < oldest)
+            throw new IllegalArgumentException("The change " + offset + " isn't retained anymore, the oldest one is " + oldest);
+        long end = Math.min(this.next, offset + Math.max(0, max));
+        List<SaleChange> changes = new ArrayList<>((int) Math.max(0, end - offset));
+        for (long o = offset; o < end; o++)
+            changes.add(this.ring[(int) (o & this.mask)]);
+        return changes;
+    }
+
+    /**
+     * @brief Subscribe to the changes from an offset.
+     *
+     * @param offset The offset of the first change to read, e.g. nextOffset() for the changes to come.
+     * @throws IllegalArgumentException If the change at that offset isn't retained anymore.
+     */
+    public Subscription subscribe(long offset) {
+        this.lock.lock();
+        try {
+            long oldest = Math.max(0, this.next - this.ring.length);
+            if (offset < oldest)
+                throw new IllegalArgumentException("The change " + offset + " isn't retained anymore, the oldest one is " + oldest);
+            if (this.closed)
+                throw new IllegalStateException("The change feed is closed");
+            Subscription subscription = new Subscription(Math.min(offset, this.next));
+            this.subscriptions.add(subscription);
+            return subscription;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Close the subscriptions and stop applying backpressure, e.g. when the server stops.
+     */
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.subscriptions.clear();
+            this.changesAppended.signalAll();
+            this.changesRead.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief A consumer tailing the feed. Its changes are retained until it reads them, until it is closed, or until it is cut off for being too slow.
+     *
+     * @details A subscription is meant to be read by a single thread.
+     */
+    public class Subscription implements AutoCloseable {
+        private long position; // the offset of the next change to read, guarded by the lock of the feed
+        private boolean closed; // guarded by the lock of the feed
+        private boolean lagged; // cut off by a writer, guarded by the lock of the feed
+
+        private Subscription(long position) {
+            this.position = position;
+        }
+
+        /**
+         * @brief Read the next changes, waiting for at least one of them until a timeout.
+         *
+         * @details The changes returned are acknowledged: the writers may overwrite them.
+         * @param max The maximum number of changes.
+         * @return The next changes, empty if none has been appended before the timeout or if the subscription is closed.
+         * @throws IllegalStateException If the subscription has been cut off, since it didn't read its changes in time: the consumer has to subscribe again.
+         */
+        public List<SaleChange> poll(int max, long timeout, TimeUnit unit) throws InterruptedException {
+            SaleChangeFeed feed = SaleChangeFeed.this;
+            long nanos = unit.toNanos(timeout);
+            feed.lock.lock();
+            try {
+                while (!this.closed && !this.lagged && !feed.closed && this.position == feed.next && nanos > 0)
+                    nanos = feed.changesAppended.awaitNanos(nanos);
+                if (this.lagged)
+                    throw new IllegalStateException("The subscription has been cut off at the change " + this.position + " for being too slow, the oldest change retained is " + Math.max(0, feed.next - feed.ring.length));
+                if (this.closed || feed.closed)
+                    return new ArrayList<>();
+                List<SaleChange> changes = feed.copy(this.position, max);
+                if (!changes.isEmpty()) {
+                    this.position += changes.size();
+                    feed.changesRead.signalAll();
+                }
+                return changes;
+            } finally {
+                feed.lock.unlock();
+            }
+        }
+
+        /**
+         * @brief Get the offset of the next change to read.
+         */
+        public long position() {
+            SaleChangeFeed.this.lock.lock();
+            try {
+                return this.position;
+            } finally {
+                SaleChangeFeed.this.lock.unlock();
+            }
+        }
+
+        /**
+         * @brief Stop reading the feed: the writers don't wait for this subscription anymore.
+         */
+        @Override
+        public void close() {
+            SaleChangeFeed feed = SaleChangeFeed.this;
+            feed.lock.lock();
+            try {
+                this.closed = true;
+                feed.subscriptions.remove(this);
+                feed.changesRead.signalAll();
+                feed.changesAppended.signalAll();
+            } finally {
+                feed.lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+/**
+ * @brief This class holds one page of listings, the cursor to request the next page and the pin of the version of the listings it has been read at, if any.
+ */
+public class SalePage {
+    private Sale[] sales;
+    private Integer nextCursor;
+    private long pin;
+
+    public SalePage(Sale[] sales, Integer nextCursor) {
+        this(sales, nextCursor, 0);
+    }
+
+    public SalePage(Sale[] sales, Integer nextCursor, long pin) {
+        this.sales = sales;
+        this.nextCursor = nextCursor;
+        this.pin = pin;
+    }
+
+    public Sale[] getSales() {
+        return this.sales;
+    }
+
+    /**
+     * @brief Get the cursor of the next page, that is the id of the last listing of this page, or null if this page is the last one.
+     */
+    public Integer getNextCursor() {
+        return this.nextCursor;
+    }
+
+    /**
+     * @brief Get the pin of the version of the listings of this page, to read the next page at the same version, or 0 if the page shows the current listings.
+     */
+    public long getPin() {
+        return this.pin;
+    }
+}
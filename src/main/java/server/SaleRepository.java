@@ -0,0 +1,97 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * @brief This interface is the storage engine of the sales: the sales by id, and their listings by domain, i.e. the copies sent to the clients where the mail of the owner is replaced by its name.
+ *
+ * @details The reads never block. The writes of the sales of a domain are serialized by the caller, the writes of different domains may be concurrent.
+ * A repository holds only the memory of the server: the durability is given by the write-ahead log and the snapshots, from which a new repository is filled on startup.
+ */
+public interface SaleRepository extends Closeable {
+    /**
+     * @return The sale, with the mail of its owner, or null if there is none with that id.
+     */
+    Sale get(int id);
+
+    /**
+     * @return The listing of the sale, or null if there is none with that id.
+     */
+    Sale getListing(int id);
+
+    /**
+     * @brief Insert or replace a sale. The domain of a sale never changes.
+     *
+     * @param ownerName The name of the owner, stored in the listing.
+     */
+    void put(Sale sale, String ownerName) throws IOException;
+
+    /**
+     * @brief Insert new sales of a domain at once, e.g. when sales are imported.
+     *
+     * @param sales New sales of the same domain, sorted by id.
+     * @param ownerNames The name of the owner of each sale.
+     */
+    default void addAll(Sale[] sales, String[] ownerNames) throws IOException {
+        for (int i = 0; i < sales.length; i++)
+            this.put(sales[i], ownerNames[i]);
+    }
+
+    /**
+     * @return True if the sale existed.
+     */
+    boolean remove(int id);
+
+    /**
+     * @brief Get the listings of a domain, sorted by id. The returned array may be shared: it must not be modified.
+     */
+    Sale[] listings(Domain domain);
+
+    /**
+     * @brief Get a page of the listings of a domain, sorted by id.
+     *
+     * @param after The id after which the page starts (the cursor), or null for the first page.
+     * @param limit The maximum number of listings in the page, at least 1.
+     */
+    SalePage page(Domain domain, Integer after, int limit);
+
+    /**
+     * @brief Pin the current version of a domain, so that its pages can be read as of that version until the pin is released or its lease expires.
+     *
+     * @details An engine which doesn't keep the versions of the listings pins nothing and returns 0: its pages show the current listings.
+     * @return The pin, to send back with the following pages.
+     */
+    default long pin(Domain domain) {
+        return 0;
+    }
+
+    /**
+     * @brief Release a pin. Nothing is done if it has already been released or has expired.
+     */
+    default void release(long pin) {
+    }
+
+    /**
+     * @brief Get a page of the listings of a domain as of a pinned version, extending the lease of the pin.
+     *
+     * @details If the pin has expired, the page shows the current listings and has no pin: its version may not be readable anymore.
+     */
+    default SalePage page(Domain domain, Integer after, int limit, long pin) {
+        return this.page(domain, after, limit);
+    }
+
+    /**
+     * @brief Get the listings of a domain whose price is in a range, sorted by price then by id.
+     *
+     * @param descending True to start from the most expensive listing.
+     */
+    Sale[] byPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit);
+
+    /**
+     * @brief Iterate over the sales, with the mail of their owner, e.g. to write a snapshot.
+     */
+    Iterable<Sale> sales();
+
+    int size();
+}
@@ -0,0 +1,225 @@
+package server;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @brief This class is an inverted index over the title and the content of the sales, to search sales by words.
+ *
+ * @details Each word (term) maps to the sorted ids of the sales containing it. A query is answered by intersecting the posting lists of its terms, starting from the shortest one.
+ * A posting list is immutable once published: a writer replaces it atomically, per term, while readers keep using the list they got.
+ * Since a new sale has the greatest id, adding it appends to the posting lists, sharing their array with the previous version when there is room left.
+ * Removing a sale only records its id as a tombstone, skipped by the queries, instead of copying every posting list of its terms:
+ * the tombstones are purged from the posting lists at once when they exceed a fraction of the indexed sales, so that a removal costs a constant time on average.
+ */
+public class SaleSearchIndex {
+    public static final double DEFAULT_GARBAGE_THRESHOLD = 0.25;
+
+    /**
+     * @brief A published posting list: only the first size ids of the array belong to it.
+     */
+    private static final class Postings {
+        private final int[] ids;
+        private final int size;
+
+        private Postings(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        private boolean contains(int id) {
+            return Arrays.binarySearch(this.ids, 0, this.size, id) >= 0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Postings> postingsByTerm = new ConcurrentHashMap<>();
+    private final Set<Integer> removed = ConcurrentHashMap.newKeySet(); // the ids of the removed sales still in the posting lists
+    private final AtomicInteger indexed = new AtomicInteger(); // the number of sales indexed, not removed
+    private final double garbageThreshold;
+
+    public SaleSearchIndex() {
+        this(DEFAULT_GARBAGE_THRESHOLD);
+    }
+
+    /**
+     * @param garbageThreshold The fraction of removed sales among the sales in the posting lists above which they are purged, between 0 and 1.
+     */
+    public SaleSearchIndex(double garbageThreshold) {
+        if (!(garbageThreshold >= 0 && garbageThreshold <= 1))
+            throw new IllegalArgumentException("The garbage threshold must be between 0 and 1");
+        this.garbageThreshold = garbageThreshold;
+    }
+
+    /**
+     * @brief Split texts into distinct lowercase terms made of letters and digits.
+     */
+    public static Set<String> terms(String... texts) {
+        Set<String> terms = new HashSet<>();
+        for (String text: texts) {
+            if (text == null)
+                continue;
+            for (String term: text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                if (!term.isEmpty())
+                    terms.add(term);
+        }
+        return terms;
+    }
+
+    private static Set<String> termsOf(Sale sale) {
+        return terms(sale.getTitle(), sale.getContent());
+    }
+
+    public void add(Sale sale) {
+        if (this.removed.contains(sale.getId())) { // a removed sale added back, e.g. when its removal is undone
+            synchronized (this) { // not while its tombstone is being purged, which would drop it from the posting lists added to again
+                this.removed.remove(sale.getId());
+                this.insertTerms(sale);
+            }
+        } else
+            this.insertTerms(sale);
+        this.indexed.incrementAndGet();
+    }
+
+    private void insertTerms(Sale sale) {
+        for (String term: termsOf(sale))
+            this.postingsByTerm.compute(term, (t, postings) -> insert(postings, sale.getId()));
+    }
+
+    /**
+     * @brief Index the new version of a sale: only the terms which appeared or disappeared are touched.
+     */
+    public void update(Sale before, Sale after) {
+        Set<String> termsBefore = termsOf(before);
+        Set<String> termsAfter = termsOf(after);
+        for (String term: termsBefore)
+            if (!termsAfter.contains(term))
+                this.postingsByTerm.computeIfPresent(term, (t, postings) -> delete(postings, before.getId()));
+        for (String term: termsAfter)
+            if (!termsBefore.contains(term))
+                this.postingsByTerm.compute(term, (t, postings) -> insert(postings, after.getId()));
+    }
+
+    /**
+     * @brief Remove a sale: it is only marked as removed, and purged from the posting lists later.
+     */
+    public void remove(Sale sale) {
+        if (!this.removed.add(sale.getId()))
+            return;
+        int garbage = this.removed.size();
+        if (garbage > this.garbageThreshold * (this.indexed.decrementAndGet() + garbage))
+            this.purge();
+    }
+
+    /**
+     * @brief Purge the removed sales from the posting lists, then forget their tombstones. Done by the writer crossing the threshold, unless another one is purging already.
+     *
+     * @details The posting lists are replaced one term at a time, as by any write, so the queries keep skipping the tombstones until every list is purged.
+     */
+    private void purge() {
+        synchronized (this) {
+            Set<Integer> garbage = new HashSet<>(this.removed); // the ids removed meanwhile are purged by the next time
+            if (garbage.size() <= this.garbageThreshold * (this.indexed.get() + garbage.size()))
+                return; // purged by another writer meanwhile
+            for (String term: this.postingsByTerm.keySet())
+                this.postingsByTerm.computeIfPresent(term, (t, postings) -> deleteAll(postings, garbage));
+            this.removed.removeAll(garbage);
+        }
+    }
+
+    /**
+     * @return The number of removed sales still in the posting lists.
+     */
+    int garbage() {
+        return this.removed.size();
+    }
+
+    private static Postings insert(Postings postings, int id) {
+        if (postings == null)
+            return new Postings(new int[] {id}, 1);
+        if (postings.ids[postings.size - 1] < id) { // the common case: the id of a new sale is appended
+            if (postings.size < postings.ids.length) {
+                // readers of the previous version don't read past its size, so the free room can be used
+                postings.ids[postings.size] = id;
+                return new Postings(postings.ids, postings.size + 1);
+            }
+            int[] ids = Arrays.copyOf(postings.ids, postings.size * 2);
+            ids[postings.size] = id;
+            return new Postings(ids, postings.size + 1);
+        }
+        int index = Arrays.binarySearch(postings.ids, 0, postings.size, id);
+        if (index >= 0)
+            return postings;
+        index = -index - 1;
+        int[] ids = new int[postings.size + 1];
+        System.arraycopy(postings.ids, 0, ids, 0, index);
+        ids[index] = id;
+        System.arraycopy(postings.ids, index, ids, index + 1, postings.size - index);
+        return new Postings(ids, ids.length);
+    }
+
+    /**
+     * @return The posting list without the id, or null if it becomes empty, which removes the term.
+     */
+    private static Postings delete(Postings postings, int id) {
+        int index = Arrays.binarySearch(postings.ids, 0, postings.size, id);
+        if (index < 0)
+            return postings;
+        if (postings.size == 1)
+            return null;
+        int[] ids = new int[postings.size - 1];
+        System.arraycopy(postings.ids, 0, ids, 0, index);
+        System.arraycopy(postings.ids, index + 1, ids, index, postings.size - index - 1);
+        return new Postings(ids, ids.length);
+    }
+
+    /**
+     * @return The posting list without the ids, or null if it becomes empty, which removes the term.
+     */
+    private static Postings deleteAll(Postings postings, Set<Integer> ids) {
+        int[] kept = new int[postings.size];
+        int count = 0;
+        for (int i = 0; i < postings.size; i++)
+            if (!ids.contains(postings.ids[i]))
+                kept[count++] = postings.ids[i];
+        if (count == postings.size)
+            return postings;
+        return count == 0 ? null : new Postings(kept, count);
+    }
+
+    /**
+     * @brief Get the ids of the sales containing every term of the query, the most recent first.
+     *
+     * @param limit The maximum number of ids.
+     */
+    public int[] search(String query, int limit) {
+        Set<String> terms = terms(query);
+        if (terms.isEmpty() || limit <= 0)
+            return new int[0];
+        Postings[] lists = new Postings[terms.size()];
+        int i = 0;
+        for (String term: terms) {
+            Postings postings = this.postingsByTerm.get(term);
+            if (postings == null)
+                return new int[0];
+            lists[i++] = postings;
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+        Postings shortest = lists[0];
+        int[] result = new int[Math.min(limit, shortest.size)];
+        int count = 0;
+        boolean skipRemoved = !this.removed.isEmpty();
+        for (int j = shortest.size - 1; j >= 0 && count < result.length; j--) {
+            int id = shortest.ids[j];
+            boolean inEveryList = !skipRemoved || !this.removed.contains(id);
+            for (int k = 1; k < lists.length && inEveryList; k++)
+                inEveryList = lists[k].contains(id);
+            if (inEveryList)
+                result[count++] = id;
+        }
+        return Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,193 @@
+package server;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * @brief This class stores the sales of the server by their id.
+ *
+ * @details It is an open-addressing hash table with linear probing keyed by the primitive id of the sale, so that no Integer is boxed on lookup.
+ * A slot is free when its value is null, thus the id 0 is a valid key. Removal shifts back the following entries of the probe sequence instead of leaving tombstones.
+ * Lookups are lock-free: they read the table optimistically and retry under the read lock only if a mutation happened meanwhile. Mutations are exclusive.
+ */
+public class SaleTable {
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * @brief The arrays of the table, grouped so that a reader always sees keys and values of the same capacity.
+     */
+    private static final class Slots {
+        private final int[] keys;
+        private final Sale[] values;
+        private final int mask;
+
+        private Slots(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Sale[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private Slots slots;
+    private int size;
+    private int threshold;
+
+    public SaleTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SaleTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        this.allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.slots = new Slots(capacity);
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * @brief Spread the ids, which are mostly consecutive, over the whole table (Fibonacci hashing).
+     */
+    private static int slotOf(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public Sale get(int id) {
+        long stamp = this.lock.tryOptimisticRead();
+        Sale sale = find(this.slots, id);
+        if (this.lock.validate(stamp))
+            return sale;
+        stamp = this.lock.readLock();
+        try {
+            return find(this.slots, id);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @brief Probe the slots for an id. The probe is bounded since a concurrent writer may leave the slots inconsistent for an optimistic reader.
+     */
+    private static Sale find(Slots slots, int id) {
+        int slot = slotOf(id, slots.mask);
+        Sale value;
+        for (int probes = 0; probes <= slots.mask && (value = slots.values[slot]) != null; probes++) {
+            if (slots.keys[slot] == id)
+                return value;
+            slot = (slot + 1) & slots.mask;
+        }
+        return null;
+    }
+
+    public boolean contains(int id) {
+        return this.get(id) != null;
+    }
+
+    /**
+     * @brief Insert or replace the sale stored under the given id.
+     *
+     * @return The sale previously stored under that id, or null.
+     */
+    public Sale put(int id, Sale sale) {
+        if (sale == null)
+            throw new IllegalArgumentException("A sale table can't store null");
+        long stamp = this.lock.writeLock();
+        try {
+            Slots slots = this.slots;
+            int slot = slotOf(id, slots.mask);
+            Sale value;
+            while ((value = slots.values[slot]) != null) {
+                if (slots.keys[slot] == id) {
+                    slots.values[slot] = sale;
+                    return value;
+                }
+                slot = (slot + 1) & slots.mask;
+            }
+            slots.keys[slot] = id;
+            slots.values[slot] = sale;
+            if (++this.size > this.threshold)
+                this.resize();
+            return null;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @brief Remove the sale stored under the given id.
+     *
+     * @return The removed sale, or null if there is no sale with that id.
+     */
+    public Sale remove(int id) {
+        long stamp = this.lock.writeLock();
+        try {
+            Slots slots = this.slots;
+            int slot = slotOf(id, slots.mask);
+            Sale value;
+            while ((value = slots.values[slot]) != null) {
+                if (slots.keys[slot] == id) {
+                    shiftBack(slots, slot);
+                    this.size--;
+                    return value;
+                }
+                slot = (slot + 1) & slots.mask;
+            }
+            return null;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @brief Fill the freed slot with a following entry of the probe sequence, if that entry can't be reached anymore otherwise.
+     */
+    private static void shiftBack(Slots slots, int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & slots.mask;
+            Sale value = slots.values[slot];
+            if (value == null)
+                break;
+            int home = slotOf(slots.keys[slot], slots.mask);
+            // the entry can move to the free slot if its home is not in the cyclic range ]free, slot]
+            if (((slot - home) & slots.mask) >= ((slot - free) & slots.mask)) {
+                slots.keys[free] = slots.keys[slot];
+                slots.values[free] = value;
+                free = slot;
+            }
+        }
+        slots.values[free] = null;
+    }
+
+    private void resize() {
+        Slots old = this.slots;
+        Slots resized = new Slots(old.keys.length << 1);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.values[i] == null)
+                continue;
+            int slot = slotOf(old.keys[i], resized.mask);
+            while (resized.values[slot] != null)
+                slot = (slot + 1) & resized.mask;
+            resized.keys[slot] = old.keys[i];
+            resized.values[slot] = old.values[i];
+        }
+        this.slots = resized;
+        this.threshold = (int) (resized.keys.length * LOAD_FACTOR);
+    }
+
+    public int size() {
+        long stamp = this.lock.readLock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+}
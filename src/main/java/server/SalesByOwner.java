@@ -0,0 +1,85 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief This class indexes the ids of the sales by the mail of their owner.
+ *
+ * @details The ids of an owner are kept in a sorted array which is replaced atomically on every write (copy-on-write).
+ * An owner has few sales, so copying is cheap, and readers never block: checking the ownership of a sale is a binary search.
+ */
+public class SalesByOwner {
+    private static final int[] EMPTY = new int[0];
+
+    private final ConcurrentHashMap<String, int[]> idsByOwner = new ConcurrentHashMap<>();
+
+    public void add(String mail, int id) {
+        this.idsByOwner.compute(mail, (m, ids) -> {
+            if (ids == null)
+                return new int[] {id};
+            int index = Arrays.binarySearch(ids, id);
+            if (index >= 0)
+                return ids;
+            index = -index - 1;
+            int[] next = new int[ids.length + 1];
+            System.arraycopy(ids, 0, next, 0, index);
+            next[index] = id;
+            System.arraycopy(ids, index, next, index + 1, ids.length - index);
+            return next;
+        });
+    }
+
+    /**
+     * @brief Add many sales of an owner with a single copy of its ids, e.g. when sales are imported.
+     *
+     * @param added The ids to add, sorted.
+     */
+    public void addAll(String mail, int[] added) {
+        this.idsByOwner.compute(mail, (m, ids) -> {
+            if (ids == null)
+                return added.clone();
+            int[] merged = new int[ids.length + added.length];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < ids.length || j < added.length) {
+                int id = j == added.length || (i < ids.length && ids[i] <= added[j]) ? ids[i++] : added[j++];
+                if (count == 0 || merged[count - 1] != id)
+                    merged[count++] = id;
+            }
+            return count == merged.length ? merged : Arrays.copyOf(merged, count);
+        });
+    }
+
+    public void remove(String mail, int id) {
+        this.idsByOwner.computeIfPresent(mail, (m, ids) -> {
+            int index = Arrays.binarySearch(ids, id);
+            if (index < 0)
+                return ids;
+            if (ids.length == 1)
+                return null; // the owner has no sale left
+            int[] next = new int[ids.length - 1];
+            System.arraycopy(ids, 0, next, 0, index);
+            System.arraycopy(ids, index + 1, next, index, ids.length - index - 1);
+            return next;
+        });
+    }
+
+    public boolean contains(String mail, int id) {
+        if (mail == null)
+            return false;
+        int[] ids = this.idsByOwner.get(mail);
+        return ids != null && Arrays.binarySearch(ids, id) >= 0;
+    }
+
+    /**
+     * @brief Get the ids of the sales of an owner, sorted. The returned array is shared: it must not be modified.
+     */
+    public int[] ids(String mail) {
+        if (mail == null)
+            return EMPTY;
+        int[] ids = this.idsByOwner.get(mail);
+        return ids != null ? ids : EMPTY;
+    }
+}
@@ -0,0 +1,445 @@
+package server;
+
+import logger.InternalLogMessage;
+import logger.TokenInternalLogMessage;
+import protocol.Request;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @brief This class serves the clients with a single selector thread multiplexing their non-blocking sockets, and a small pool of workers processing their requests.
+ *
+ * @details The selector thread accepts the clients, reads the bytes available on their sockets into a shared buffer, and cuts them into frames: a length on 4 bytes followed by the request.
+ * Each complete frame is handed to the workers. The frames of a client are decoded one at a time and in order. An independent request is then processed by another worker, concurrently with the other independent requests of the client,
+ * while any other request is processed alone, once the requests before it are answered.
+ * A client whose requests wait for or are processed by the workers isn't read anymore until they catch up, so that a client can't fill the memory with requests.
+ * A response is written by the worker if the socket takes it at once, otherwise the rest is written by the selector thread once the socket is writable.
+ * An idle client thus costs its socket and a few small objects, but neither a thread nor a buffer. It is the SELECTOR connection engine.
+ */
+public class SelectorEngine implements Runnable, Closeable {
+    public static final int MAX_FRAME_BYTES = 1 << 24;
+    private static final int MAX_PENDING_FRAMES = 16; // the requests of a client waiting for or processed by the workers above which its socket isn't read
+    private static final int MAX_READS = 16; // the reads of a socket per selection, so that a client sending a lot doesn't delay the others
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * @brief A request received, and whether it has been admitted by the server.
+     */
+    private static final class Frame {
+        private final byte[] bytes;
+        private final boolean admitted;
+        private Request request; // null until decoded
+
+        private Frame(byte[] bytes, boolean admitted) {
+            this.bytes = bytes;
+            this.admitted = admitted;
+        }
+    }
+
+    /**
+     * @brief The connection of a client: the frame being read, the frames waiting for the workers, and the responses waiting for the socket. Guarded by itself, except the frame being read which is only used by the selector thread.
+     */
+    final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ClientHandler handler;
+        private int header; // the bytes of the length read so far
+        private int headerBytes;
+        private byte[] frame; // null while the length is read
+        private int position;
+        private final ArrayDeque<Frame> pending = new ArrayDeque<>(4);
+        private boolean scheduled; // true while a worker processes the frames, or while the oldest one waits for the independent requests before it
+        private boolean held; // true while the oldest frame waits for the independent requests before it
+        private int concurrentRequests; // the independent requests processed by the workers
+        private boolean readPaused;
+        private boolean endOfStream;
+        private ArrayDeque<ByteBuffer> outbound; // null while every response has been written at once
+        private boolean closed;
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(SelectorEngine.this.selector, SelectionKey.OP_READ, this);
+            this.handler = SelectorEngine.this.server.acceptClient(this);
+        }
+
+        /**
+         * @brief Read the bytes available on the socket and cut them into frames. Called by the selector thread.
+         */
+        private void readAvailable() throws IOException {
+            ByteBuffer buffer = SelectorEngine.this.readBuffer;
+            for (int i = 0; i < MAX_READS; i++) {
+                buffer.clear();
+                int read = this.channel.read(buffer);
+                if (read < 0) {
+                    this.endOfStream();
+                    return;
+                }
+                buffer.flip();
+                this.cut(buffer);
+                if (buffer.limit() < buffer.capacity())
+                    return;
+            }
+        }
+
+        private void cut(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                if (this.frame == null) {
+                    if (this.headerBytes == 0 && bytes.remaining() >= Integer.BYTES) {
+                        this.header = bytes.getInt();
+                        this.headerBytes = Integer.BYTES;
+                    } else {
+                        this.header = (this.header << 8) | (bytes.get() & 0xFF);
+                        this.headerBytes++;
+                    }
+                    if (this.headerBytes < Integer.BYTES)
+                        continue;
+                    if (this.header < 0 || this.header > MAX_FRAME_BYTES)
+                        throw new IOException("Invalid frame length " + this.header);
+                    this.frame = new byte[this.header];
+                    this.position = 0;
+                    this.header = 0;
+                    this.headerBytes = 0;
+                }
+                int length = Math.min(bytes.remaining(), this.frame.length - this.position);
+                bytes.get(this.frame, this.position, length);
+                this.position += length;
+                if (this.position == this.frame.length) {
+                    this.received(this.frame);
+                    this.frame = null;
+                }
+            }
+        }
+
+        /**
+         * @details The request is admitted on receipt, so that the requests waiting for the workers count as in flight.
+         */
+        private synchronized void received(byte[] frame) {
+            if (this.closed) // by a worker, the request is dropped
+                return;
+            this.pending.add(new Frame(frame, SelectorEngine.this.server.admitRequest()));
+            this.updateReading();
+            if (!this.scheduled) {
+                this.scheduled = true;
+                this.schedule();
+            }
+        }
+
+        /**
+         * @brief The client has closed its socket: the connection is closed once its pending frames are processed.
+         */
+        private synchronized void endOfStream() {
+            if (this.closed)
+                return;
+            this.endOfStream = true;
+            this.key.interestOpsAnd(~SelectionKey.OP_READ);
+            if (!this.scheduled && this.concurrentRequests == 0)
+                this.close();
+        }
+
+        private void schedule() {
+            try {
+                SelectorEngine.this.workers.execute(this::process);
+            } catch (RejectedExecutionException e) {
+                // the engine is closed
+            }
+        }
+
+        /**
+         * @brief Stop reading the socket while MAX_PENDING_FRAMES requests of the client wait for or are processed by the workers, and read it again below. Called with the lock of the connection held.
+         */
+        private void updateReading() {
+            if (this.closed)
+                return;
+            boolean full = this.pending.size() + this.concurrentRequests >= MAX_PENDING_FRAMES;
+            if (full && !this.readPaused) {
+                this.readPaused = true;
+                this.key.interestOpsAnd(~SelectionKey.OP_READ);
+            } else if (!full && this.readPaused && !this.endOfStream) {
+                this.readPaused = false;
+                this.key.interestOpsOr(SelectionKey.OP_READ);
+                SelectorEngine.this.selector.wakeup();
+            }
+        }
+
+        /**
+         * @brief Decode the oldest pending frame, then answer it or hand it to another worker if it is independent, and let the frames of the other clients be processed before the next one. Called by a worker.
+         *
+         * @details A request which isn't independent is held until the independent requests before it are answered, then processed again by the worker finishing the last of them.
+         */
+        private void process() {
+            Frame frame;
+            synchronized (this) {
+                frame = this.pending.poll();
+            }
+            if (frame == null) // the connection has been closed meanwhile
+                return;
+            boolean handedOver = false; // whether the admission of the request is released by another worker
+            try {
+                if (frame.request == null)
+                    frame.request = this.handler.decode(frame.bytes);
+                if (frame.admitted && ClientHandler.isIndependent(frame.request)) {
+                    this.startConcurrently(frame);
+                    handedOver = true;
+                } else {
+                    synchronized (this) {
+                        if (frame.admitted && this.concurrentRequests > 0) {
+                            this.pending.addFirst(frame);
+                            this.held = true;
+                            handedOver = true;
+                            return;
+                        }
+                    }
+                    this.handler.answer(frame.request, frame.admitted);
+                }
+            } catch (Exception e) { // a request which can't be decrypted or deserialized, or a socket closed
+                SelectorEngine.this.server.getLogger().warning("Closing the connection of the client handler " + this.handler.getId() + ": " + e);
+                this.close();
+                return;
+            } finally {
+                if (frame.admitted && !handedOver)
+                    SelectorEngine.this.server.releaseRequest();
+            }
+            synchronized (this) {
+                this.updateReading();
+                if (!this.pending.isEmpty())
+                    this.schedule();
+                else {
+                    this.scheduled = false;
+                    if (this.endOfStream && this.concurrentRequests == 0)
+                        this.close();
+                }
+            }
+        }
+
+        private void startConcurrently(Frame frame) {
+            synchronized (this) {
+                this.concurrentRequests++;
+            }
+            try {
+                SelectorEngine.this.workers.execute(() -> this.processConcurrently(frame));
+            } catch (RejectedExecutionException e) { // the engine is closed
+                this.concurrentRequestDone();
+            }
+        }
+
+        private void processConcurrently(Frame frame) {
+            try {
+                this.handler.answer(frame.request, true);
+            } catch (Exception e) { // a socket closed
+                SelectorEngine.this.server.getLogger().warning("Closing the connection of the client handler " + this.handler.getId() + ": " + e);
+                this.close();
+            } finally {
+                this.concurrentRequestDone();
+            }
+        }
+
+        /**
+         * @details The last independent request answered processes the frame held, or closes the connection if the client has closed its socket and no frame is left.
+         */
+        private void concurrentRequestDone() {
+            SelectorEngine.this.server.releaseRequest();
+            synchronized (this) {
+                this.concurrentRequests--;
+                this.updateReading();
+                if (this.concurrentRequests > 0 || this.closed)
+                    return;
+                if (this.held) {
+                    this.held = false;
+                    this.schedule();
+                } else if (this.endOfStream && !this.scheduled)
+                    this.close();
+            }
+        }
+
+        /**
+         * @brief Write a frame to the client, or queue it if the socket doesn't take it at once. Called by a worker.
+         */
+        synchronized void send(byte[] frame) throws IOException {
+            if (this.closed)
+                throw new ClosedChannelException();
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            if (this.outbound == null || this.outbound.isEmpty()) {
+                this.channel.write(buffer);
+                if (!buffer.hasRemaining())
+                    return;
+                if (this.outbound == null)
+                    this.outbound = new ArrayDeque<>(4);
+                this.key.interestOpsOr(SelectionKey.OP_WRITE);
+                SelectorEngine.this.selector.wakeup();
+            }
+            this.outbound.add(buffer);
+        }
+
+        /**
+         * @brief Write the queued responses the socket takes. Called by the selector thread.
+         */
+        private synchronized void flush() throws IOException {
+            if (this.closed)
+                return;
+            while (!this.outbound.isEmpty()) {
+                ByteBuffer buffer = this.outbound.peek();
+                this.channel.write(buffer);
+                if (buffer.hasRemaining())
+                    return;
+                this.outbound.poll();
+            }
+            this.key.interestOpsAnd(~SelectionKey.OP_WRITE);
+        }
+
+        /**
+         * @details The requests still waiting for the workers are dropped, and the handler is removed from the server.
+         */
+        void close() {
+            synchronized (this) {
+                if (this.closed)
+                    return;
+                this.closed = true;
+                for (Frame frame: this.pending)
+                    if (frame.admitted)
+                        SelectorEngine.this.server.releaseRequest();
+                this.pending.clear();
+            }
+            SelectorEngine.this.server.removeClientHandler(this.handler);
+            this.key.cancel();
+            try {
+                this.channel.close();
+            } catch (IOException ignored) {
+                // the connection is lost anyway
+            }
+            SelectorEngine.this.server.getLogger().info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CLIENT_HANDLER, this.handler.getId()).toString());
+        }
+    }
+
+    private final Server server;
+    private final ServerSocketChannel channel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES); // shared by the connections, only used by the selector thread
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private boolean running; // guarded by this
+    private volatile boolean closed;
+
+    /**
+     * @param channel The socket on which the clients are accepted, switched to non-blocking mode.
+     * @param workers The number of threads processing the requests.
+     */
+    public SelectorEngine(Server server, ServerSocketChannel channel, int workers) throws IOException {
+        this.server = server;
+        this.channel = channel;
+        this.selector = Selector.open();
+        channel.configureBlocking(false);
+        channel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "connection-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (this.closed)
+                return;
+            this.running = true;
+        }
+        try {
+            while (!this.closed)
+                this.selector.select(this::ready);
+        } catch (IOException e) {
+            this.server.getLogger().warning("The selector has failed: " + e);
+        } finally {
+            this.release();
+        }
+    }
+
+    private void ready(SelectionKey key) {
+        if (!key.isValid())
+            return;
+        if (key.isAcceptable()) {
+            this.accept();
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable())
+                connection.readAvailable();
+            if (key.isValid() && key.isWritable())
+                connection.flush();
+        } catch (IOException e) { // a connection reset, or a frame too large
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel client;
+            while ((client = this.channel.accept()) != null) {
+                if (!this.server.hasRoomForClient()) {
+                    this.server.rejectClient(client);
+                    continue;
+                }
+                try {
+                    client.configureBlocking(false);
+                    new Connection(client);
+                } catch (IOException e) {
+                    client.close();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            this.server.getLogger().warning("Failed to accept a client: " + e);
+        }
+    }
+
+    /**
+     * @brief Close the connections, the selector and the workers.
+     */
+    private void release() {
+        try {
+            for (SelectionKey key: this.selector.keys())
+                if (key.attachment() instanceof Connection connection)
+                    connection.close();
+            this.selector.close();
+        } catch (IOException e) {
+            this.server.getLogger().warning("Failed to close the selector: " + e);
+        } finally {
+            this.workers.shutdownNow();
+            this.stopped.countDown();
+        }
+    }
+
+    /**
+     * @brief Stop serving the clients and close their connections, then return once the selector thread has stopped, so that the socket of the server can be closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            boolean wasClosed = this.closed;
+            this.closed = true;
+            if (!this.running) {
+                if (!wasClosed)
+                    this.release();
+                return;
+            }
+        }
+        this.selector.wakeup();
+        try {
+            this.stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,7 +2,16 @@ package server;
 
 import java.io.IOException;
 
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.nio.charset.StandardCharsets;
 
@@ -20,13 +29,31 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 
 import client.IpAddressUDPServer;
+import logger.ErrorLogMessage;
 import logger.InternalLogMessage;
 import logger.TokenInternalLogMessage;
+import protocol.ProtocolCommand;
+import protocol.Request;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.FileHandler;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
@@ -38,32 +65,100 @@ import java.util.regex.Pattern;
  * 
  * @details The sales manipulations are transmitted to the server via the ClientHandler class.
  * The passwords are stored in a hashed form.
+ * The clients and the sales are stored by the engine chosen at construction (see StorageSettings), through the repository interfaces, and the clients are served by the connection engine chosen at construction (see ConnectionSettings).
  * The server can be initialized with some data for testing purposes.
  */
 public class Server implements Runnable {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
     private int clientHandlerId = 0;
-    private int annonceId = 0;
+    private AtomicInteger annonceId;
     private KeyPair publicPrivateKey;
-    private ServerSocket server;
-    private ArrayList<ClientHandler> clientsHandler;
-    private ArrayList<Client> clients;
-    private ArrayList<Sale> sales;
+    private ServerSocketChannel server; // null if the server doesn't listen
+    private SelectorEngine selector; // null if each client is served by its own thread
+    private ThreadFactory handlerThreads; // the threads of the client handlers, platform or virtual
+    private ExecutorService cryptoWorkers; // the platform threads computing the key derivations of the virtual threads, null with the other engines
+    private ExecutorService requestWorkers; // the threads processing the independent requests of the clients served by their own thread, null with the selector engine
+    private Set<ClientHandler> clientsHandler; // the handlers of the connected clients, removed once their connection is closed
+    private int maxConnections;
+    private Semaphore requestPermits; // a permit per request received and not answered yet
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder busyRequests = new LongAdder();
+    private ClientRepository clients; // the clients by mail
+    private SaleRepository sales; // the sales by id and the listings of each domain
+    private Map<Domain, ReentrantLock> domainLocks; // the write lock of the sales of each domain, not a monitor so that a virtual thread waiting for it releases its carrier
+    private SaleSearchIndex searchIndex; // the sales by the words of their title and content
+    private SalesByOwner salesByOwner; // the sales by the mail of their owner
     private ArrayList<Domain> domains;
-    private boolean isRespondingToRequest;
-    private boolean stop;
+    private volatile boolean isRespondingToRequest;
+    private volatile boolean stop;
+    private final int port; // the port listened to, chosen by the system if 0 was requested, or NOT_LISTENING
+    private volatile Thread engineThread; // the thread serving the clients, joined when the server is stopped
     private Logger logger;
     private FileHandler fh;
-    private Map<String, IpAddressUDPServer> ipAddressesOfUDPServers;
+    private UDPCoordinateRepository udpCoordinates; // the address of the UDP server of each client, by mail
+    private PersistenceSettings persistence; // null if the clients and the sales are only kept in memory
+    private WriteAheadLog writeAheadLog;
+    private ScheduledExecutorService snapshotter;
+    private SaleChangeFeed changeFeed; // the changes of the sales since the start, not including the writes restored
 
     public Server(boolean isRespondingToRequest, boolean unitTest) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this(isRespondingToRequest, unitTest, (PersistenceSettings) null);
+    }
+
+    /**
+     * @param dataDirectory The directory from which the clients and the sales are restored, and to which their writes are logged, with the default settings.
+     */
+    public Server(boolean isRespondingToRequest, boolean unitTest, Path dataDirectory) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this(isRespondingToRequest, unitTest, new PersistenceSettings(dataDirectory));
+    }
+
+    /**
+     * @param persistence Where and how the clients and the sales are persisted, or null to keep them only in memory.
+     */
+    public Server(boolean isRespondingToRequest, boolean unitTest, PersistenceSettings persistence) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this(isRespondingToRequest, unitTest, persistence, null);
+    }
+
+    /**
+     * @param storage The engine which stores the clients and the sales, or null to store them on the heap.
+     */
+    public Server(boolean isRespondingToRequest, boolean unitTest, PersistenceSettings persistence, StorageSettings storage) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this(isRespondingToRequest, unitTest, persistence, storage, null);
+    }
+
+    /**
+     * @param connections The engine which serves the clients, or null to serve each one with its own thread. The virtual thread per client engine falls back to a platform thread per client before Java 21, with a warning in the log.
+     */
+    public Server(boolean isRespondingToRequest, boolean unitTest, PersistenceSettings persistence, StorageSettings storage, ConnectionSettings connections) throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
         this.initializePrivatePublicKey();
-        this.server = new ServerSocket(4321);
-        this.server.setReuseAddress(true);
-        this.clientsHandler = new ArrayList<>();
-        this.clients = new ArrayList<>();
-        this.sales = new ArrayList<>();
+        if (storage == null)
+            storage = StorageSettings.inMemory();
+        if (connections == null)
+            connections = ConnectionSettings.threadPerClient();
+        if (connections.getPort() == ConnectionSettings.NOT_LISTENING)
+            this.port = ConnectionSettings.NOT_LISTENING; // no server socket, run returns at once
+        else {
+            this.server = ServerSocketChannel.open();
+            try {
+                this.server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                this.server.bind(new InetSocketAddress(connections.getPort()), ConnectionSettings.DEFAULT_BACKLOG);
+                this.port = ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+            } catch (IOException e) {
+                this.server.close();
+                throw e;
+            }
+        }
+        this.clientsHandler = ConcurrentHashMap.newKeySet();
+        this.maxConnections = connections.getMaxConnections();
+        this.requestPermits = new Semaphore(connections.getMaxInFlightRequests());
+        this.domainLocks = new EnumMap<>(Domain.class);
+        for (Domain domain: Domain.values())
+            this.domainLocks.put(domain, new ReentrantLock());
+        this.searchIndex = new SaleSearchIndex();
+        this.salesByOwner = new SalesByOwner();
         this.domains = new ArrayList<>();
-        this.ipAddressesOfUDPServers = new HashMap<>();
+        this.udpCoordinates = storage.openUDPCoordinateRepository();
         this.isRespondingToRequest = isRespondingToRequest;
         this.stop = false;
         this.logger = Logger.getLogger("LogServer");
@@ -72,17 +167,143 @@ public class Server implements Runnable {
         SimpleFormatter formatter = new SimpleFormatter();
         fh.setFormatter(formatter);
         this.logger.setUseParentHandlers(false); // do not print on console
+        if (connections.getEngine() == ConnectionEngine.VIRTUAL_THREAD_PER_CLIENT && !ConnectionSettings.hasVirtualThreads()) {
+            this.logger.warning("The virtual threads need Java 21, this is Java " + Runtime.version().feature() + ": each client is served by its own platform thread instead");
+            connections = connections.withEngine(ConnectionEngine.THREAD_PER_CLIENT);
+        }
         this.clientHandlerId = 0;
-        this.annonceId = 0;
+        this.annonceId = new AtomicInteger(0);
         this.domains.add(Domain.HOUSE);
         this.domains.add(Domain.CAR);
-        if (unitTest) { // initialize the server with some data
+        this.persistence = persistence;
+        try {
+            this.clients = storage.openClientRepository();
+            this.sales = storage.openSaleRepository();
+            if (persistence != null)
+                this.restore();
+            this.changeFeed = new SaleChangeFeed();
+            if (connections.getEngine() == ConnectionEngine.SELECTOR)
+                this.selector = new SelectorEngine(this, this.server, connections.getWorkers());
+            else {
+                this.handlerThreads = connections.handlerThreads();
+                this.requestWorkers = Executors.newFixedThreadPool(connections.getWorkers(), runnable -> {
+                    Thread thread = new Thread(runnable, "request-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            if (connections.getEngine() == ConnectionEngine.VIRTUAL_THREAD_PER_CLIENT)
+                this.cryptoWorkers = Executors.newFixedThreadPool(connections.getWorkers(), runnable -> {
+                    Thread thread = new Thread(runnable, "crypto-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        } catch (IOException | RuntimeException e) {
+            if (this.server != null)
+                this.server.close(); // release the port and the files of the engine, the server won't run
+            if (this.clients != null)
+                this.clients.close();
+            if (this.sales != null)
+                this.sales.close();
+            throw e;
+        }
+        if (unitTest && this.clients.isEmpty()) { // initialize the server with some data, unless it has been restored
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] pwdHash = digest.digest("test".getBytes(StandardCharsets.UTF_8));
             this.addClient("alice@gmail.com", "Alice", "test");
             this.addClient("bob@gmail.com", "Bob", Arrays.toString(pwdHash));
-            this.sales.add(new Sale("alice@gmail.com", Domain.HOUSE, "Big House", "Content of the annonce", 1000, 0));
-            this.sales.add(new Sale("bob@gmail.com", Domain.HOUSE, "Big House 2", "Content of the annonce 2", 2000, 1));
+            this.addSale("alice@gmail.com", Domain.HOUSE, "Big House", "Content of the annonce", 1000);
+            this.addSale("bob@gmail.com", Domain.HOUSE, "Big House 2", "Content of the annonce 2", 2000);
+        }
+    }
+
+    /**
+     * @brief Load the latest snapshot, then replay the segments of the write-ahead log it doesn't cover, and start taking snapshots periodically.
+     *
+     * @details The startup time depends on the size of the data and on the writes since the latest snapshot, not on the whole history.
+     */
+    private void restore() throws IOException {
+        Files.createDirectories(this.persistence.getDirectory());
+        Replay replay = new Replay();
+        Snapshot snapshot = Snapshot.load(this.persistence.getDirectory(), replay);
+        long firstGeneration = 0;
+        if (snapshot != null) {
+            firstGeneration = snapshot.getFirstGeneration();
+            this.annonceId.set(Math.max(this.annonceId.get(), snapshot.getNextSaleId()));
+        }
+        this.writeAheadLog = WriteAheadLog.open(this.persistence.getDirectory(), firstGeneration, replay, this.persistence.getGroupCommitSize(), this.persistence.getGroupCommitMaxWaitMicros());
+        long interval = this.persistence.getSnapshotIntervalSeconds();
+        if (interval > 0) {
+            this.snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.snapshotter.scheduleWithFixedDelay(() -> {
+                try {
+                    this.takeSnapshot();
+                } catch (IOException e) {
+                    this.logger.warning("Failed to take a snapshot: " + e); // the log still holds every write, the next snapshot will cover them
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @brief Write a snapshot of the clients and the sales, then delete the segments of the write-ahead log it covers. The writers aren't stopped.
+     *
+     * @details The log is first rotated: the writes logged before are in the previous segments, and the following ones in the new segment.
+     * Then each domain lock is taken once, so that every write logged before the rotation is also applied in memory.
+     * The snapshot is taken from the memory afterwards: it may contain some writes of the new segment, which are replayed again on restart without harm.
+     * Since the snapshots are taken by a single thread, this method must not be called concurrently.
+     */
+    public synchronized void takeSnapshot() throws IOException {
+        if (this.writeAheadLog == null)
+            return;
+        int nextSaleId = this.annonceId.get();
+        long generation = this.writeAheadLog.rotate();
+        for (ReentrantLock domainLock: this.domainLocks.values()) { // wait for the writes of the domain in progress
+            domainLock.lock();
+            domainLock.unlock();
+        }
+        Snapshot.write(this.persistence.getDirectory(), generation, nextSaleId, this.clients.clients(), this.sales.sales());
+        this.writeAheadLog.deleteSegmentsBefore(generation);
+    }
+
+    /**
+     * @brief Apply the writes read from the snapshot and from the write-ahead log, without logging them again.
+     *
+     * @details A write may be applied twice, once from the snapshot and once from the log, if it happened while the snapshot was taken: the writes are idempotent.
+     */
+    private class Replay implements WriteAheadLog.Handler {
+        @Override
+        public void clientAdded(Client client) throws IOException {
+            Server.this.clients.add(client);
+        }
+
+        @Override
+        public void saleAdded(Sale sale) throws IOException {
+            Sale current = Server.this.sales.get(sale.getId());
+            if (current != null)
+                Server.this.replaceSale(current, sale);
+            else
+                Server.this.insertSale(sale);
+            if (sale.getId() >= Server.this.annonceId.get())
+                Server.this.annonceId.set(sale.getId() + 1);
+        }
+
+        @Override
+        public void saleUpdated(int id, String title, String content, int price) throws IOException {
+            Sale current = Server.this.sales.get(id);
+            if (current != null)
+                Server.this.replaceSale(current, new Sale(current.getOwner(), current.getDomain(), title, content, price, id));
+        }
+
+        @Override
+        public void saleDeleted(int id) {
+            Sale current = Server.this.sales.get(id);
+            if (current != null)
+                Server.this.removeSale(current);
         }
     }
 
@@ -102,7 +323,7 @@ public class Server implements Runnable {
         byte[] saltBytes = salt.getBytes();
         KeySpec spec = new PBEKeySpec(password.toCharArray(), saltBytes, iterations, derivedKeyLength);
         SecretKeyFactory f = SecretKeyFactory.getInstance(algorithm);
-        byte[] encBytes = f.generateSecret(spec).getEncoded();
+        byte[] encBytes = this.offload(() -> f.generateSecret(spec)).getEncoded();
         return Arrays.toString(encBytes);
     }
 
@@ -113,29 +334,95 @@ public class Server implements Runnable {
         return Arrays.toString(salt);
     }
 
+    /**
+     * @brief Process an independent request of a client served by its own thread, on the request workers shared by all the clients.
+     *
+     * @details The requests wait in the queue of the workers while they are all busy. The queue is bounded by the admission of the requests: at most the maximum number of requests in flight.
+     */
+    void runConcurrently(Runnable request) {
+        this.requestWorkers.execute(request);
+    }
+
+    /**
+     * @brief A computation which may throw a checked exception.
+     */
+    interface Computation<T, E extends Exception> {
+        T compute() throws E;
+    }
+
+    /**
+     * @brief Run a long computation of the cryptography, such as a key derivation, on behalf of a client handler.
+     *
+     * @details A virtual thread is never preempted while it computes, so a key derivation would hold its carrier thread and delay the other clients.
+     * With virtual threads, the computation thus runs on the crypto workers, and the virtual thread releases its carrier while it waits. Otherwise it runs in the calling thread.
+     */
+    @SuppressWarnings("unchecked")
+    <T, E extends Exception> T offload(Computation<T, E> computation) throws E {
+        if (this.cryptoWorkers == null)
+            return computation.compute();
+        Future<T> result = this.cryptoWorkers.submit(computation::compute);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the client is answered anyway, as with the other engines
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException cause)
+                        throw cause;
+                    if (e.getCause() instanceof Error cause)
+                        throw cause;
+                    throw (E) e.getCause();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
     public void closeConnection() throws IOException {
-        this.server.close();
+        if (this.server != null)
+            this.server.close();
     }
 
-    public void addClient(String mail, String name, String password) throws NoSuchAlgorithmException, InvalidKeySpecException {
+    /**
+     * @brief Register a new client, unless the mail is already taken.
+     *
+     * @details The registration is atomic: if two clients sign up concurrently with the same mail, only one of them is registered.
+     * @return True if the client has been registered, false if the mail is already taken.
+     */
+    public boolean addClient(String mail, String name, String password) throws NoSuchAlgorithmException, InvalidKeySpecException, IOException {
         String salt = this.getSalt();
         String encryptedPassword = this.getEncryptedPassword(password, salt);
-        this.clients.add(new Client(mail, name, encryptedPassword, salt));
-        this.logger.info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CLIENT_CREATED, mail, name).toString());
+        return this.addClient(new Client(mail, name, encryptedPassword, salt));
+    }
+
+    /**
+     * @brief Register a client whose password is already encrypted.
+     */
+    boolean addClient(Client client) throws IOException {
+        if (!this.clients.add(client))
+            return false;
+        if (this.writeAheadLog != null) {
+            try {
+                this.writeAheadLog.awaitDurable(this.writeAheadLog.appendClientAdded(client));
+            } catch (IOException e) {
+                this.clients.remove(client.getMail()); // the registration would be lost on restart
+                throw e;
+            }
+        }
+        this.logger.info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CLIENT_CREATED, client.getMail(), client.getName()).toString());
+        return true;
     }
 
     public boolean isMailRegister(String mail) {
-        for (Client cs : this.clients)
-            if (cs.getMail().equals(mail))
-                return true;
-        return false;
+        return this.clients.contains(mail);
     }
 
     public Client getClientFromMail(String mail) {
-        for (Client cs : this.clients)
-            if (cs.getMail().equals(mail))
-                return cs;
-        return null;
+        return this.clients.get(mail);
     }
 
     public boolean isNameValid(String name) {
@@ -154,33 +441,198 @@ public class Server implements Runnable {
     }
 
     public boolean isPasswordValid(String mail, String pwd) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        Client cs = this.getClientFromMail(mail);
+        return this.isPasswordValid(this.getClientFromMail(mail), pwd);
+    }
+
+    public boolean isPasswordValid(Client cs, String pwd) throws NoSuchAlgorithmException, InvalidKeySpecException {
         String salt = cs.getSalt();
         String computedEncryptedPwd = this.getEncryptedPassword(pwd, salt);
         return computedEncryptedPwd.equals(cs.getPwd());
     }
 
+    /**
+     * @brief Stop serving the clients and close the stores. Once returned, the thread serving the clients has stopped and the port is released, so that another server can listen to it.
+     */
     public void stopProcess() throws IOException {
         this.stop = true;
-        this.server.close();
+        if (this.selector != null)
+            this.selector.close();
+        if (this.server != null)
+            this.server.close();
+        Thread engine = this.engineThread;
+        if (engine != null && engine != Thread.currentThread()) {
+            try {
+                engine.join(); // the socket is only closed once the accept loop has left its pending accept
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.requestWorkers != null)
+            this.requestWorkers.shutdown();
+        if (this.cryptoWorkers != null)
+            this.cryptoWorkers.shutdown();
+        if (this.snapshotter != null) {
+            this.snapshotter.shutdown();
+            try {
+                this.snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.changeFeed.close();
+        if (this.writeAheadLog != null)
+            this.writeAheadLog.close();
+        this.sales.close();
+        this.clients.close();
     }
 
-    public synchronized void addSale(String mail, Domain domain, String title, String content, int price) {
-        Sale newSale = new Sale(mail, domain, title, content, price, this.annonceId);
-        this.sales.add(newSale);
-        this.logger.info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CREATE_SALE, mail, title, content, domain, price, this.annonceId).toString());
-        this.annonceId++;
+    /**
+     * @brief Get the feed of the changes of the sales, to tail them from an offset.
+     *
+     * @details A change is appended while the lock of its domain is held, once the write is applied in memory: it may be read before the write is forced to the disk with its batch.
+     */
+    public SaleChangeFeed getChangeFeed() {
+        return this.changeFeed;
     }
 
-    public synchronized void updateSale(String title, String descriptif, int price, int id) {
-        for (Sale sale: this.sales)
-            if (sale.getId() == id) {
-                sale.setTitle(title);
-                sale.setDescriptif(descriptif);
-                sale.setPrice(price);
+    /**
+     * @brief Create a sale.
+     *
+     * @details Only the domain of the sale is locked. The id is taken under that lock, so that the listings of a domain are appended in increasing id order.
+     * The sale is appended to the write-ahead log before being visible. The method returns, thus the client is answered, once the sale has been forced to the disk with its batch;
+     * the lock of the domain isn't held meanwhile, so that the writes of the domain are committed together.
+     * The owner is checked before anything is logged or stored, so that the store and the indexes never diverge.
+     * @throws IllegalArgumentException If the owner is not a registered client.
+     */
+    public void addSale(String mail, Domain domain, String title, String content, int price) throws IOException {
+        if (mail == null || !this.clients.contains(mail))
+            throw new IllegalArgumentException("The owner of a sale must be a registered client: " + mail);
+        long ticket = 0;
+        Sale newSale;
+        ReentrantLock domainLock = this.domainLocks.get(domain);
+        domainLock.lock();
+        try {
+            newSale = new Sale(mail, domain, title, content, price, this.annonceId.getAndIncrement());
+            if (this.writeAheadLog != null)
+                ticket = this.writeAheadLog.appendSaleAdded(newSale);
+            this.insertSale(newSale);
+            this.changeFeed.append(SaleChange.Type.CREATED, newSale);
+            this.logger.info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_CREATE_SALE, mail, title, content, domain, price, newSale.getId()).toString());
+        } finally {
+            domainLock.unlock();
+        }
+        try {
+            this.awaitDurable(ticket);
+        } catch (IOException e) {
+            this.rollBackAdded(new Sale[] {newSale}); // the sale would be lost on restart
+            throw e;
+        }
+    }
+
+    /**
+     * @brief Create many sales at once, e.g. to import them.
+     *
+     * @details The ids of the given sales are ignored: the sales of each domain get new ids under a single lock of the domain, are appended to the write-ahead log together,
+     * then added to the store and to the indexes in batches, so that the cost of a sale doesn't depend on the number of sales already stored.
+     * The method returns once every created sale is durable. The owners must be registered.
+     * @return The number of created sales.
+     */
+    public int addSales(List<Sale> sales) throws IOException {
+        Map<Domain, List<Sale>> salesByDomain = new EnumMap<>(Domain.class);
+        for (Sale sale: sales)
+            salesByDomain.computeIfAbsent(sale.getDomain(), d -> new ArrayList<>()).add(sale);
+        long ticket = 0;
+        List<Sale> createdSales = new ArrayList<>(sales.size());
+        for (Map.Entry<Domain, List<Sale>> entry: salesByDomain.entrySet()) {
+            List<Sale> ofDomain = entry.getValue();
+            Sale[] created = new Sale[ofDomain.size()];
+            String[] ownerNames = new String[created.length];
+            ReentrantLock domainLock = this.domainLocks.get(entry.getKey());
+            domainLock.lock();
+            try {
+                Map<String, IdBuffer> idsByOwner = new HashMap<>();
+                for (int i = 0; i < created.length; i++) {
+                    Sale sale = ofDomain.get(i);
+                    created[i] = new Sale(sale.getOwner(), sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), this.annonceId.getAndIncrement());
+                    ownerNames[i] = this.ownerNameOf(created[i]);
+                    if (this.writeAheadLog != null)
+                        ticket = this.writeAheadLog.appendSaleAdded(created[i]);
+                }
+                this.sales.addAll(created, ownerNames);
+                for (Sale sale: created) {
+                    this.searchIndex.add(sale);
+                    idsByOwner.computeIfAbsent(sale.getOwner(), o -> new IdBuffer()).add(sale.getId());
+                }
+                for (Map.Entry<String, IdBuffer> owner: idsByOwner.entrySet())
+                    this.salesByOwner.addAll(owner.getKey(), owner.getValue().toArray());
+                this.changeFeed.appendAll(SaleChange.Type.CREATED, created);
+                createdSales.addAll(Arrays.asList(created));
+            } finally {
+                domainLock.unlock();
+            }
+        }
+        try {
+            this.awaitDurable(ticket);
+        } catch (IOException e) {
+            this.rollBackAdded(createdSales.toArray(new Sale[0]));
+            throw e;
+        }
+        this.logger.info("Created " + sales.size() + " sales at once");
+        return sales.size();
+    }
+
+    /**
+     * @brief A growable array of ids, to gather the ids of the sales of each owner without boxing them.
+     */
+    private static final class IdBuffer {
+        private int[] ids = new int[8];
+        private int size;
+
+        private void add(int id) {
+            if (this.size == this.ids.length)
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            this.ids[this.size++] = id;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(this.ids, this.size);
+        }
+    }
+
+    /**
+     * @brief Update a sale.
+     *
+     * @details A stored sale is never modified once published, so that concurrent readers never see it half updated: it is replaced by an updated copy, as well as its listing.
+     * The domain of a sale can't be changed, so only that domain is locked.
+     */
+    public void updateSale(String title, String descriptif, int price, int id) throws IOException {
+        Sale found = this.sales.get(id);
+        if (found == null)
+            return;
+        long ticket = 0;
+        Sale current;
+        ReentrantLock domainLock = this.domainLocks.get(found.getDomain());
+        domainLock.lock();
+        try {
+            current = this.sales.get(id); // the sale may have been deleted before the lock was taken
+            if (current != null) {
+                Sale sale = new Sale(current.getOwner(), current.getDomain(), title, descriptif, price, id);
+                if (this.writeAheadLog != null)
+                    ticket = this.writeAheadLog.appendSaleUpdated(sale);
+                this.replaceSale(current, sale);
+                this.changeFeed.append(SaleChange.Type.UPDATED, sale);
                 this.logger.info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_UPDATE_SALE, sale.getOwner(), sale.getTitle(), sale.getContent(), sale.getDomain(), sale.getPrice(), sale.getId()).toString());
-                break;
             }
+        } finally {
+            domainLock.unlock();
+        }
+        try {
+            this.awaitDurable(ticket);
+        } catch (IOException e) {
+            if (current != null)
+                this.rollBackUpdated(current);
+            throw e;
+        }
     }
     
     /**
@@ -188,15 +640,121 @@ public class Server implements Runnable {
      * 
      * @param id The id of the sale to delete.
      */
-     public synchronized void deleteSale(int id) {
-        for (Sale a: this.sales)
-            if (a.getId() == id)
+     public void deleteSale(int id) throws IOException {
+        Sale found = this.sales.get(id);
+        if (found == null)
+            return;
+        long ticket = 0;
+        Sale a;
+        ReentrantLock domainLock = this.domainLocks.get(found.getDomain());
+        domainLock.lock();
+        try {
+            a = this.sales.get(id); // null if another thread deleted the sale before the lock was taken
+            if (a != null) {
+                if (this.writeAheadLog != null)
+                    ticket = this.writeAheadLog.appendSaleDeleted(id);
+                this.removeSale(a);
+                this.changeFeed.append(SaleChange.Type.DELETED, a);
                 this.logger.info(new InternalLogMessage(TokenInternalLogMessage.SERVER_LOG_DELETE_SALE, a.getOwner(), a.getTitle(), a.getContent(), a.getDomain(), a.getPrice(), a.getId()).toString());
-        this.sales.removeIf(a -> a.getId() == id);
+            }
+        } finally {
+            domainLock.unlock();
+        }
+        try {
+            this.awaitDurable(ticket);
+        } catch (IOException e) {
+            if (a != null)
+                this.rollBackDeleted(a);
+            throw e;
+        }
+    }
+
+    /**
+     * @brief Wait until a write appended to the write-ahead log is on the disk. Nothing to wait if the server keeps its data only in memory.
+     */
+    private void awaitDurable(long ticket) throws IOException {
+        if (this.writeAheadLog != null)
+            this.writeAheadLog.awaitDurable(ticket);
+    }
+
+    /**
+     * @brief Undo in memory the creation of sales the write-ahead log failed to write, as well as the later writes of them, which would be lost on restart too.
+     *
+     * @details The undo is published to the change feed as any write, so that its consumers don't keep the sales either.
+     */
+    private void rollBackAdded(Sale[] created) {
+        for (Sale sale: created) {
+            ReentrantLock domainLock = this.domainLocks.get(sale.getDomain());
+            domainLock.lock();
+            try {
+                Sale current = this.sales.get(sale.getId());
+                if (current != null) {
+                    this.removeSale(current);
+                    this.changeFeed.append(SaleChange.Type.DELETED, current);
+                }
+            } finally {
+                domainLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @brief Restore in memory the sale replaced by an update the write-ahead log failed to write, unless the sale has been deleted meanwhile.
+     */
+    private void rollBackUpdated(Sale previous) throws IOException {
+        ReentrantLock domainLock = this.domainLocks.get(previous.getDomain());
+        domainLock.lock();
+        try {
+            Sale current = this.sales.get(previous.getId());
+            if (current != null) {
+                this.replaceSale(current, previous);
+                this.changeFeed.append(SaleChange.Type.UPDATED, previous);
+            }
+        } finally {
+            domainLock.unlock();
+        }
+    }
+
+    /**
+     * @brief Restore in memory a sale whose deletion the write-ahead log failed to write.
+     */
+    private void rollBackDeleted(Sale deleted) throws IOException {
+        ReentrantLock domainLock = this.domainLocks.get(deleted.getDomain());
+        domainLock.lock();
+        try {
+            if (this.sales.get(deleted.getId()) == null) {
+                this.insertSale(deleted);
+                this.changeFeed.append(SaleChange.Type.CREATED, deleted);
+            }
+        } finally {
+            domainLock.unlock();
+        }
+    }
+
+    /**
+     * @brief Store a new sale and index it. The lock of its domain must be held, or the server must not be started yet.
+     *
+     * @details The name of a client never changes, so the join of the listing with the owner is done once when the sale is written instead of on every read.
+     */
+    private void insertSale(Sale sale) throws IOException {
+        this.sales.put(sale, this.ownerNameOf(sale));
+        this.searchIndex.add(sale);
+        this.salesByOwner.add(sale.getOwner(), sale.getId());
+    }
+
+    private void replaceSale(Sale current, Sale sale) throws IOException {
+        this.sales.put(sale, this.ownerNameOf(sale));
+        this.searchIndex.update(current, sale);
+    }
+
+    private void removeSale(Sale sale) {
+        this.sales.remove(sale.getId());
+        this.searchIndex.remove(sale);
+        this.salesByOwner.remove(sale.getOwner(), sale.getId());
     }
 
     public boolean existUPCoordinate(String mail) {
-        return this.ipAddressesOfUDPServers.containsKey(mail);
+        return this.udpCoordinates.contains(mail);
     }
 
     /**
@@ -207,45 +765,235 @@ public class Server implements Runnable {
      * @return True if the user is the owner of the sale, false otherwise.
      */
     public boolean isOwnerOfSale(String mail, int id) {
-        for (Sale sale: this.sales)
-            if (sale.getOwner().equals(mail) && sale.getId() == id)
-                return true;
-        return false;
+        return this.salesByOwner.contains(mail, id);
     }
 
+    private String ownerNameOf(Sale sale) {
+        Client owner = this.clients.get(sale.getOwner());
+        return owner != null ? owner.getName() : null;
+    }
+
+    /**
+     * @brief Get the listings of a domain, i.e. its sales with the mail of the owner replaced by its name.
+     *
+     * @details With the in-memory engine, the current snapshot of the domain is returned without locking nor copying: neither the array nor the listings must be modified.
+     */
     public Sale[] getSalesOfDomain(Domain domain) {
-        ArrayList<Sale> salesFiltered = new ArrayList<>();
-        for (Sale sale: this.sales) {
-           String nameFromMail = this.clients.stream().filter(cs -> cs.getMail().equals(sale.getOwner())).findFirst().map(Client::getName).orElse(null);
-            salesFiltered.add(new Sale(nameFromMail, sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), sale.getId()));
+        return this.sales.listings(domain);
+    }
+
+    /**
+     * @brief Iterate over the sales, with the mail of their owner, e.g. to export them. The sales written meanwhile may be missed.
+     */
+    public Iterable<Sale> getAllSales() {
+        return this.sales.sales();
+    }
+
+    /**
+     * @brief Get a page of the current listings of a domain.
+     *
+     * @param cursor The cursor returned with the previous page, or null for the first page.
+     * @param pageSize The requested number of listings, bounded by MAX_PAGE_SIZE.
+     */
+    public SalePage getSalesOfDomain(Domain domain, Integer cursor, int pageSize) {
+        return this.sales.page(domain, cursor, Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * @brief Get a page of the listings of a domain as of the version of its first page, so that the sales created, updated or deleted meanwhile don't change the following pages.
+     *
+     * @details Pinning is opt-in: a first page requested with the version 0 pins the current version and returns its pin, which the following pages send back as their version,
+     * and the last page releases it. The pin expires if the next page isn't requested in time: the following pages then show the current listings, without a pin.
+     * Without a version, the pages show the current listings and nothing is pinned. The pages are read without locking.
+     * A client only renews and releases its own pins: the pin of another client, sent as a version, is ignored.
+     * @param version The pin returned with the previous page, 0 to pin the version of a first page, or null to read the current listings.
+     * @param pins The pins held by the client, updated as they are taken and released.
+     */
+    public SalePage getSalesOfDomain(Domain domain, Integer cursor, int pageSize, Long version, Set<Long> pins) {
+        int limit = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        if (version == null)
+            return this.sales.page(domain, cursor, limit);
+        long pin = version;
+        if (cursor == null) { // a new reading, the previous one is given up
+            if (pins.remove(pin))
+                this.sales.release(pin);
+            pin = this.sales.pin(domain);
+            pins.add(pin);
+        } else if (!pins.contains(pin))
+            return this.sales.page(domain, cursor, limit);
+        SalePage page = this.sales.page(domain, cursor, limit, pin);
+        if ((page.getPin() == 0 || page.getNextCursor() == null) && pins.remove(pin)) // expired, or the last page
+            this.sales.release(pin);
+        return page;
+    }
+
+    /**
+     * @brief Get the listings of a domain whose price is in a range, sorted by price.
+     *
+     * @param limit The maximum number of listings, bounded by MAX_PAGE_SIZE.
+     */
+    public Sale[] getSalesOfDomainByPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit) {
+        return this.sales.byPrice(domain, minPrice, maxPrice, descending, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * @brief Get the listings whose title or content contains every word of the query, the most recent first.
+     *
+     * @details The matching ids come from the intersection of the posting lists of the search index, then each listing is looked up in its domain.
+     * @param limit The maximum number of listings, bounded by MAX_PAGE_SIZE.
+     */
+    public Sale[] searchSales(String query, int limit) {
+        return this.listingsOf(this.searchIndex.search(query, Math.min(limit, MAX_PAGE_SIZE)));
+    }
+
+    /**
+     * @brief Get the listings of the sales of a client, across every domain, sorted by id.
+     */
+    public Sale[] getSalesOfOwner(String mail) {
+        return this.listingsOf(this.salesByOwner.ids(mail));
+    }
+
+    /**
+     * @brief Look up the listings of sales given by id, each one in its domain. The sales deleted meanwhile are skipped.
+     */
+    private Sale[] listingsOf(int[] ids) {
+        Sale[] listings = new Sale[ids.length];
+        int count = 0;
+        for (int id: ids) {
+            Sale listing = this.sales.getListing(id);
+            if (listing != null) // null if the sale has just been deleted
+                listings[count++] = listing;
         }
-        salesFiltered.removeIf(a -> a.getDomain() != domain);
-        return salesFiltered.toArray(new Sale[0]);
+        return Arrays.copyOf(listings, count);
     }
 
-    public synchronized void addUDPIpAddress(String mail, String addr, int port) {
-        this.ipAddressesOfUDPServers.put(mail, new IpAddressUDPServer(addr, port));
+    public void addUDPIpAddress(String mail, String addr, int port) {
+        this.udpCoordinates.put(mail, new IpAddressUDPServer(addr, port));
     }
 
+    /**
+     * @brief Start the server. The clients and the sales are kept only in memory, unless a data directory is given as the first argument.
+     */
     public static void main(String[] arg) throws NoSuchAlgorithmException, IOException, ClassNotFoundException, InvalidKeySpecException {
-        new Thread(new Server(true, true)).start();
+        PersistenceSettings persistence = arg.length > 0 ? new PersistenceSettings(Paths.get(arg[0])) : null;
+        new Thread(new Server(true, true, persistence)).start();
     }
 
+    /**
+     * @brief Serve the clients until the server is stopped, with the connection engine chosen at construction.
+     */
     @Override
     public void run() {
+        this.engineThread = Thread.currentThread();
+        if (this.server == null) // not listening
+            return;
+        if (this.selector != null) {
+            this.selector.run();
+            return;
+        }
         while (!this.stop) {
-            ClientHandler ch = null;
+            SocketChannel client;
+            try {
+                client = this.server.accept();
+            } catch (IOException e) {
+                if (!this.server.isOpen()) // closed by closeConnection or stopProcess: nothing to accept anymore
+                    break;
+                continue;
+            }
+            if (!this.hasRoomForClient()) {
+                this.rejectClient(client);
+                continue;
+            }
+            ClientHandler ch;
             try {
-                ch = new ClientHandler(this.server.accept(), this, this.clientHandlerId);
+                ch = new ClientHandler(client.socket(), this, this.clientHandlerId);
                 this.clientHandlerId++;
             } catch (IOException e) {
-                //this.stopProcess = true;
+                this.rejectClient(client);
+                continue;
             }
-            new Thread(ch).start();
             this.clientsHandler.add(ch);
+            this.handlerThreads.newThread(ch).start();
+        }
+    }
+
+    /**
+     * @brief Create the handler of a client accepted by the selector engine. Called by the selector thread only.
+     */
+    ClientHandler acceptClient(SelectorEngine.Connection connection) {
+        ClientHandler ch = new ClientHandler(connection, this, this.clientHandlerId);
+        this.clientHandlerId++;
+        this.clientsHandler.add(ch);
+        return ch;
+    }
+
+    /**
+     * @brief Check whether a client can connect without exceeding the maximum number of connections. Called by the accepting thread only, so that no other client is added meanwhile.
+     */
+    boolean hasRoomForClient() {
+        return this.clientsHandler.size() < this.maxConnections;
+    }
+
+    /**
+     * @brief Answer a client which can't be served that the server is busy, then close its connection.
+     *
+     * @details A client requests the public key of the server first, so the answer is the failure of that request, in clear. It is written without waiting: it may be lost if the socket doesn't take it at once.
+     */
+    void rejectClient(SocketChannel client) {
+        this.rejectedConnections.increment();
+        try (client) {
+            client.write(ByteBuffer.wrap(ClientHandler.encodeInClear(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, ErrorLogMessage.SERVER_BUSY.getContent()))));
+        } catch (IOException ignored) {
+            // the client is disconnected anyway
         }
     }
 
+    /**
+     * @brief Forget the handler of a client whose connection is closed, so that another client can connect, and release its pins.
+     */
+    void removeClientHandler(ClientHandler ch) {
+        this.clientsHandler.remove(ch);
+        for (long pin: ch.getPins()) // the readings the client gave up
+            this.sales.release(pin);
+    }
+
+    /**
+     * @brief Admit a request, unless the maximum number of requests in flight is reached. An admitted request must be released once answered.
+     *
+     * @return True if the request can be processed, false if it must be answered that the server is busy.
+     */
+    boolean admitRequest() {
+        if (this.requestPermits.tryAcquire())
+            return true;
+        this.busyRequests.increment();
+        return false;
+    }
+
+    void releaseRequest() {
+        this.requestPermits.release();
+    }
+
+    /**
+     * @brief Get the number of clients currently connected.
+     */
+    public int getConnectedClients() {
+        return this.clientsHandler.size();
+    }
+
+    /**
+     * @brief Get the number of clients disconnected at once because the maximum number of connections was reached.
+     */
+    public long getRejectedConnections() {
+        return this.rejectedConnections.sum();
+    }
+
+    /**
+     * @brief Get the number of requests answered that the server is busy.
+     */
+    public long getBusyRequests() {
+        return this.busyRequests.sum();
+    }
+
     public Domain[] getDomainList() {
         return this.domains.toArray(new Domain[0]);
     }
@@ -259,7 +1007,14 @@ public class Server implements Runnable {
     }
 
     public IpAddressUDPServer getUDPCoordinateByMail(String mail) {
-        return this.ipAddressesOfUDPServers.get(mail);
+        return this.udpCoordinates.get(mail);
+    }
+
+    /**
+     * @brief Get the port the server listens to, e.g. the one chosen by the system if the port 0 was requested, or NOT_LISTENING.
+     */
+    public int getPort() {
+        return this.port;
     }
 
     public Logger getLogger() {
@@ -273,7 +1028,7 @@ public class Server implements Runnable {
     /**
      * @brief Set the ability of the server to respond to requests, mainly for testing purposes. 
      */
-    public synchronized void setRespondingToRequest(boolean respondingToRequest) {
+    public void setRespondingToRequest(boolean respondingToRequest) {
         this.isRespondingToRequest = respondingToRequest;
     }
 }
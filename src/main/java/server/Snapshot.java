@@ -0,0 +1,161 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @brief This class writes and reads the snapshot of the clients and the sales of the server, from which the server restarts instead of replaying the whole write-ahead log.
+ *
+ * @details The file starts with the first segment of the log which is not covered by the snapshot and the next id of a sale, followed by the clients, then the sales, then their number and the CRC32 of the bytes before it.
+ * A snapshot is written in a temporary file which is forced to the disk, then atomically renamed, and the directory is forced too: the snapshot of the directory is always complete, and survives a crash once written.
+ * A snapshot can be taken while the sales are written, so it may already contain some writes of the segments it doesn't cover: replaying those writes again must be harmless.
+ */
+public class Snapshot {
+    private static final String FILE_NAME = "snapshot";
+    private static final int MAGIC = 0x50414e4e; // "PANN"
+    private static final byte CLIENT = 1;
+    private static final byte SALE = 2;
+    private static final byte END = 0;
+
+    private final long firstGeneration;
+    private final int nextSaleId;
+
+    private Snapshot(long firstGeneration, int nextSaleId) {
+        this.firstGeneration = firstGeneration;
+        this.nextSaleId = nextSaleId;
+    }
+
+    /**
+     * @return The first segment of the log to replay after the snapshot.
+     */
+    public long getFirstGeneration() {
+        return this.firstGeneration;
+    }
+
+    /**
+     * @return The id of the next sale when the snapshot was taken, so that the ids of deleted sales are never reused.
+     */
+    public int getNextSaleId() {
+        return this.nextSaleId;
+    }
+
+    /**
+     * @brief Write the snapshot of a directory, replacing the previous one.
+     *
+     * @details The snapshot is durable when the method returns, so that the segments it covers can be deleted.
+     */
+    public static void write(Path directory, long firstGeneration, int nextSaleId, Iterable<Client> clients, Iterable<Sale> sales) throws IOException {
+        Path temporary = directory.resolve(FILE_NAME + ".tmp");
+        CRC32 crc = new CRC32();
+        try (OutputStream file = Files.newOutputStream(temporary)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeLong(firstGeneration);
+            out.writeInt(nextSaleId);
+            int count = 0;
+            for (Client client: clients) {
+                out.writeByte(CLIENT);
+                writeString(out, client.getMail());
+                writeString(out, client.getName());
+                writeString(out, client.getPwd());
+                writeString(out, client.getSalt());
+                count++;
+            }
+            for (Sale sale: sales) {
+                out.writeByte(SALE);
+                out.writeInt(sale.getId());
+                writeString(out, sale.getOwner());
+                writeString(out, sale.getDomain().name());
+                writeString(out, sale.getTitle());
+                writeString(out, sale.getContent());
+                out.writeInt(sale.getPrice());
+                count++;
+            }
+            out.writeByte(END);
+            out.writeInt(count);
+            out.writeInt((int) crc.getValue());
+            out.flush();
+        }
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true); // the rename is durable before the caller deletes the segments of the log covered by the snapshot
+        }
+    }
+
+    /**
+     * @brief Read the snapshot of a directory, if any, into the handler.
+     *
+     * @return The snapshot, or null if the directory has none.
+     * @throws IOException If the snapshot is corrupt.
+     */
+    public static Snapshot load(Path directory, WriteAheadLog.Handler handler) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream file = Files.newInputStream(directory.resolve(FILE_NAME))) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 1 << 16), crc));
+            if (in.readInt() != MAGIC)
+                throw new IOException("The snapshot of " + directory + " is corrupt");
+            Snapshot snapshot = new Snapshot(in.readLong(), in.readInt());
+            int count = 0;
+            byte type;
+            while ((type = in.readByte()) != END) {
+                switch (type) {
+                    case CLIENT -> handler.clientAdded(new Client(readString(in), readString(in), readString(in), readString(in)));
+                    case SALE -> {
+                        int id = in.readInt();
+                        String owner = readString(in);
+                        Domain domain = Domain.valueOf(readString(in));
+                        String title = readString(in);
+                        String content = readString(in);
+                        handler.saleAdded(new Sale(owner, domain, title, content, in.readInt(), id));
+                    }
+                    default -> throw new IOException("The snapshot of " + directory + " is corrupt");
+                }
+                count++;
+            }
+            boolean countMatches = in.readInt() == count;
+            int checksum = (int) crc.getValue();
+            if (!countMatches || in.readInt() != checksum)
+                throw new IOException("The snapshot of " + directory + " is corrupt");
+            return snapshot;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
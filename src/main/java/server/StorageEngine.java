@@ -0,0 +1,10 @@
+package server;
+
+/**
+ * @brief The storage engines of the server.
+ */
+public enum StorageEngine {
+    IN_MEMORY, // hash tables and sorted arrays on the heap
+    FILE, // the sales in memory-mapped files and the clients in a file indexed by mail, off the heap
+    TIERED // the recent sales on the heap in front of the memory-mapped files, and the clients in a file indexed by mail
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @brief This class gathers the settings of the storage of the server: which engine holds the clients and the sales, and where its files are.
+ *
+ * @details Whatever the engine, the clients and the sales are restored from the write-ahead log and the snapshots on startup, if the server persists them.
+ * The addresses of the UDP servers of the clients are only valid while they are connected, so they are always kept on the heap.
+ */
+public class StorageSettings {
+    private final StorageEngine engine;
+    private final Path directory;
+    private final double garbageThreshold;
+    private final int hotSales;
+
+    public StorageSettings(StorageEngine engine, Path directory) {
+        this(engine, directory, DomainListings.DEFAULT_GARBAGE_THRESHOLD, TieredSaleRepository.DEFAULT_HOT_SALES);
+    }
+
+    /**
+     * @param directory The directory of the files of the engine, unused in memory.
+     * @param garbageThreshold The fraction of garbage versions of the listings of a domain above which they are compacted, only used in memory: the files are written in place.
+     * @param hotSales The maximum number of sales kept on the heap by the tiered engine.
+     */
+    public StorageSettings(StorageEngine engine, Path directory, double garbageThreshold, int hotSales) {
+        if (engine != StorageEngine.IN_MEMORY && directory == null)
+            throw new IllegalArgumentException("The " + engine + " engine needs a directory");
+        if (!(garbageThreshold >= 0 && garbageThreshold <= 1))
+            throw new IllegalArgumentException("The garbage threshold must be between 0 and 1");
+        this.engine = engine;
+        this.directory = directory;
+        this.garbageThreshold = garbageThreshold;
+        this.hotSales = hotSales;
+    }
+
+    public static StorageSettings inMemory() {
+        return new StorageSettings(StorageEngine.IN_MEMORY, null);
+    }
+
+    public StorageEngine getEngine() {
+        return this.engine;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    public double getGarbageThreshold() {
+        return this.garbageThreshold;
+    }
+
+    public int getHotSales() {
+        return this.hotSales;
+    }
+
+    public SaleRepository openSaleRepository() throws IOException {
+        return switch (this.engine) {
+            case IN_MEMORY -> new InMemorySaleRepository(this.garbageThreshold, ReadVersions.DEFAULT_LEASE_MILLIS);
+            case FILE -> new MappedSaleStore(this.directory);
+            case TIERED -> new TieredSaleRepository(this.directory, this.hotSales);
+        };
+    }
+
+    public ClientRepository openClientRepository() throws IOException {
+        return switch (this.engine) {
+            case IN_MEMORY -> new InMemoryClientRepository();
+            case FILE, TIERED -> new FileClientRepository(this.directory);
+        };
+    }
+
+    public UDPCoordinateRepository openUDPCoordinateRepository() {
+        return new InMemoryUDPCoordinateRepository();
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+/**
+ * @brief This class stores the sales by id in several independent SaleTable, so that writers of different ids don't contend on the same lock.
+ *
+ * @details The stripe of a sale is given by the low bits of its id: consecutive sales land in different stripes.
+ */
+public class StripedSaleTable {
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final SaleTable[] stripes;
+    private final int mask;
+
+    public StripedSaleTable() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes The number of stripes, rounded up to a power of two.
+     */
+    public StripedSaleTable(int stripes) {
+        int count = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new SaleTable[count];
+        for (int i = 0; i < count; i++)
+            this.stripes[i] = new SaleTable();
+        this.mask = count - 1;
+    }
+
+    private SaleTable stripeOf(int id) {
+        return this.stripes[id & this.mask];
+    }
+
+    public Sale get(int id) {
+        return this.stripeOf(id).get(id);
+    }
+
+    public boolean contains(int id) {
+        return this.stripeOf(id).contains(id);
+    }
+
+    public Sale put(int id, Sale sale) {
+        return this.stripeOf(id).put(id, sale);
+    }
+
+    public Sale remove(int id) {
+        return this.stripeOf(id).remove(id);
+    }
+
+    public int size() {
+        int size = 0;
+        for (SaleTable stripe: this.stripes)
+            size += stripe.size();
+        return size;
+    }
+}
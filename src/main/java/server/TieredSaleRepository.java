@@ -0,0 +1,213 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @brief This class stores the sales in two tiers: every sale on disk in a MappedSaleStore (the cold tier), and the recently written or read sales as objects on the heap (the hot tier).
+ *
+ * @details The hot tier is a cache of bounded size with a least recently used eviction policy: a sale which hasn't been written nor read for a while is evicted,
+ * and faulted back in from the cold tier on its next read. So the heap holds at most the hot set, whatever the number of sales.
+ * The writes go through to the cold tier first, then replace the sale in the hot tier. The listings of the domains, their pages and their price ranges are read from the cold tier.
+ * The hot tier is split in segments by id, each one with its own lock, so that the reads of different sales don't contend.
+ * A miss is loaded while holding the lock of its segment, so that a write of the same sale, which takes that lock after writing the cold tier, never leaves a stale copy in the hot tier.
+ * It is the sale repository of the TIERED engine.
+ */
+public class TieredSaleRepository implements SaleRepository {
+    public static final int DEFAULT_HOT_SALES = 10_000;
+    private static final int SEGMENTS = 16;
+
+    /**
+     * @brief A sale of the hot tier with its listing.
+     */
+    private static final class HotSale {
+        private final Sale sale;
+        private final Sale listing;
+
+        private HotSale(Sale sale, Sale listing) {
+            this.sale = sale;
+            this.listing = listing;
+        }
+    }
+
+    /**
+     * @brief A segment of the hot tier, ordered from the least to the most recently used sale. Guarded by itself.
+     */
+    private final class Segment extends LinkedHashMap<Integer, HotSale> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true); // access order
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, HotSale> eldest) {
+            if (this.size() <= this.capacity)
+                return false;
+            TieredSaleRepository.this.evictions.increment();
+            return true;
+        }
+    }
+
+    private final MappedSaleStore cold;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TieredSaleRepository(Path directory) throws IOException {
+        this(directory, DEFAULT_HOT_SALES);
+    }
+
+    /**
+     * @param hotSales The maximum number of sales kept as objects on the heap.
+     */
+    public TieredSaleRepository(Path directory, int hotSales) throws IOException {
+        if (hotSales < SEGMENTS)
+            throw new IllegalArgumentException("The hot tier must hold at least " + SEGMENTS + " sales");
+        this.cold = new MappedSaleStore(directory);
+        for (int i = 0; i < SEGMENTS; i++)
+            this.segments[i] = new Segment(hotSales / SEGMENTS);
+    }
+
+    private Segment segmentOf(int id) {
+        return this.segments[id & (SEGMENTS - 1)];
+    }
+
+    /**
+     * @brief Get a sale from the hot tier, or fault it in from the cold tier.
+     *
+     * @return The sale with its listing, or null if there is no sale with that id.
+     */
+    private HotSale load(int id) {
+        Segment segment = this.segmentOf(id);
+        synchronized (segment) {
+            HotSale hot = segment.get(id);
+            if (hot != null) {
+                this.hits.increment();
+                return hot;
+            }
+            this.misses.increment();
+            MappedSaleStore.SaleView view = this.cold.view();
+            if (!view.moveTo(id))
+                return null;
+            Sale sale = view.toSale();
+            hot = new HotSale(sale, new Sale(view.getOwnerName(), sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), id)); // the listing shares the strings of the sale
+            segment.put(id, hot);
+            return hot;
+        }
+    }
+
+    @Override
+    public Sale get(int id) {
+        HotSale hot = this.load(id);
+        return hot == null ? null : hot.sale;
+    }
+
+    @Override
+    public Sale getListing(int id) {
+        HotSale hot = this.load(id);
+        return hot == null ? null : hot.listing;
+    }
+
+    /**
+     * @details A written sale is recent, so it enters the hot tier.
+     */
+    @Override
+    public void put(Sale sale, String ownerName) throws IOException {
+        this.cold.put(sale, ownerName);
+        Sale listing = new Sale(ownerName, sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), sale.getId());
+        Segment segment = this.segmentOf(sale.getId());
+        synchronized (segment) {
+            segment.put(sale.getId(), new HotSale(sale, listing));
+        }
+    }
+
+    /**
+     * @details The sales added at once, e.g. imported, are only written to the cold tier: they enter the hot tier when they are read.
+     */
+    @Override
+    public void addAll(Sale[] sales, String[] ownerNames) throws IOException {
+        for (int i = 0; i < sales.length; i++)
+            this.cold.put(sales[i], ownerNames[i]);
+    }
+
+    @Override
+    public boolean remove(int id) {
+        boolean removed = this.cold.remove(id);
+        Segment segment = this.segmentOf(id);
+        synchronized (segment) {
+            segment.remove(id);
+        }
+        return removed;
+    }
+
+    @Override
+    public Sale[] listings(Domain domain) {
+        return this.cold.listings(domain);
+    }
+
+    @Override
+    public SalePage page(Domain domain, Integer after, int limit) {
+        return this.cold.page(domain, after, limit);
+    }
+
+    @Override
+    public Sale[] byPrice(Domain domain, int minPrice, int maxPrice, boolean descending, int limit) {
+        return this.cold.byPrice(domain, minPrice, maxPrice, descending, limit);
+    }
+
+    @Override
+    public Iterable<Sale> sales() {
+        return this.cold.sales();
+    }
+
+    @Override
+    public int size() {
+        return this.cold.size();
+    }
+
+    /**
+     * @brief Get the number of sales currently in the hot tier.
+     */
+    public int hotSize() {
+        int size = 0;
+        for (Segment segment: this.segments)
+            synchronized (segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /**
+     * @brief Get the number of reads served by the hot tier.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @brief Get the number of reads which went to the cold tier.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @brief Get the number of sales evicted from the hot tier.
+     */
+    public long getEvictions() {
+        return this.evictions.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.cold.close();
+    }
+}
@@ -0,0 +1,17 @@
+package server;
+
+import client.IpAddressUDPServer;
+
+/**
+ * @brief This interface stores the address of the UDP server of each connected client, by mail.
+ */
+public interface UDPCoordinateRepository {
+    void put(String mail, IpAddressUDPServer address);
+
+    /**
+     * @return The address, or null if the client hasn't sent it.
+     */
+    IpAddressUDPServer get(String mail);
+
+    boolean contains(String mail);
+}
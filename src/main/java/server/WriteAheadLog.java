@@ -0,0 +1,472 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * @brief This class is an append-only binary log of the writes of the server (clients and sales), replayed on startup to rebuild the memory.
+ *
+ * @details A record is made of its length, the CRC32 of its payload, then the payload: the type of the write followed by its fields.
+ * A string is written as its length in bytes (-1 for null) followed by its UTF-8 bytes.
+ * On startup, the records are replayed until the end of the file or until the first record which is incomplete or whose checksum doesn't match,
+ * i.e. a write interrupted by a crash. The log is truncated after the last valid record, so that new records are appended after it.
+ * The writes are committed in groups (group commit): appending a record only encodes it in a buffer shared by the writers and returns a ticket.
+ * A single committer thread takes the buffer when it holds batchSize records or when its oldest record has waited maxWait, writes it, then forces it to the disk with one fsync.
+ * A writer waits for its ticket to be durable before answering its client, so the throughput is no longer bounded by the number of fsync per second of the disk.
+ * The log is split in numbered segments, stored in a directory: rotating the log starts a new segment, so that the older ones can be deleted once a snapshot covers them.
+ */
+public class WriteAheadLog implements Closeable {
+    private static final byte CLIENT_ADDED = 1;
+    private static final byte SALE_ADDED = 2;
+    private static final byte SALE_UPDATED = 3;
+    private static final byte SALE_DELETED = 4;
+    private static final int HEADER_SIZE = 8; // the length and the checksum of the payload
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d+)\\.log");
+
+    /**
+     * @brief Receive the writes read from the log on startup.
+     */
+    public interface Handler {
+        void clientAdded(Client client) throws IOException;
+        void saleAdded(Sale sale) throws IOException;
+        void saleUpdated(int id, String title, String content, int price) throws IOException;
+        void saleDeleted(int id) throws IOException;
+    }
+
+    private final Path directory;
+    private FileChannel channel; // the current segment, only used by the committer
+    private final int batchSize;
+    private final long maxWaitNanos;
+    private final Thread committer;
+    private final CRC32 crc = new CRC32();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recordsPending = this.lock.newCondition(); // signaled to the committer
+    private final Condition batchDurable = this.lock.newCondition(); // signaled to the threads waiting for their records
+    private ByteBuffer pending = ByteBuffer.allocate(4096); // the records not yet given to the committer
+    private ByteBuffer spare = ByteBuffer.allocate(4096); // the buffer which replaces the pending one when the committer takes it
+    private int recordStart;
+    private int pendingRecords;
+    private long batchStart; // when the first pending record was appended
+    private long appendedPosition; // the end of the last appended record
+    private long durablePosition; // the end of the last record forced to the disk
+    private long generation; // the number of the segment to which the appended records go
+    private FileChannel rotation; // the segment which replaces the current one once the pending records are committed
+    private long rotations; // the number of rotations done by the committer
+    private IOException failure;
+    private boolean closed;
+
+    private WriteAheadLog(Path directory, FileChannel channel, long generation, long end, int batchSize, long maxWaitMicros) {
+        this.directory = directory;
+        this.channel = channel;
+        this.generation = generation;
+        this.batchSize = batchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.appendedPosition = end;
+        this.durablePosition = end;
+        this.committer = new Thread(this::commitBatches, "write-ahead-log-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * @brief Open the log, creating its directory if needed, and replay its segments from the given one.
+     *
+     * @details The segments before firstGeneration are deleted: they are covered by a snapshot. The records are appended to the last segment.
+     * Only the last segment can end with a record interrupted by a crash, since a segment is complete when the next one is started.
+     * @param firstGeneration The first segment to replay, i.e. the first one which is not covered by a snapshot.
+     * @param handler Receives the records, in the order they were appended.
+     * @param batchSize The number of records after which a batch is committed without waiting.
+     * @param maxWaitMicros How long the first record of a batch waits for other records before the batch is committed.
+     */
+    public static WriteAheadLog open(Path directory, long firstGeneration, Handler handler, int batchSize, long maxWaitMicros) throws IOException {
+        if (batchSize < 1 || maxWaitMicros < 0)
+            throw new IllegalArgumentException("The batch size must be positive and the wait can't be negative");
+        Files.createDirectories(directory);
+        deleteSegmentsBefore(directory, firstGeneration);
+        List<Long> generations = segments(directory);
+        long last = generations.isEmpty() ? firstGeneration : generations.get(generations.size() - 1);
+        for (long generation: generations.subList(0, Math.max(0, generations.size() - 1)))
+            try (FileChannel segment = FileChannel.open(segment(directory, generation), StandardOpenOption.READ)) {
+                replay(segment, handler);
+            }
+        FileChannel channel = FileChannel.open(segment(directory, last), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long end;
+        try {
+            end = replay(channel, handler);
+            channel.truncate(end);
+            channel.position(end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new WriteAheadLog(directory, channel, last, end, batchSize, maxWaitMicros);
+    }
+
+    private static Path segment(Path directory, long generation) {
+        return directory.resolve("wal-" + generation + ".log");
+    }
+
+    /**
+     * @return The numbers of the segments of the log, sorted.
+     */
+    private static List<Long> segments(Path directory) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file: files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches())
+                    generations.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static void deleteSegmentsBefore(Path directory, long generation) throws IOException {
+        for (long g: segments(directory))
+            if (g < generation)
+                Files.delete(segment(directory, g));
+    }
+
+    /**
+     * @brief Delete the segments before the given one, once a snapshot covers them.
+     */
+    public void deleteSegmentsBefore(long generation) throws IOException {
+        deleteSegmentsBefore(this.directory, generation);
+    }
+
+    /**
+     * @brief Start a new segment: the records appended from now on go to it. Must not be called concurrently.
+     *
+     * @details The method returns once the records appended before are durable in the previous segment.
+     * @return The number of the new segment.
+     */
+    public long rotate() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.failure != null)
+                throw new IOException("The write-ahead log is unavailable", this.failure);
+            if (this.closed)
+                throw new IOException("The write-ahead log is closed");
+            long next = this.generation + 1;
+            this.rotation = FileChannel.open(segment(this.directory, next), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.generation = next;
+            long rotationsBefore = this.rotations;
+            this.recordsPending.signal();
+            while (this.rotations == rotationsBefore && this.failure == null)
+                this.batchDurable.awaitUninterruptibly();
+            if (this.rotations == rotationsBefore)
+                throw new IOException("The write-ahead log is unavailable", this.failure);
+            return next;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The position after the last valid record.
+     */
+    private static long replay(FileChannel channel, Handler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)); // not closed, it would close the channel
+        CRC32 crc = new CRC32();
+        long end = 0;
+        while (true) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE)
+                    break;
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum)
+                break;
+            apply(ByteBuffer.wrap(payload), handler);
+            end += HEADER_SIZE + payload.length;
+        }
+        return end;
+    }
+
+    private static void apply(ByteBuffer payload, Handler handler) throws IOException {
+        byte type = payload.get();
+        switch (type) {
+            case CLIENT_ADDED -> handler.clientAdded(new Client(getString(payload), getString(payload), getString(payload), getString(payload)));
+            case SALE_ADDED -> {
+                int id = payload.getInt();
+                String owner = getString(payload);
+                Domain domain = Domain.valueOf(getString(payload));
+                String title = getString(payload);
+                String content = getString(payload);
+                handler.saleAdded(new Sale(owner, domain, title, content, payload.getInt(), id));
+            }
+            case SALE_UPDATED -> {
+                int id = payload.getInt();
+                String title = getString(payload);
+                String content = getString(payload);
+                handler.saleUpdated(id, title, content, payload.getInt());
+            }
+            case SALE_DELETED -> handler.saleDeleted(payload.getInt());
+            default -> throw new IllegalStateException("Unknown record type " + type + " in the write-ahead log");
+        }
+    }
+
+    private static String getString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0)
+            return null;
+        String s = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return s;
+    }
+
+    /**
+     * @return The ticket of the record, to wait for it to be durable.
+     */
+    public long appendClientAdded(Client client) throws IOException {
+        this.lock.lock();
+        try {
+            this.begin(CLIENT_ADDED);
+            this.putString(client.getMail());
+            this.putString(client.getName());
+            this.putString(client.getPwd());
+            this.putString(client.getSalt());
+            return this.end();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long appendSaleAdded(Sale sale) throws IOException {
+        this.lock.lock();
+        try {
+            this.begin(SALE_ADDED);
+            this.putInt(sale.getId());
+            this.putString(sale.getOwner());
+            this.putString(sale.getDomain().name());
+            this.putString(sale.getTitle());
+            this.putString(sale.getContent());
+            this.putInt(sale.getPrice());
+            return this.end();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long appendSaleUpdated(Sale sale) throws IOException {
+        this.lock.lock();
+        try {
+            this.begin(SALE_UPDATED);
+            this.putInt(sale.getId());
+            this.putString(sale.getTitle());
+            this.putString(sale.getContent());
+            this.putInt(sale.getPrice());
+            return this.end();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long appendSaleDeleted(int id) throws IOException {
+        this.lock.lock();
+        try {
+            this.begin(SALE_DELETED);
+            this.putInt(id);
+            return this.end();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @brief Wait until a record has been written and forced to the disk by the committer.
+     *
+     * @param ticket The ticket returned when the record was appended.
+     * @throws IOException If the batch of the record could not be written.
+     */
+    public void awaitDurable(long ticket) throws IOException {
+        this.lock.lock();
+        try {
+            while (this.durablePosition < ticket && this.failure == null)
+                this.batchDurable.awaitUninterruptibly();
+            if (this.durablePosition < ticket)
+                throw new IOException("The write-ahead log is unavailable", this.failure);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void begin(byte type) throws IOException {
+        if (this.failure != null)
+            throw new IOException("The write-ahead log is unavailable", this.failure);
+        if (this.closed)
+            throw new IOException("The write-ahead log is closed");
+        this.recordStart = this.pending.position();
+        this.ensureRemaining(HEADER_SIZE + 1);
+        this.pending.position(this.recordStart + HEADER_SIZE);
+        this.pending.put(type);
+    }
+
+    private void ensureRemaining(int size) {
+        if (this.pending.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + size));
+            this.pending.flip();
+            larger.put(this.pending);
+            this.pending = larger;
+        }
+    }
+
+    private void putInt(int value) {
+        this.ensureRemaining(Integer.BYTES);
+        this.pending.putInt(value);
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            this.putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        this.ensureRemaining(Integer.BYTES + bytes.length);
+        this.pending.putInt(bytes.length);
+        this.pending.put(bytes);
+    }
+
+    /**
+     * @brief Fill the header of the record being built, and wake up the committer if the record starts a batch or fills it.
+     *
+     * @return The position of the end of the record in the log.
+     */
+    private long end() {
+        int length = this.pending.position() - this.recordStart - HEADER_SIZE;
+        this.crc.reset();
+        this.crc.update(this.pending.array(), this.recordStart + HEADER_SIZE, length);
+        this.pending.putInt(this.recordStart, length);
+        this.pending.putInt(this.recordStart + Integer.BYTES, (int) this.crc.getValue());
+        this.appendedPosition += HEADER_SIZE + length;
+        if (++this.pendingRecords == 1) {
+            this.batchStart = System.nanoTime();
+            this.recordsPending.signal();
+        } else if (this.pendingRecords == this.batchSize)
+            this.recordsPending.signal();
+        return this.appendedPosition;
+    }
+
+    /**
+     * @brief The loop of the committer: wait for a batch to be full or for its oldest record to wait maxWait, then write it and force it to the disk.
+     *
+     * @details While a batch is written, the next one is filled in the other buffer, so appending never waits for the disk.
+     */
+    private void commitBatches() {
+        while (true) {
+            ByteBuffer batch;
+            long batchEnd;
+            FileChannel next;
+            this.lock.lock();
+            try {
+                while (this.pendingRecords == 0 && this.rotation == null && !this.closed)
+                    this.recordsPending.awaitUninterruptibly();
+                if (this.pendingRecords == 0 && this.rotation == null)
+                    return; // closed and everything is durable
+                long remaining;
+                while (this.pendingRecords < this.batchSize && this.rotation == null && !this.closed && (remaining = this.batchStart + this.maxWaitNanos - System.nanoTime()) > 0)
+                    this.recordsPending.awaitNanos(remaining);
+                batch = this.pending;
+                batchEnd = this.appendedPosition;
+                next = this.rotation;
+                this.rotation = null;
+                this.pending = this.spare;
+                this.pendingRecords = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+            IOException failure = null;
+            batch.flip();
+            try {
+                if (batch.hasRemaining()) {
+                    while (batch.hasRemaining())
+                        this.channel.write(batch);
+                    this.channel.force(false);
+                }
+                if (next != null) {
+                    FileChannel previous = this.channel;
+                    this.channel = next;
+                    previous.close();
+                }
+            } catch (IOException e) {
+                failure = e;
+                if (next != null && next != this.channel)
+                    try {
+                        next.close();
+                    } catch (IOException ignored) {
+                        // the log is unavailable anyway
+                    }
+            }
+            batch.clear();
+            this.lock.lock();
+            try {
+                this.spare = batch;
+                if (failure == null) {
+                    this.durablePosition = batchEnd;
+                    if (next != null)
+                        this.rotations++;
+                } else
+                    this.failure = failure; // the records of the batch, and the following ones, are refused
+                this.batchDurable.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+            if (failure != null)
+                return;
+        }
+    }
+
+    /**
+     * @brief Commit the pending records, then close the log.
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.recordsPending.signal();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.channel.close();
+    }
+}
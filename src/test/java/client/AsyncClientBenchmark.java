@@ -0,0 +1,88 @@
+package client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import server.ConnectionEngine;
+import server.ConnectionSettings;
+import server.Domain;
+import server.Server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the sales created, or the lists of domains read, per second by a batch over one session of the asynchronous client, with more or fewer requests in flight.
+ *
+ * @details With one request in flight, each creation waits for the previous one to be answered, as with the client waiting for each callback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncClientBenchmark {
+    private static final int BATCH = 1000;
+
+    @Param({"THREAD_PER_CLIENT", "SELECTOR"})
+    private ConnectionEngine engine;
+
+    @Param({"1", "16", "64"})
+    private int maxInFlightRequests;
+
+    private Server server;
+    private AsyncClient client;
+
+    @Setup(Level.Trial)
+    public void connect() throws Exception {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(true, false, null, null, new ConnectionSettings(this.engine));
+        new Thread(this.server).start();
+        this.client = new AsyncClient("127.0.0.1", this.server.getPort(), this.maxInFlightRequests);
+        this.client.connect();
+        this.client.signUp("alice@gmail.com", "Alice", "pwd");
+        if (this.client.signIn("alice@gmail.com", "pwd").get().getCommand() != ProtocolCommand.SIGN_IN_OK)
+            throw new IllegalStateException("The session hasn't been opened");
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws Exception {
+        this.client.close();
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Request createSales() throws Exception {
+        CompletableFuture<?>[] sales = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            sales[i] = this.client.createSale(Domain.CAR, "Car " + i, "A car", i);
+        CompletableFuture.allOf(sales).get();
+        return (Request) sales[BATCH - 1].get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Request domainLists() throws Exception {
+        CompletableFuture<?>[] lists = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++)
+            lists[i] = this.client.domainList();
+        CompletableFuture.allOf(lists).get();
+        return (Request) lists[BATCH - 1].get();
+    }
+}
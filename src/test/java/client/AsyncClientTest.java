@@ -0,0 +1,138 @@
+package client;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Test;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import server.ConnectionEngine;
+import server.ConnectionSettings;
+import server.Domain;
+import server.Sale;
+import server.Server;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncClientTest {
+    private static final int MAX_IN_FLIGHT_REQUESTS = 8;
+
+    private Server server;
+    private AsyncClient client;
+
+    private void start(boolean isResponding) throws Exception {
+        this.server = new Server(isResponding, false, null, null, new ConnectionSettings(ConnectionEngine.SELECTOR, 2, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+        new Thread(this.server).start();
+        this.client = new AsyncClient("127.0.0.1", this.server.getPort(), MAX_IN_FLIGHT_REQUESTS);
+    }
+
+    @After
+    public void stop() throws Exception {
+        if (this.client != null) // not started by the tests of the frames
+            this.client.close();
+        if (this.server != null)
+            this.server.stopProcess();
+    }
+
+    /**
+     * Test that a batch of operations sent at once over one session is answered, each future with the response to its own request, with no more requests in flight than allowed.
+     */
+    @Test
+    public void batchOverOneSession() throws Exception {
+        this.start(true);
+        CompletableFuture<Request> connected = this.client.connect();
+        CompletableFuture<Request> signUp = this.client.signUp("alice@gmail.com", "Alice", "pwd"); // sent once the key agreement is done
+        CompletableFuture<Request> signIn = this.client.signIn("alice@gmail.com", "pwd");
+        List<CompletableFuture<Request>> sales = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            sales.add(this.client.createSale(Domain.CAR, "Car " + i, "A car", i));
+            assertTrue(this.client.getInFlightRequests() <= MAX_IN_FLIGHT_REQUESTS);
+        }
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK, connected.get(10, TimeUnit.SECONDS).getCommand());
+        assertEquals(ProtocolCommand.SIGN_UP_OK, signUp.get(10, TimeUnit.SECONDS).getCommand());
+        assertEquals(ProtocolCommand.SIGN_IN_OK, signIn.get(10, TimeUnit.SECONDS).getCommand());
+        for (int i = 0; i < sales.size(); i++) {
+            Request response = sales.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(ProtocolCommand.CREATE_SALE_OK, response.getCommand());
+            assertEquals("Car " + i, response.getParams().get("Title"));
+        }
+        Request mySales = this.client.mySales().get(10, TimeUnit.SECONDS);
+        assertEquals(500, ((Sale[]) mySales.getParams().get("Sales")).length);
+        assertEquals(0, this.client.getInFlightRequests());
+    }
+
+    /**
+     * Test that the requests waiting for a key agreement refused by the server fail, as the requests sent once the connection is closed.
+     */
+    @Test
+    public void refusedKeyAgreementFailsRequests() throws Exception {
+        this.start(false);
+        CompletableFuture<Request> connected = this.client.connect();
+        CompletableFuture<Request> domains = this.client.domainList();
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, connected.get(10, TimeUnit.SECONDS).getCommand());
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> domains.get(10, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof IOException);
+        assertThrows(ExecutionException.class, () -> this.client.mySales().get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test that a sale created before signing in is refused, and isn't stored.
+     */
+    @Test
+    public void createSaleWithoutSessionRefused() throws Exception {
+        this.start(true);
+        this.client.connect();
+        Request response = this.client.createSale(Domain.CAR, "Car", "A car", 500).get(10, TimeUnit.SECONDS);
+        assertEquals(ProtocolCommand.CREATE_SALE_KO, response.getCommand());
+        assertEquals(0, this.server.getSalesOfDomain(Domain.CAR).length);
+    }
+
+    /**
+     * Test that the requests reach the server in the order of the calls, those made before the key agreement is done as those made while the waiting ones are sent: the sales are created in order.
+     */
+    @Test
+    public void requestsSentInOrderOfCalls() throws Exception {
+        this.start(true);
+        CompletableFuture<Request> connected = this.client.connect();
+        this.client.signUp("alice@gmail.com", "Alice", "pwd");
+        this.client.signIn("alice@gmail.com", "pwd");
+        List<CompletableFuture<Request>> sales = new ArrayList<>();
+        for (int i = 0; i < 100; i++) // wait for the key agreement
+            sales.add(this.client.createSale(Domain.CAR, "Car " + sales.size(), "A car", sales.size()));
+        connected.get(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) // sent while the waiting requests are sent as the responses arrive
+            sales.add(this.client.createSale(Domain.CAR, "Car " + sales.size(), "A car", sales.size()));
+        CompletableFuture.allOf(sales.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        Sale[] mySales = (Sale[]) this.client.mySales().get(10, TimeUnit.SECONDS).getParams().get("Sales"); // sorted by id, that is in the order of creation
+        assertEquals(sales.size(), mySales.length);
+        for (int i = 0; i < mySales.length; i++)
+            assertEquals("Car " + i, mySales[i].getTitle());
+    }
+
+    /**
+     * Test that a frame is told apart as in clear or encrypted from the bytes after its initialization vector, even if the random initialization vector reads like JSON.
+     */
+    @Test
+    public void clearFramesToldApartFromEncryptedOnes() throws Exception {
+        String json = new Gson().toJson(new Request(ProtocolCommand.SERVER_BUSY, "The server is busy"));
+        assertTrue(AsyncClient.isInClear(json.getBytes()));
+        byte[] initializationVector = "{\"command\":\"".getBytes();
+        assertEquals(12, initializationVector.length);
+        byte[] encrypted = ClientCrypto.encrypt(json, new SecretKeySpec(new byte[32], "AES"), initializationVector).getBytes();
+        byte[] frame = new byte[initializationVector.length + encrypted.length];
+        System.arraycopy(initializationVector, 0, frame, 0, initializationVector.length);
+        System.arraycopy(encrypted, 0, frame, initializationVector.length, encrypted.length);
+        assertTrue(new String(frame).contains("command"));
+        assertFalse(AsyncClient.isInClear(frame));
+    }
+}
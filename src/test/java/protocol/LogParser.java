@@ -74,12 +74,17 @@ public class LogParser {
             case DOMAINS_LIST_OK -> Arrays.equals((Domain[]) expectedParameters.get("Domains"), (Domain[]) actualParameters.get("Domains"));
             case SALES_FROM_DOMAIN -> expectedParameters.get("Domain").equals(actualParameters.get("Domain"));
             case SALES_FROM_DOMAIN_OK -> Arrays.equals((Sale[]) expectedParameters.get("AnnoncesFromDomain"), (Sale[]) actualParameters.get("AnnoncesFromDomain"));
+            case SALES_BY_PRICE -> expectedParameters.equals(actualParameters);
+            case SALES_BY_PRICE_OK -> Arrays.equals((Sale[]) expectedParameters.get("Sales"), (Sale[]) actualParameters.get("Sales"));
+            case SEARCH_SALES -> expectedParameters.equals(actualParameters);
+            case SEARCH_SALES_OK -> Arrays.equals((Sale[]) expectedParameters.get("Sales"), (Sale[]) actualParameters.get("Sales"));
+            case MY_SALES_OK -> Arrays.equals((Sale[]) expectedParameters.get("Sales"), (Sale[]) actualParameters.get("Sales"));
             case CREATE_SALE -> expectedParameters.get("Title").equals(actualParameters.get("Title")) && expectedParameters.get("Descriptif").equals(actualParameters.get("Descriptif")) && expectedParameters.get("Domain").equals(actualParameters.get("Domain")) && expectedParameters.get("Price").equals(actualParameters.get("Price"));
             case CREATE_SALE_OK -> expectedParameters.get("Title").equals(actualParameters.get("Title"));
             case UPDATE_SALE -> (int) expectedParameters.get("Price") == (int) actualParameters.get("Price") && (int) expectedParameters.get("Id") == (int) actualParameters.get("Id") && expectedParameters.get("Title").equals(actualParameters.get("Title")) && expectedParameters.get("Descriptif").equals(actualParameters.get("Descriptif"));
             case DELETE_SALE -> (int) expectedParameters.get("Id") == (int) actualParameters.get("Id");
-            case SIGN_OUT, DOMAINS_LIST, SIGN_OUT_OK, UPDATE_SALE_OK, DELETE_SALE_OK, UDP_SERVER_OK -> true;
-            case REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, SIGN_UP_KO, SIGN_IN_KO, CREATE_SALE_KO, SIGN_OUT_KO, DELETE_SALE_KO, SALES_FROM_DOMAIN_KO, UPDATE_SALE_KO, DOMAINS_LIST_KO, UDP_SERVER_KO -> expectedParameters.get("Error").equals(actualParameters.get("Error"));
+            case SIGN_OUT, DOMAINS_LIST, MY_SALES, SIGN_OUT_OK, UPDATE_SALE_OK, DELETE_SALE_OK, UDP_SERVER_OK -> true;
+            case REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, SIGN_UP_KO, SIGN_IN_KO, CREATE_SALE_KO, SIGN_OUT_KO, DELETE_SALE_KO, SALES_FROM_DOMAIN_KO, UPDATE_SALE_KO, DOMAINS_LIST_KO, UDP_SERVER_KO, SALES_BY_PRICE_KO, SEARCH_SALES_KO, MY_SALES_KO, SERVER_BUSY -> expectedParameters.get("Error").equals(actualParameters.get("Error"));
             default -> throw new UnsupportedOperationException("Unimplemented case: " + requestCommand);
         };
     }
@@ -0,0 +1,126 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import logger.ErrorLogMessage;
+import org.junit.After;
+import org.junit.Test;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import protocol.RequestDeserializer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AdmissionControlTest {
+    private Server server;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @After
+    public void stopServer() throws IOException {
+        for (Socket socket: this.sockets)
+            socket.close();
+        this.server.stopProcess();
+    }
+
+    private void startServer(boolean isResponding, ConnectionSettings settings) throws Exception {
+        this.server = new Server(isResponding, false, null, null, settings);
+        new Thread(this.server).start();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", this.server.getPort());
+        socket.setSoTimeout(10_000);
+        this.sockets.add(socket);
+        return socket;
+    }
+
+    private static byte[] publicKeyRequest() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, generator.generateKeyPair().getPublic().getEncoded())).getBytes();
+        return ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array();
+    }
+
+    private static Request receive(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] json = in.readNBytes(in.readInt());
+        return new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create().fromJson(new String(json), Request.class);
+    }
+
+    /**
+     * Test that a client connecting beyond the maximum number of connections is answered that the server is busy and disconnected, and that a client leaving makes room for another one.
+     */
+    @Test
+    public void connectionsBeyondLimitRejected() throws Exception {
+        this.startServer(false, new ConnectionSettings(ConnectionEngine.THREAD_PER_CLIENT, 1, 2, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+        byte[] request = publicKeyRequest();
+        Socket first = this.connect();
+        Socket second = this.connect();
+        for (Socket socket: List.of(first, second)) { // both are served
+            socket.getOutputStream().write(request);
+            assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, receive(socket).getCommand());
+        }
+
+        Socket rejected = this.connect();
+        Request response = receive(rejected);
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, response.getCommand());
+        assertEquals(ErrorLogMessage.SERVER_BUSY.getContent(), response.getParams().get("Error"));
+        assertEquals(-1, rejected.getInputStream().read());
+        assertEquals(1, this.server.getRejectedConnections());
+
+        first.close();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (this.server.getConnectedClients() > 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, this.server.getConnectedClients());
+        Socket third = this.connect();
+        third.getOutputStream().write(request);
+        assertEquals(ErrorLogMessage.NOT_RESPONDING_TO_REQUEST.getContent(), receive(third).getParams().get("Error"));
+    }
+
+    /**
+     * Test that the requests received beyond the maximum number of requests in flight are answered that the server is busy, without being processed, and in order.
+     */
+    @Test
+    public void requestsBeyondLimitAnsweredBusy() throws Exception {
+        this.startServer(true, new ConnectionSettings(ConnectionEngine.SELECTOR, 1, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, 1, 0));
+        byte[] request = publicKeyRequest();
+        Socket socket = this.connect();
+        socket.getOutputStream().write(ByteBuffer.allocate(3 * request.length).put(request).put(request).put(request).array()); // received at once, before the first one is answered
+        Request response = receive(socket);
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK, response.getCommand());
+        assertArrayEquals(this.server.getPk().getEncoded(), (byte[]) response.getParams().get("PublicKey"));
+        for (int i = 0; i < 2; i++) {
+            response = receive(socket);
+            assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, response.getCommand());
+            assertEquals(ErrorLogMessage.SERVER_BUSY.getContent(), response.getParams().get("Error"));
+        }
+        assertEquals(2, this.server.getBusyRequests());
+    }
+
+    /**
+     * Test that a request without failure of its own received beyond the maximum number of requests in flight is answered SERVER_BUSY, in clear.
+     */
+    @Test
+    public void requestWithoutFailureAnsweredBusy() throws Exception {
+        this.startServer(true, new ConnectionSettings(ConnectionEngine.SELECTOR, 1, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, 1, 0));
+        byte[] request = publicKeyRequest();
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK, new byte[0])).getBytes(); // a response, which the server doesn't serve
+        Socket socket = this.connect();
+        socket.getOutputStream().write(ByteBuffer.allocate(request.length + Integer.BYTES + json.length).put(request).putInt(json.length).put(json).array());
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK, receive(socket).getCommand());
+        Request response = receive(socket);
+        assertEquals(ProtocolCommand.SERVER_BUSY, response.getCommand());
+        assertEquals(ErrorLogMessage.SERVER_BUSY.getContent(), response.getParams().get("Error"));
+        assertEquals(1, this.server.getBusyRequests());
+    }
+}
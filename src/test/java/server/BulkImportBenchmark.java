@@ -0,0 +1,92 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the time to import a file of sales into an empty server, and to export them, with each storage engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class BulkImportBenchmark {
+    @Param({"1000000"})
+    private int sales;
+
+    @Param({"IN_MEMORY", "FILE"})
+    private StorageEngine engine;
+
+    private Path directory;
+    private Path file;
+    private Path exported;
+    private Server server;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.directory = Files.createTempDirectory("server");
+        this.file = this.directory.resolve("sales.ndjson");
+        this.exported = this.directory.resolve("exported.ndjson");
+        try (BufferedWriter out = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < this.sales; i++) {
+                out.write("{\"owner\":\"client" + i % 100 + "@gmail.com\",\"domain\":\"" + Domain.values()[i % 2] + "\",\"title\":\"Sale " + i
+                        + "\",\"content\":\"A big house with a garden, close to the city center and to the schools\",\"price\":" + i + "}");
+                out.newLine();
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void startServer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        this.server = new Server(true, false, null, new StorageSettings(this.engine, this.directory));
+        for (int i = 0; i < 100; i++)
+            this.server.addClient(new Client("client" + i + "@gmail.com", "Client " + i, "pwd", "salt"));
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopServer() throws IOException {
+        this.server.stopProcess();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.delete(this.file);
+        Files.deleteIfExists(this.exported);
+        Files.delete(this.directory);
+    }
+
+    @Benchmark
+    public SaleBulkLoader.Report importSales() throws IOException {
+        return SaleBulkLoader.importSales(this.server, this.file);
+    }
+
+    @Benchmark
+    public long importThenExportSales() throws IOException {
+        SaleBulkLoader.importSales(this.server, this.file);
+        return SaleBulkLoader.exportSales(this.server, this.exported);
+    }
+}
@@ -0,0 +1,65 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Measure a writer appending changes to the feed while a subscription tails it in another thread, by batches of various sizes.
+ *
+ * @details The writer waits for the subscription when the ring is full, so the throughput of the appends is the throughput of the whole feed.
+ * The consumer is a plain thread rather than a benchmark thread, so that the writer never waits for a consumer stopped at the end of an iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChangeFeedBenchmark {
+    @Param({"1", "64", "1024"})
+    private int batchSize;
+
+    private SaleChangeFeed feed;
+    private Thread consumer;
+    private final Sale sale = new Sale("alice@gmail.com", Domain.HOUSE, "Sale", "Content", 100, 0);
+
+    @Setup(Level.Iteration)
+    public void startConsumer() {
+        this.feed = new SaleChangeFeed();
+        SaleChangeFeed.Subscription subscription = this.feed.subscribe(0);
+        this.consumer = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted())
+                    subscription.poll(this.batchSize, 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        });
+        this.consumer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopConsumer() throws InterruptedException {
+        this.consumer.interrupt();
+        this.consumer.join();
+        this.feed.close();
+    }
+
+    @Benchmark
+    public long append() {
+        return this.feed.append(SaleChange.Type.UPDATED, this.sale);
+    }
+}
@@ -0,0 +1,106 @@
+package server;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCommand;
+import protocol.Request;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the round trip of a request while many idle clients are connected, and print the threads and the memory they cost, with each connection engine.
+ *
+ * @details The request is the request of the public key to a server which doesn't respond: it is answered at once, without cryptography.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionEngineBenchmark {
+    @Param({"THREAD_PER_CLIENT", "SELECTOR"})
+    private ConnectionEngine engine;
+
+    @Param({"0", "5000"})
+    private int idleClients;
+
+    private Server server;
+    private final List<SocketChannel> idle = new ArrayList<>();
+    private Socket active;
+    private OutputStream out;
+    private DataInputStream in;
+    private byte[] request;
+
+    @Setup(Level.Trial)
+    public void connect() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException, InterruptedException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(false, false, null, null, new ConnectionSettings(this.engine));
+        new Thread(this.server).start();
+        long heap = usedHeap();
+        long rss = rss();
+        int threads = Thread.activeCount();
+        for (int i = 0; i < this.idleClients; i++)
+            this.idle.add(SocketChannel.open(new InetSocketAddress("127.0.0.1", this.server.getPort())));
+        this.active = new Socket("127.0.0.1", this.server.getPort());
+        this.out = this.active.getOutputStream();
+        this.in = new DataInputStream(this.active.getInputStream());
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, new byte[91])).getBytes();
+        this.request = ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array();
+        this.roundTrip(); // every client before has been accepted
+        System.out.println(this.idleClients + " idle clients: " + (Thread.activeCount() - threads) + " threads, " + (usedHeap() - heap) / 1024 + " KiB of heap, " + (rss() - rss) / 1024 + " KiB of resident memory");
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    private static long rss() throws IOException {
+        for (String line: Files.readAllLines(Paths.get("/proc/self/status")))
+            if (line.startsWith("VmRSS:"))
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+        return 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException {
+        this.active.close();
+        for (SocketChannel channel: this.idle)
+            channel.close();
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    public int roundTrip() throws IOException {
+        this.out.write(this.request);
+        return this.in.readNBytes(this.in.readInt()).length;
+    }
+}
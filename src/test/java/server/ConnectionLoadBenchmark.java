@@ -0,0 +1,138 @@
+package server;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCommand;
+import protocol.Request;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Load the server with many concurrent clients, each sending a request at once, with each connection engine. Run it with Java 21 for the virtual threads.
+ *
+ * @details The server runs in its own process, started by the benchmark, so that the clients and the server each have their own limit of open files,
+ * and the threads and the resident memory of the server are read from the system and printed once the clients are connected.
+ * The request is the request of the public key to a server which doesn't respond: it is answered at once, without cryptography, so that the engines are compared rather than the cryptography.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ConnectionLoadBenchmark {
+    @Param({"THREAD_PER_CLIENT", "VIRTUAL_THREAD_PER_CLIENT", "SELECTOR"})
+    private ConnectionEngine engine;
+
+    @Param({"10000"})
+    private int clients;
+
+    private Process server;
+    private SocketChannel[] channels;
+    private byte[] request;
+    private final ByteBuffer response = ByteBuffer.allocate(1 << 12);
+
+    @Setup(Level.Trial)
+    public void connect() throws IOException {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        this.server = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ConnectionLoadBenchmark.class.getName(), this.engine.name())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String ready = new BufferedReader(new InputStreamReader(this.server.getInputStream())).readLine();
+        if (!"ready".equals(ready))
+            throw new IOException("The server hasn't started with the " + this.engine + " engine");
+        long[] before = status(this.server.pid());
+        long start = System.nanoTime();
+        this.channels = new SocketChannel[this.clients];
+        for (int i = 0; i < this.clients; i++)
+            this.channels[i] = SocketChannel.open(new InetSocketAddress("127.0.0.1", ConnectionSettings.DEFAULT_PORT));
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, new byte[91])).getBytes();
+        this.request = ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array();
+        this.burst(); // every client has been accepted and served once
+        long[] after = status(this.server.pid());
+        System.out.println(this.clients + " clients connected in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms: "
+                + (after[0] - before[0]) + " threads, " + (after[1] - before[1]) / 1024 + " MiB of resident memory");
+    }
+
+    /**
+     * @return The number of threads and the resident memory in KiB of a process.
+     */
+    private static long[] status(long pid) throws IOException {
+        long[] status = new long[2];
+        for (String line: Files.readAllLines(Paths.get("/proc/" + pid + "/status"))) {
+            if (line.startsWith("Threads:"))
+                status[0] = Long.parseLong(line.replaceAll("[^0-9]", ""));
+            else if (line.startsWith("VmRSS:"))
+                status[1] = Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+        return status;
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() throws IOException, InterruptedException {
+        if (this.channels != null)
+            for (SocketChannel channel: this.channels)
+                if (channel != null)
+                    channel.close();
+        this.server.destroy();
+        this.server.waitFor();
+    }
+
+    /**
+     * @brief Send a request on every connection, then read every response.
+     */
+    @Benchmark
+    public long burst() throws IOException {
+        for (SocketChannel channel: this.channels) {
+            ByteBuffer request = ByteBuffer.wrap(this.request);
+            while (request.hasRemaining())
+                channel.write(request);
+        }
+        long bytes = 0;
+        for (SocketChannel channel: this.channels) {
+            this.readFully(channel, Integer.BYTES);
+            int length = this.response.getInt(0);
+            this.readFully(channel, length);
+            bytes += length;
+        }
+        return bytes;
+    }
+
+    private void readFully(SocketChannel channel, int length) throws IOException {
+        this.response.clear().limit(length);
+        while (this.response.hasRemaining())
+            if (channel.read(this.response) < 0)
+                throw new EOFException();
+    }
+
+    /**
+     * @brief Run a server which doesn't respond to the requests with a connection engine, until the process is killed: ConnectionLoadBenchmark &lt;engine&gt;.
+     */
+    public static void main(String[] args) throws Exception {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        Server server = new Server(false, false, null, null, new ConnectionSettings(ConnectionEngine.valueOf(args[0])));
+        new Thread(server).start();
+        System.out.println("ready");
+    }
+}
@@ -0,0 +1,256 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.After;
+import org.junit.Test;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import protocol.RequestDeserializer;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+public class CorrelationIdTest {
+    private Server server;
+    private Socket socket;
+    private SecretKey key;
+
+    @After
+    public void stopServer() throws Exception {
+        if (this.socket != null)
+            this.socket.close();
+        if (this.server != null)
+            this.server.stopProcess();
+    }
+
+    /**
+     * @brief Start a server, connect to it and agree on a key, as the client does.
+     */
+    private void connect(ConnectionEngine engine) throws Exception {
+        this.server = new Server(true, false, null, null, new ConnectionSettings(engine, 2, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+        new Thread(this.server).start();
+        this.socket = new Socket("127.0.0.1", this.server.getPort());
+        this.socket.setSoTimeout(10_000);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keyPair = generator.generateKeyPair();
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, keyPair.getPublic().getEncoded())).getBytes();
+        this.socket.getOutputStream().write(ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array());
+        byte[] serverKey = (byte[]) this.receive().getParams().get("PublicKey");
+
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(keyPair.getPrivate());
+        agreement.doPhase(KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(serverKey)), true);
+        MessageDigest hash = MessageDigest.getInstance("SHA-256");
+        hash.update(agreement.generateSecret());
+        List<ByteBuffer> keys = Arrays.asList(ByteBuffer.wrap(keyPair.getPublic().getEncoded()), ByteBuffer.wrap(serverKey));
+        Collections.sort(keys);
+        hash.update(keys.get(0));
+        hash.update(keys.get(1));
+        PBEKeySpec spec = new PBEKeySpec(HexFormat.of().formatHex(hash.digest()).toCharArray(), "key".getBytes(), 65536, 256);
+        this.key = new SecretKeySpec(SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded(), "AES");
+    }
+
+    /**
+     * @brief Build the encrypted frame of a request: its length, then the initialization vector and the encrypted JSON.
+     */
+    private byte[] encode(Request request, Integer id) throws Exception {
+        request.setId(id);
+        byte[] iv = new byte[12];
+        new SecureRandom().nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(128, iv));
+        cipher.updateAAD("v1".getBytes(UTF_8));
+        byte[] encrypted = Base64.getEncoder().encode(cipher.doFinal(new Gson().toJson(request).getBytes()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(iv.length + encrypted.length);
+        out.write(iv);
+        out.write(encrypted);
+        return bytes.toByteArray();
+    }
+
+    private Request receive() throws Exception {
+        DataInputStream in = new DataInputStream(this.socket.getInputStream());
+        byte[] frame = in.readNBytes(in.readInt());
+        String json = new String(frame);
+        if (!json.contains("command")) {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(128, frame, 0, 12));
+            cipher.updateAAD("v1".getBytes(UTF_8));
+            json = new String(cipher.doFinal(Base64.getDecoder().decode(Arrays.copyOfRange(frame, 12, frame.length))));
+        }
+        return new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create().fromJson(json, Request.class);
+    }
+
+    /**
+     * @brief Send a slow request, a sign up hashing a password, then a fast one, the list of the domains, in a single write.
+     */
+    private List<Request> signUpThenDomainsList(Integer signUpId, Integer domainsListId) throws Exception {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_UP, "alice@gmail.com", "Alice", "pwd"), signUpId));
+        frames.write(this.encode(new Request(ProtocolCommand.DOMAINS_LIST), domainsListId));
+        this.socket.getOutputStream().write(frames.toByteArray());
+        List<Request> responses = new ArrayList<>();
+        responses.add(this.receive());
+        responses.add(this.receive());
+        return responses;
+    }
+
+    /**
+     * @brief Sign up and sign in, in order, without ids.
+     */
+    private void signUpAndIn() throws Exception {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_UP, "alice@gmail.com", "Alice", "pwd"), null));
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_IN, "alice@gmail.com", "pwd", false), null));
+        this.socket.getOutputStream().write(frames.toByteArray());
+        assertEquals(ProtocolCommand.SIGN_UP_OK, this.receive().getCommand());
+        assertEquals(ProtocolCommand.SIGN_IN_OK, this.receive().getCommand());
+    }
+
+    /**
+     * @brief Send a slow read, the sales of a client owning many of them, then a fast one, the list of the domains, in a single write.
+     */
+    private void answeredOutOfOrder(ConnectionEngine engine) throws Exception {
+        this.connect(engine);
+        this.signUpAndIn();
+        List<Sale> sales = new ArrayList<>();
+        for (int id = 0; id < 100_000; id++)
+            sales.add(new Sale("alice@gmail.com", Domain.HOUSE, "House " + id, "A house", id, id));
+        this.server.addSales(sales);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(this.encode(new Request(ProtocolCommand.MY_SALES), 1));
+        frames.write(this.encode(new Request(ProtocolCommand.DOMAINS_LIST), 2));
+        this.socket.getOutputStream().write(frames.toByteArray());
+        Request domainsList = this.receive();
+        assertEquals(ProtocolCommand.DOMAINS_LIST_OK, domainsList.getCommand());
+        assertEquals(Integer.valueOf(2), domainsList.getId());
+        Request mySales = this.receive();
+        assertEquals(ProtocolCommand.MY_SALES_OK, mySales.getCommand());
+        assertEquals(Integer.valueOf(1), mySales.getId());
+    }
+
+    /**
+     * Test that independent reads carrying an id are processed concurrently by the request workers of the threads per client, the fast one being answered first with its id.
+     */
+    @Test
+    public void answeredOutOfOrderByThreads() throws Exception {
+        this.answeredOutOfOrder(ConnectionEngine.THREAD_PER_CLIENT);
+    }
+
+    /**
+     * Test that independent reads carrying an id are processed concurrently by the workers of the selector, the fast one being answered first with its id.
+     */
+    @Test
+    public void answeredOutOfOrderBySelector() throws Exception {
+        this.answeredOutOfOrder(ConnectionEngine.SELECTOR);
+    }
+
+    /**
+     * Test that independent reads carrying an id are processed concurrently by virtual threads, the fast one being answered first with its id.
+     */
+    @Test
+    public void answeredOutOfOrderByVirtualThreads() throws Exception {
+        assumeTrue(ConnectionSettings.hasVirtualThreads());
+        this.answeredOutOfOrder(ConnectionEngine.VIRTUAL_THREAD_PER_CLIENT);
+    }
+
+    /**
+     * Test that requests without an id are answered in order, with responses without an id.
+     */
+    @Test
+    public void answeredInOrderWithoutIds() throws Exception {
+        this.connect(ConnectionEngine.SELECTOR);
+        List<Request> responses = this.signUpThenDomainsList(null, null);
+        assertEquals(ProtocolCommand.SIGN_UP_OK, responses.get(0).getCommand());
+        assertNull(responses.get(0).getId());
+        assertEquals(ProtocolCommand.DOMAINS_LIST_OK, responses.get(1).getCommand());
+        assertNull(responses.get(1).getId());
+    }
+
+    /**
+     * Test that a request changing the session waits for the requests before it: a sign in follows the sign up it depends on.
+     */
+    @Test
+    public void sessionRequestWaitsForIndependentOnes() throws Exception {
+        this.connect(ConnectionEngine.SELECTOR);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_UP, "bob@gmail.com", "Bob", "pwd"), 1));
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_IN, "bob@gmail.com", "pwd", false), 2));
+        this.socket.getOutputStream().write(frames.toByteArray());
+        Request signUp = this.receive();
+        assertEquals(ProtocolCommand.SIGN_UP_OK, signUp.getCommand());
+        assertEquals(Integer.valueOf(1), signUp.getId());
+        Request signIn = this.receive();
+        assertEquals(ProtocolCommand.SIGN_IN_OK, signIn.getCommand());
+        assertEquals(Integer.valueOf(2), signIn.getId());
+    }
+
+    /**
+     * Test that a read carrying an id waits for the write before it, even when both carry an id: the sales of the client include the one just created.
+     */
+    @Test
+    public void readWaitsForPipelinedWrite() throws Exception {
+        this.connect(ConnectionEngine.SELECTOR);
+        this.signUpAndIn();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(this.encode(new Request(ProtocolCommand.CREATE_SALE, Domain.CAR, "Car", "A car", 500), 1));
+        frames.write(this.encode(new Request(ProtocolCommand.MY_SALES), 2));
+        this.socket.getOutputStream().write(frames.toByteArray());
+        Request created = this.receive();
+        assertEquals(ProtocolCommand.CREATE_SALE_OK, created.getCommand());
+        assertEquals(Integer.valueOf(1), created.getId());
+        Request mySales = this.receive();
+        assertEquals(ProtocolCommand.MY_SALES_OK, mySales.getCommand());
+        assertEquals(Integer.valueOf(2), mySales.getId());
+        assertEquals(1, ((Sale[]) mySales.getParams().get("Sales")).length);
+    }
+
+    /**
+     * Test that the list of domains sent with the response to a sign in carries no id, only the response does.
+     */
+    @Test
+    public void domainsListOfSignInWithoutId() throws Exception {
+        this.connect(ConnectionEngine.SELECTOR);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_UP, "bob@gmail.com", "Bob", "pwd"), 1));
+        frames.write(this.encode(new Request(ProtocolCommand.SIGN_IN, "bob@gmail.com", "pwd", true), 2));
+        this.socket.getOutputStream().write(frames.toByteArray());
+        assertEquals(Integer.valueOf(1), this.receive().getId());
+        Request domainsList = this.receive();
+        assertEquals(ProtocolCommand.DOMAINS_LIST_OK, domainsList.getCommand());
+        assertNull(domainsList.getId());
+        Request signIn = this.receive();
+        assertEquals(ProtocolCommand.SIGN_IN_OK, signIn.getCommand());
+        assertEquals(Integer.valueOf(2), signIn.getId());
+    }
+}
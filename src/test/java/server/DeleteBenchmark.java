@@ -0,0 +1,107 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the time to delete half of the listings of a domain, one at a time, in random order: from the listings alone, and end to end from a server, which also updates its indexes.
+ *
+ * @details The time of a delete should not depend on the number of listings. Every sale shares the terms of its content, so that a delete copying the posting lists of its terms would take a time linear in the number of sales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeleteBenchmark {
+    private static final int OWNERS = 1000;
+
+    @Param({"10000", "100000"})
+    private int listings;
+
+    private ExecutorService compactor;
+    private DomainListings domain;
+    private int[] deleted;
+
+    @Setup(Level.Trial)
+    public void startCompactor() {
+        this.compactor = Executors.newSingleThreadExecutor();
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        this.domain = new DomainListings(new AtomicLong(), new ReadVersions(), this.compactor, DomainListings.DEFAULT_GARBAGE_THRESHOLD);
+        Sale[] sales = new Sale[this.listings];
+        for (int id = 0; id < this.listings; id++)
+            sales[id] = new Sale("Alice", Domain.HOUSE, "Sale " + id, "Content", id, id);
+        this.domain.addAll(sales);
+        this.deleted = new int[this.listings / 2];
+        for (int i = 0; i < this.deleted.length; i++)
+            this.deleted[i] = (int) ((i * 2654435761L) % this.listings); // distinct, since the multiplier is odd and coprime with the powers of 2 and 5
+    }
+
+    @TearDown(Level.Trial)
+    public void stopCompactor() {
+        this.compactor.shutdown();
+    }
+
+    /**
+     * @brief A server keeping its sales in memory, filled before each deletion of half of them. The sales are spread over the owners, as they would be.
+     */
+    @State(Scope.Benchmark)
+    public static class Sales {
+        private Server server;
+
+        @Setup(Level.Invocation)
+        public void fill(DeleteBenchmark benchmark) throws Exception {
+            Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+            this.server = new Server(true, false);
+            for (int i = 0; i < OWNERS; i++)
+                this.server.addClient(new Client("owner" + i + "@gmail.com", "Owner " + i, "pwd", "salt"));
+            List<Sale> sales = new ArrayList<>(benchmark.listings);
+            for (int id = 0; id < benchmark.listings; id++)
+                sales.add(new Sale("owner" + (id % OWNERS) + "@gmail.com", Domain.HOUSE, "Sale " + id, "Content", id, id));
+            this.server.addSales(sales);
+        }
+
+        @TearDown(Level.Invocation)
+        public void stop() throws IOException {
+            this.server.stopProcess();
+        }
+    }
+
+    @Benchmark
+    public DomainListings deleteHalf() {
+        for (int id: this.deleted)
+            this.domain.remove(id);
+        return this.domain;
+    }
+
+    @Benchmark
+    public Server deleteHalfFromServer(Sales sales) throws IOException {
+        for (int id: this.deleted)
+            sales.server.deleteSale(id);
+        return sales.server;
+    }
+}
@@ -0,0 +1,233 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DomainListingsTest {
+
+    private static Sale listing(int id) {
+        return new Sale("Alice", Domain.HOUSE, "Title " + id, "Content " + id, id, id);
+    }
+
+    /**
+     * Test that following the cursors visits every listing once, even if listings are deleted and created meanwhile.
+     */
+    @Test
+    public void pagesFollowCursor() {
+        DomainListings listings = new DomainListings();
+        for (int id = 0; id < 95; id += 2)
+            listings.add(listing(id));
+        List<Integer> visited = new ArrayList<>();
+        SalePage page = listings.page(null, 10);
+        for (Sale sale: page.getSales())
+            visited.add(sale.getId());
+        listings.remove(2); // already visited
+        listings.remove(30); // not visited yet
+        listings.add(listing(100));
+        while (page.getNextCursor() != null) {
+            page = listings.page(page.getNextCursor(), 10);
+            for (Sale sale: page.getSales())
+                visited.add(sale.getId());
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int id = 0; id < 95; id += 2)
+            if (id != 30)
+                expected.add(id);
+        expected.add(100);
+        assertEquals(expected, visited);
+    }
+
+    /**
+     * Test the last page and a cursor past the end.
+     */
+    @Test
+    public void lastPage() {
+        DomainListings listings = new DomainListings();
+        for (int id = 0; id < 10; id++)
+            listings.add(listing(id));
+        SalePage page = listings.page(4, 5);
+        assertEquals(5, page.getSales().length);
+        assertNull(page.getNextCursor());
+        page = listings.page(9, 5);
+        assertArrayEquals(new Sale[0], page.getSales());
+        assertNull(page.getNextCursor());
+        assertEquals(Integer.valueOf(4), listings.page(null, 5).getNextCursor());
+    }
+
+    /**
+     * Test range queries on the price index, in both orders, after updates and deletions.
+     */
+    @Test
+    public void byPrice() {
+        DomainListings listings = new DomainListings();
+        for (int id = 0; id < 100; id++)
+            listings.add(new Sale("Alice", Domain.CAR, "Car " + id, "Content", (id % 10) * 1000, id));
+        listings.replace(new Sale("Alice", Domain.CAR, "Car 1", "Content", 9000, 1)); // from 1000 to 9000
+        listings.remove(11); // price 1000
+        Sale[] sales = listings.byPrice(1000, 2000, false, 100);
+        assertEquals(18, sales.length);
+        assertEquals(21, sales[0].getId());
+        for (int i = 1; i < sales.length; i++)
+            assertTrue(sales[i - 1].getPrice() < sales[i].getPrice() || (sales[i - 1].getPrice() == sales[i].getPrice() && sales[i - 1].getId() < sales[i].getId()));
+        sales = listings.byPrice(2000, 9000, true, 3);
+        assertEquals(3, sales.length);
+        assertEquals(99, sales[0].getId());
+        assertEquals(89, sales[1].getId());
+        assertEquals(0, listings.byPrice(9001, 100000, false, 10).length);
+    }
+
+    /**
+     * Test that listings added at once are appended after the current ones, or inserted among them, and indexed by price.
+     */
+    @Test
+    public void addAll() {
+        DomainListings listings = new DomainListings();
+        listings.add(listing(1));
+        listings.addAll(new Sale[] {listing(3), listing(4)});
+        listings.addAll(new Sale[] {listing(0), listing(2)});
+        listings.addAll(new Sale[0]);
+        Sale[] snapshot = listings.snapshot();
+        assertEquals(5, snapshot.length);
+        for (int id = 0; id < 5; id++)
+            assertEquals(id, snapshot[id].getId());
+        assertArrayEquals(new Sale[] {listing(4), listing(3)}, listings.byPrice(3, 10, true, 10));
+    }
+
+    /**
+     * Test that the reads skip the deleted listings until they are compacted, and that a compaction is scheduled once the threshold is crossed.
+     */
+    @Test
+    public void tombstonesCompacted() {
+        List<Runnable> compactions = new ArrayList<>();
+        DomainListings listings = new DomainListings(new AtomicLong(), new ReadVersions(), compactions::add, 0.25);
+        for (int id = 0; id < 10; id++)
+            listings.add(listing(id));
+        Sale[] before = listings.snapshot();
+        listings.remove(0);
+        assertTrue(compactions.isEmpty());
+        assertEquals(10, before.length);
+        assertEquals(9, listings.size());
+        assertNull(listings.get(0));
+        assertEquals(listing(6), listings.get(6));
+        listings.remove(5);
+        listings.remove(7);
+        assertEquals(1, compactions.size());
+        assertEquals(6, listings.garbage());
+        assertArrayEquals(new Sale[] {listing(1), listing(2), listing(3), listing(4), listing(6)}, listings.page(null, 5).getSales());
+        assertEquals(Integer.valueOf(6), listings.page(null, 5).getNextCursor());
+        listings.remove(8);
+        listings.remove(9);
+        assertNull(listings.page(4, 5).getNextCursor());
+        compactions.get(0).run();
+        assertEquals(0, listings.garbage());
+        assertArrayEquals(new Sale[] {listing(1), listing(2), listing(3), listing(4), listing(6)}, listings.snapshot());
+        listings.add(listing(10));
+        assertArrayEquals(new Sale[] {listing(6), listing(10)}, listings.page(4, 5).getSales());
+    }
+
+    /**
+     * Test that a deleted listing added again, as a delete rolled back, is found, updated and deleted again in its own slot while its tombstone isn't compacted.
+     */
+    @Test
+    public void deletedListingAddedAgain() {
+        DomainListings listings = new DomainListings(new AtomicLong(), new ReadVersions(), compaction -> {}, 0.25); // never compacted
+        for (int id = 0; id < 3; id++)
+            listings.add(listing(id));
+        listings.remove(1);
+        listings.add(listing(1));
+        assertEquals(listing(1), listings.get(1));
+        assertEquals(3, listings.size());
+        assertArrayEquals(new Sale[] {listing(0), listing(1), listing(2)}, listings.snapshot());
+        assertArrayEquals(new Sale[] {listing(1)}, listings.byPrice(1, 1, false, 10));
+        Sale updated = new Sale("owner@gmail.com", Domain.HOUSE, "Updated", "Content", 7, 1);
+        listings.replace(updated);
+        assertEquals(updated, listings.get(1));
+        assertArrayEquals(new Sale[0], listings.byPrice(1, 1, false, 10));
+        listings.remove(1);
+        assertNull(listings.get(1));
+        assertEquals(2, listings.size());
+        assertArrayEquals(new Sale[] {listing(0), listing(2)}, listings.snapshot());
+        assertArrayEquals(new Sale[0], listings.byPrice(7, 7, false, 10));
+    }
+
+    /**
+     * Test that the pages read at a pinned version show the domain as it was then, and that the compactions keep the versions pinned until they are released.
+     */
+    @Test
+    public void pagesAtPinnedVersion() {
+        List<Runnable> compactions = new ArrayList<>();
+        ReadVersions readers = new ReadVersions();
+        DomainListings listings = new DomainListings(new AtomicLong(), readers, compactions::add, 0);
+        for (int id = 0; id < 10; id++)
+            listings.add(listing(id));
+        long pin = listings.pin();
+        long pinned = readers.renew(pin);
+        SalePage first = listings.page(null, 4, pinned);
+        assertArrayEquals(new Sale[] {listing(0), listing(1), listing(2), listing(3)}, first.getSales());
+        listings.remove(1); // already read
+        listings.remove(5); // not read yet
+        Sale updated = new Sale("Alice", Domain.HOUSE, "Updated", "Content", 60, 6);
+        listings.replace(updated);
+        listings.add(listing(10));
+        for (Runnable compaction: compactions)
+            compaction.run();
+        assertEquals(5, listings.garbage()); // the listings 1 and 5 and their tombstones, and the listing 6 replaced, kept for the pinned version
+        SalePage second = listings.page(first.getNextCursor(), 4, pinned);
+        assertArrayEquals(new Sale[] {listing(4), listing(5), listing(6), listing(7)}, second.getSales());
+        SalePage last = listings.page(second.getNextCursor(), 4, pinned);
+        assertArrayEquals(new Sale[] {listing(8), listing(9)}, last.getSales());
+        assertNull(last.getNextCursor());
+        assertArrayEquals(new Sale[] {listing(4), updated, listing(7), listing(8)}, listings.page(3, 4).getSales());
+        readers.release(pin);
+        listings.compact();
+        assertEquals(0, listings.garbage());
+        assertArrayEquals(new Sale[] {listing(0), listing(2), listing(3), listing(4), updated, listing(7), listing(8), listing(9), listing(10)}, listings.snapshot());
+    }
+
+    /**
+     * Test that the pages of the current listings, whose reader hasn't pinned a version, aren't torn by the compactions running meanwhile: a listing replaced during a read is seen in one version or the other.
+     */
+    @Test
+    public void currentPagesWhileCompacting() throws Exception {
+        DomainListings listings = new DomainListings(new AtomicLong(), new ReadVersions(), Runnable::run, 0); // compacted by every write
+        int size = 100_000;
+        Sale[] sales = new Sale[size];
+        for (int id = 0; id < size; id++)
+            sales[id] = listing(id);
+        listings.addAll(sales);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !stop.get(); i++)
+                listings.replace(new Sale("Alice", Domain.HOUSE, "Updated " + i, "Content", i, (int) ((i * 2654435761L) % size))); // spread over the domain
+        });
+        writer.start();
+        try {
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (System.nanoTime() < end) {
+                int count = 0;
+                SalePage page = listings.page(null, 5000);
+                while (true) {
+                    count += page.getSales().length;
+                    if (page.getNextCursor() == null)
+                        break;
+                    page = listings.page(page.getNextCursor(), 5000);
+                }
+                assertEquals(size, count);
+                assertEquals(size, listings.snapshot().length);
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+}
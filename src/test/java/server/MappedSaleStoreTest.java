@@ -0,0 +1,226 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedSaleStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that a sale is read back as written, through a copy and through a view, until it is deleted.
+     */
+    @Test
+    public void putGetRemove() throws Exception {
+        try (MappedSaleStore store = new MappedSaleStore(this.folder.getRoot().toPath())) {
+            store.put(new Sale("alice@gmail.com", Domain.HOUSE, "Maison \u00e0 vendre", "Jardin", 1000, 0), "Alice");
+            store.put(new Sale("bob@gmail.com", Domain.CAR, "Car", null, -5, 3), null);
+            assertEquals(new Sale("alice@gmail.com", Domain.HOUSE, "Maison \u00e0 vendre", "Jardin", 1000, 0), store.get(0));
+            assertEquals(new Sale("Alice", Domain.HOUSE, "Maison \u00e0 vendre", "Jardin", 1000, 0), store.getListing(0));
+            MappedSaleStore.SaleView view = store.view();
+            assertTrue(view.moveTo(3));
+            assertEquals(Domain.CAR, view.getDomain());
+            assertEquals(-5, view.getPrice());
+            assertNull(view.getContent());
+            assertNull(view.getOwnerName());
+            assertFalse(view.moveTo(1));
+            assertFalse(view.moveTo(1 << 30));
+            assertEquals(2, store.size());
+
+            store.put(new Sale("alice@gmail.com", Domain.HOUSE, "House", "Pool", 1200, 0), "Alice");
+            assertEquals(new Sale("alice@gmail.com", Domain.HOUSE, "House", "Pool", 1200, 0), store.get(0));
+            assertEquals(2, store.size());
+            assertTrue(store.remove(0));
+            assertFalse(store.remove(0));
+            assertNull(store.get(0));
+            assertEquals(1, store.size());
+        }
+    }
+
+    /**
+     * Test that the store maps new chunks as it grows, and that a string never spans two chunks.
+     */
+    @Test
+    public void growAcrossChunks() throws Exception {
+        try (MappedSaleStore store = new MappedSaleStore(this.folder.getRoot().toPath(), 4, 64)) {
+            for (int i = 0; i < 100; i++)
+                store.put(new Sale("owner" + i + "@gmail.com", Domain.values()[i % 2], "Title " + i, "Content " + i, i, i), "Owner " + i);
+            for (int i = 0; i < 100; i++)
+                assertEquals(new Sale("Owner " + i, Domain.values()[i % 2], "Title " + i, "Content " + i, i, i), store.getListing(i));
+            try {
+                store.put(new Sale("alice@gmail.com", Domain.HOUSE, "x".repeat(61), "", 0, 100), "Alice");
+                fail("A string larger than a chunk has been stored");
+            } catch (IllegalArgumentException e) {
+                assertNull(store.get(100));
+            }
+        }
+    }
+
+    /**
+     * Test that the pages and the price ranges of a domain skip the other domains and the deleted sales.
+     */
+    @Test
+    public void pagesAndPrices() throws Exception {
+        try (MappedSaleStore store = new MappedSaleStore(this.folder.getRoot().toPath(), 8, 1 << 12)) {
+            int[] prices = {50, 10, 30, 10, 70, 20, 60, 40, 90, 80};
+            for (int i = 0; i < prices.length; i++)
+                store.put(new Sale("alice@gmail.com", i % 3 == 2 ? Domain.CAR : Domain.HOUSE, "Sale " + i, "", prices[i], i), "Alice");
+            store.remove(4);
+            // houses: 0 (50), 1 (10), 3 (10), 6 (60), 7 (40), 9 (80)
+            SalePage first = store.page(Domain.HOUSE, null, 4);
+            assertArrayEquals(new int[] {0, 1, 3, 6}, ids(first.getSales()));
+            assertEquals(Integer.valueOf(6), first.getNextCursor());
+            SalePage last = store.page(Domain.HOUSE, first.getNextCursor(), 4);
+            assertArrayEquals(new int[] {7, 9}, ids(last.getSales()));
+            assertNull(last.getNextCursor());
+            assertArrayEquals(new int[] {0, 1, 3, 6, 7, 9}, ids(store.listings(Domain.HOUSE)));
+            assertArrayEquals(new int[] {1, 3, 7, 0}, ids(store.byPrice(Domain.HOUSE, 10, 50, false, 10)));
+            assertArrayEquals(new int[] {9, 6, 0}, ids(store.byPrice(Domain.HOUSE, 0, 100, true, 3)));
+            assertArrayEquals(new int[] {1, 3}, ids(store.byPrice(Domain.HOUSE, 0, 100, false, 2)));
+            assertArrayEquals(new int[0], ids(store.byPrice(Domain.CAR, 100, 0, false, 2)));
+        }
+    }
+
+    private static int[] ids(Sale[] sales) {
+        int[] ids = new int[sales.length];
+        for (int i = 0; i < sales.length; i++)
+            ids[i] = sales[i].getId();
+        return ids;
+    }
+
+    /**
+     * Test that a view never mixes the fields of two versions of a sale updated concurrently.
+     */
+    @Test
+    public void readersSeeWholeRecords() throws Exception {
+        try (MappedSaleStore store = new MappedSaleStore(this.folder.getRoot().toPath())) {
+            store.put(new Sale("alice@gmail.com", Domain.HOUSE, "Title 0", "Content 0", 0, 0), "Alice");
+            AtomicBoolean stop = new AtomicBoolean(false);
+            AtomicReference<String> torn = new AtomicReference<>();
+            Thread[] readers = new Thread[2];
+            for (int r = 0; r < readers.length; r++) {
+                readers[r] = new Thread(() -> {
+                    MappedSaleStore.SaleView view = store.view();
+                    while (!stop.get() && torn.get() == null) {
+                        if (!view.moveTo(0)) {
+                            torn.set("deleted");
+                            break;
+                        }
+                        int price = view.getPrice();
+                        String title = view.getTitle();
+                        String content = view.getContent();
+                        if (!title.equals("Title " + price) || !content.equals("Content " + price))
+                            torn.set(title + ", " + content + ", " + price);
+                    }
+                });
+                readers[r].start();
+            }
+            for (int i = 1; i < 20_000; i++)
+                store.put(new Sale("alice@gmail.com", Domain.HOUSE, "Title " + i, "Content " + i, i, 0), "Alice");
+            stop.set(true);
+            for (Thread reader: readers)
+                reader.join();
+            assertNull(torn.get());
+        }
+    }
+
+    /**
+     * Test that the strings replaced by the updates are compacted, while a view positioned before a compaction still reads its strings, and the concurrent readers whole records.
+     */
+    @Test
+    public void stringsCompacted() throws Exception {
+        Path root = this.folder.getRoot().toPath();
+        try (MappedSaleStore store = new MappedSaleStore(root, 8, 256)) {
+            store.put(new Sale("alice@gmail.com", Domain.HOUSE, "Title 0", "Content 0", 0, 0), "Alice");
+            store.put(new Sale("bob@gmail.com", Domain.CAR, "Car", "Fast", 500, 1), "Bob");
+            MappedSaleStore.SaleView before = store.view();
+            assertTrue(before.moveTo(0));
+            AtomicBoolean stop = new AtomicBoolean(false);
+            AtomicReference<String> torn = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                MappedSaleStore.SaleView view = store.view();
+                while (!stop.get() && torn.get() == null) {
+                    if (!view.moveTo(0)) {
+                        torn.set("deleted");
+                        break;
+                    }
+                    int price = view.getPrice();
+                    if (!view.getTitle().equals("Title " + price) || !view.getContent().equals("Content " + price))
+                        torn.set(view.getTitle() + ", " + view.getContent() + ", " + price);
+                }
+            });
+            reader.start();
+            for (int i = 1; i < 5000; i++)
+                store.put(new Sale("alice@gmail.com", Domain.HOUSE, "Title " + i, "Content " + i, i, 0), "Alice");
+            stop.set(true);
+            reader.join();
+            assertNull(torn.get());
+            assertTrue(Files.size(root.resolve("sales.strings")) <= 4 * 256);
+            assertEquals("Title 0", before.getTitle());
+            assertEquals(new Sale("Alice", Domain.HOUSE, "Title 4999", "Content 4999", 4999, 0), store.getListing(0));
+            assertEquals(new Sale("bob@gmail.com", Domain.CAR, "Car", "Fast", 500, 1), store.get(1));
+            assertArrayEquals(new int[] {0}, ids(store.byPrice(Domain.HOUSE, 4999, 4999, false, 10)));
+            assertArrayEquals(new int[0], ids(store.byPrice(Domain.HOUSE, 0, 4998, false, 10)));
+        }
+    }
+
+    /**
+     * Test that the listings of a domain follow a sale moved to another domain.
+     */
+    @Test
+    public void saleMovedToOtherDomain() throws Exception {
+        try (MappedSaleStore store = new MappedSaleStore(this.folder.getRoot().toPath(), 8, 1 << 12)) {
+            store.put(new Sale("alice@gmail.com", Domain.HOUSE, "Sale", "", 10, 3), "Alice");
+            store.put(new Sale("alice@gmail.com", Domain.CAR, "Sale", "", 20, 3), "Alice");
+            assertArrayEquals(new int[0], ids(store.listings(Domain.HOUSE)));
+            assertArrayEquals(new int[0], ids(store.byPrice(Domain.HOUSE, 0, 100, false, 10)));
+            assertArrayEquals(new int[] {3}, ids(store.page(Domain.CAR, null, 10).getSales()));
+            assertArrayEquals(new int[] {3}, ids(store.byPrice(Domain.CAR, 20, 20, true, 10)));
+        }
+    }
+
+    /**
+     * Test that a server storing its sales off the heap answers the queries as a server storing them on the heap, and restarts from its log.
+     */
+    @Test
+    public void serverOffHeap() throws Exception {
+        Path data = this.folder.newFolder("data").toPath();
+        Path mapped = this.folder.newFolder("mapped").toPath();
+        PersistenceSettings settings = new PersistenceSettings(data, PersistenceSettings.DEFAULT_GROUP_COMMIT_SIZE, 0, 0);
+        Server server = new Server(true, true, settings, new StorageSettings(StorageEngine.FILE, mapped));
+        server.addSale("alice@gmail.com", Domain.CAR, "Red car", "Fast", 500);
+        server.updateSale("Big House", "Pool", 1500, 0);
+        server.deleteSale(1);
+        Sale house = new Sale("Alice", Domain.HOUSE, "Big House", "Pool", 1500, 0);
+        Sale car = new Sale("Alice", Domain.CAR, "Red car", "Fast", 500, 2);
+        assertArrayEquals(new Sale[] {house}, server.getSalesOfDomain(Domain.HOUSE));
+        assertArrayEquals(new Sale[] {car}, server.searchSales("red", 10));
+        assertArrayEquals(new Sale[] {house, car}, server.getSalesOfOwner("alice@gmail.com"));
+        assertTrue(server.isOwnerOfSale("alice@gmail.com", 2));
+        server.stopProcess();
+        assertFalse(Files.exists(mapped.resolve("sales.records")));
+        assertFalse(Files.exists(mapped.resolve("clients.records")));
+
+        Server restored = new Server(true, true, settings, new StorageSettings(StorageEngine.FILE, mapped));
+        try {
+            assertArrayEquals(new Sale[] {house}, restored.getSalesOfDomain(Domain.HOUSE));
+            assertArrayEquals(new Sale[] {car}, restored.getSalesOfDomainByPrice(Domain.CAR, 0, 1000, false, 10));
+        } finally {
+            restored.stopProcess();
+        }
+    }
+}
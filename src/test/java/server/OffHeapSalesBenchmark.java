@@ -0,0 +1,74 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure a mix of page reads and updates, and the heap retained by the sales, against the size of the catalogue, with the sales on and off the heap.
+ *
+ * @details The retained heap is printed after the server is filled. Run with the option -prof gc to see the time spent in the garbage collector:
+ * with the FILE engine, which stores the sales off the heap, both should stay roughly flat as the catalogue grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class OffHeapSalesBenchmark {
+    @Param({"100000", "400000"})
+    private int sales;
+
+    @Param({"IN_MEMORY", "FILE"})
+    private StorageEngine engine;
+
+    private Path directory;
+    private Server server;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void fillServer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.directory = Files.createTempDirectory("server");
+        this.server = new Server(true, false, null, new StorageSettings(this.engine, this.directory));
+        this.server.addClient("alice@gmail.com", "Alice", "test");
+        for (int i = 0; i < this.sales; i++)
+            this.server.addSale("alice@gmail.com", Domain.values()[i % Domain.values().length], "Sale " + i, "Content of the sale " + i, i);
+        System.gc();
+        System.out.println("\nRetained heap: " + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024) + " MB");
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        this.server.stopProcess();
+        Files.delete(this.directory);
+    }
+
+    @Benchmark
+    public SalePage readPageThenUpdate() throws IOException {
+        int id = this.next;
+        this.next = (this.next + 9_973) % this.sales;
+        this.server.updateSale("Sale " + id, "Updated content of the sale " + id, id, id);
+        return this.server.getSalesOfDomain(Domain.values()[id % Domain.values().length], id, Server.DEFAULT_PAGE_SIZE);
+    }
+}
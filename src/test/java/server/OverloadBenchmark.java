@@ -0,0 +1,97 @@
+package server;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCommand;
+import protocol.Request;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the distribution of the response times of a server overloaded by more clients than it can serve, with and without a limit of requests in flight.
+ *
+ * @details Every client requests the public key of a server which responds, so that each request costs a key agreement and a key derivation.
+ * Without a limit the requests queue and every one waits; with a limit the requests beyond it are answered at once that the server is busy, and the number of them is printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(32)
+@Fork(1)
+public class OverloadBenchmark {
+    @Param({"THREAD_PER_CLIENT", "SELECTOR"})
+    private ConnectionEngine engine;
+
+    @Param({"2147483647", "4"})
+    private int maxInFlightRequests;
+
+    private Server server;
+    private byte[] request;
+
+    /**
+     * @brief The connection of a client, one per thread of the benchmark.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        private Socket socket;
+        private OutputStream out;
+        private DataInputStream in;
+
+        @Setup(Level.Trial)
+        public void connect(OverloadBenchmark benchmark) throws IOException { // once the server is started
+            this.socket = new Socket("127.0.0.1", benchmark.server.getPort());
+            this.out = this.socket.getOutputStream();
+            this.in = new DataInputStream(this.socket.getInputStream());
+        }
+
+        @TearDown(Level.Trial)
+        public void disconnect() throws IOException {
+            this.socket.close();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(true, false, null, null, new ConnectionSettings(this.engine, Runtime.getRuntime().availableProcessors(), ConnectionSettings.DEFAULT_MAX_CONNECTIONS, this.maxInFlightRequests));
+        new Thread(this.server).start();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, generator.generateKeyPair().getPublic().getEncoded())).getBytes();
+        this.request = ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        System.out.println(this.server.getBusyRequests() + " requests answered that the server is busy");
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    public int requestPublicKey(Client client) throws IOException {
+        client.out.write(this.request);
+        return client.in.readNBytes(client.in.readInt()).length;
+    }
+}
@@ -0,0 +1,88 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Compare the cost per sale of resolving the owner names of a domain listing, with 100k users and 1M sales.
+ *
+ * @details The scan join is the former implementation (a stream over every client for every sale), measured on a sample of the domain since it is too slow for the whole domain.
+ * The listing join reads the listings of the domain, whose owner names are resolved when the sales are written.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class OwnerNameJoinBenchmark {
+    private static final int CLIENTS = 100_000;
+    private static final int SALES = 1_000_000;
+    private static final int SALES_IN_HOUSE = SALES / 2;
+    private static final int SCAN_SAMPLE = 100;
+
+    private Server server;
+    private List<Client> clientList;
+    private Sale[] sample;
+
+    @Setup(Level.Trial)
+    public void fillServer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(true, false);
+        this.clientList = new ArrayList<>(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            Client client = new Client("user" + i + "@gmail.com", "User " + i, "pwd", "salt");
+            this.server.addClient(client);
+            this.clientList.add(client);
+        }
+        Random random = new Random(42);
+        this.sample = new Sale[SCAN_SAMPLE];
+        for (int i = 0; i < SALES; i++) {
+            String owner = "user" + random.nextInt(CLIENTS) + "@gmail.com";
+            Domain domain = i % 2 == 0 ? Domain.HOUSE : Domain.CAR;
+            this.server.addSale(owner, domain, "Title " + i, "Content " + i, i);
+            if (i / 2 < SCAN_SAMPLE && domain == Domain.HOUSE)
+                this.sample[i / 2] = new Sale(owner, domain, "Title " + i, "Content " + i, i, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCAN_SAMPLE)
+    public Sale[] scanJoin() {
+        return Arrays.stream(this.sample)
+                .map(sale -> new Sale(this.clientList.stream().filter(cs -> cs.getMail().equals(sale.getOwner())).findFirst().map(Client::getName).orElse(null), sale.getDomain(), sale.getTitle(), sale.getContent(), sale.getPrice(), sale.getId()))
+                .toArray(Sale[]::new);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SALES_IN_HOUSE)
+    public Sale[] listingJoin() {
+        return this.server.getSalesOfDomain(Domain.HOUSE);
+    }
+}
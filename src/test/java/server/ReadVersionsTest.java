@@ -0,0 +1,165 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReadVersionsTest {
+
+    /**
+     * Test that the oldest version is the oldest one pinned until it is released by all its readers, or the current one if none is pinned.
+     */
+    @Test
+    public void pinAndRelease() {
+        ReadVersions readers = new ReadVersions();
+        assertEquals(7, readers.oldest(() -> 7));
+        long first = readers.pin(() -> 3);
+        long second = readers.pin(() -> 3);
+        long third = readers.pin(() -> 5);
+        assertNotEquals(first, second);
+        assertEquals(3, readers.oldest(() -> 7));
+        readers.release(first);
+        assertEquals(3, readers.oldest(() -> 7));
+        readers.release(second);
+        assertEquals(5, readers.oldest(() -> 7));
+        assertEquals(5, readers.renew(third));
+        assertEquals(-1, readers.renew(first));
+    }
+
+    /**
+     * Test that releasing a pin twice doesn't release the pin of another reader of the same version.
+     */
+    @Test
+    public void releaseIsIdempotent() {
+        ReadVersions readers = new ReadVersions();
+        long first = readers.pin(() -> 3);
+        long second = readers.pin(() -> 3);
+        readers.release(first);
+        readers.release(first);
+        readers.release(0);
+        assertEquals(3, readers.oldest(() -> 7));
+        assertEquals(3, readers.renew(second));
+        readers.release(second);
+        assertEquals(7, readers.oldest(() -> 7));
+        assertEquals(0, readers.size());
+    }
+
+    /**
+     * Test that an expired lease isn't renewed and doesn't hold the oldest version anymore.
+     */
+    @Test
+    public void leaseExpires() {
+        ReadVersions readers = new ReadVersions(-1);
+        long pin = readers.pin(() -> 3);
+        assertEquals(-1, readers.renew(pin));
+        assertEquals(7, readers.oldest(() -> 7));
+        assertEquals(0, readers.size());
+    }
+
+    /**
+     * Test that the pins given up are forgotten by the next pins, without a compaction.
+     */
+    @Test
+    public void expiredPinsForgottenWhenPinning() {
+        ReadVersions readers = new ReadVersions(-1); // every pin expires at once
+        for (int i = 0; i < 100; i++)
+            readers.pin(() -> 3);
+        assertEquals(1, readers.size());
+    }
+
+    /**
+     * Test that a client paging through a domain sees every sale of the domain as of its first page exactly once, while sales are created, updated and deleted.
+     */
+    @Test
+    public void serverPagesAtVersion() throws Exception {
+        Server server = new Server(true, false);
+        try {
+            server.addClient("alice@gmail.com", "Alice", "test");
+            for (int i = 0; i < 20; i++)
+                server.addSale("alice@gmail.com", Domain.CAR, "Car " + i, "Content", i);
+            Set<Integer> expected = new HashSet<>();
+            for (Sale sale: server.getSalesOfDomain(Domain.CAR))
+                expected.add(sale.getId());
+            Set<Integer> visited = new HashSet<>();
+            Set<Long> pins = new HashSet<>();
+            SalePage page = server.getSalesOfDomain(Domain.CAR, null, 5, 0L, pins);
+            int next = 0;
+            while (true) {
+                for (Sale sale: page.getSales()) {
+                    assertTrue(visited.add(sale.getId()));
+                    assertTrue(sale.getTitle().startsWith("Car "));
+                }
+                if (page.getNextCursor() == null)
+                    break;
+                Sale[] current = server.getSalesOfDomain(Domain.CAR);
+                server.deleteSale(current[next % current.length].getId());
+                server.updateSale("Updated", "Content", 0, current[(next + 7) % current.length].getId());
+                server.addSale("alice@gmail.com", Domain.CAR, "New car", "Content", 0);
+                next += 3;
+                assertNotEquals(0, page.getPin());
+                page = server.getSalesOfDomain(Domain.CAR, page.getNextCursor(), 5, page.getPin(), pins);
+            }
+            assertEquals(expected, visited);
+            assertNull(page.getNextCursor());
+            assertTrue(pins.isEmpty()); // released by the last page
+        } finally {
+            server.stopProcess();
+        }
+    }
+
+    /**
+     * Test that the pages requested without a version, as by the clients which don't send it back, pin nothing and show the current listings.
+     */
+    @Test
+    public void serverPinsOnlyOnRequest() throws Exception {
+        Server server = new Server(true, false);
+        try {
+            server.addClient("alice@gmail.com", "Alice", "test");
+            for (int i = 0; i < 10; i++)
+                server.addSale("alice@gmail.com", Domain.CAR, "Car " + i, "Content", i);
+            SalePage page = server.getSalesOfDomain(Domain.CAR, null, 5, null, new HashSet<>());
+            assertEquals(0, page.getPin());
+            server.deleteSale(page.getNextCursor() + 1);
+            page = server.getSalesOfDomain(Domain.CAR, page.getNextCursor(), 5, null, new HashSet<>());
+            assertEquals(0, page.getPin());
+            assertEquals(4, page.getSales().length);
+        } finally {
+            server.stopProcess();
+        }
+    }
+
+    /**
+     * Test that a client can neither release nor read at the pin of another client, sent as its version.
+     */
+    @Test
+    public void pinsOfOtherClientsIgnored() throws Exception {
+        Server server = new Server(true, false);
+        try {
+            server.addClient("alice@gmail.com", "Alice", "test");
+            for (int i = 0; i < 10; i++)
+                server.addSale("alice@gmail.com", Domain.CAR, "Car " + i, "Content", i);
+            Set<Long> alice = new HashSet<>();
+            Set<Long> bob = new HashSet<>();
+            SalePage first = server.getSalesOfDomain(Domain.CAR, null, 5, 0L, alice);
+            long pin = first.getPin();
+            assertEquals(Set.of(pin), alice);
+            SalePage other = server.getSalesOfDomain(Domain.CAR, null, 5, pin, bob); // a first page doesn't release the pin of Alice
+            assertNotEquals(pin, other.getPin());
+            assertEquals(0, server.getSalesOfDomain(Domain.CAR, first.getNextCursor(), 5, pin, bob).getPin()); // nor does a last page read at it
+            assertEquals(Set.of(other.getPin()), bob);
+            server.deleteSale(first.getNextCursor() + 1);
+            SalePage last = server.getSalesOfDomain(Domain.CAR, first.getNextCursor(), 5, pin, alice);
+            assertEquals(pin, last.getPin());
+            assertEquals(5, last.getSales().length); // still read at the pinned version
+            assertTrue(alice.isEmpty());
+        } finally {
+            server.stopProcess();
+        }
+    }
+}
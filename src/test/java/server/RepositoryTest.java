@@ -0,0 +1,139 @@
+package server;
+
+import client.IpAddressUDPServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @brief The contract of the repositories, checked against every storage engine.
+ */
+@RunWith(Parameterized.class)
+public class RepositoryTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static StorageEngine[] engines() {
+        return StorageEngine.values();
+    }
+
+    @Parameterized.Parameter
+    public StorageEngine engine;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SaleRepository sales;
+    private ClientRepository clients;
+
+    @Before
+    public void open() throws Exception {
+        StorageSettings settings = new StorageSettings(this.engine, this.folder.getRoot().toPath());
+        this.sales = settings.openSaleRepository();
+        this.clients = settings.openClientRepository();
+    }
+
+    @After
+    public void close() throws Exception {
+        this.sales.close();
+        this.clients.close();
+    }
+
+    /**
+     * Test that the sales and their listings are read back as written, and that the queries of a domain skip the other domain and the deleted sales.
+     */
+    @Test
+    public void sales() throws Exception {
+        int[] prices = {50, 10, 30, 10, 70, 20, 60, 40};
+        for (int i = 0; i < prices.length; i++)
+            this.sales.put(new Sale("alice@gmail.com", i % 3 == 2 ? Domain.CAR : Domain.HOUSE, "Sale " + i, "Content " + i, prices[i], i), "Alice");
+        this.sales.put(new Sale("alice@gmail.com", Domain.HOUSE, "Sale 0", "Updated", 55, 0), "Alice");
+        assertTrue(this.sales.remove(4));
+        assertFalse(this.sales.remove(4));
+        // houses: 0 (55), 1 (10), 3 (10), 6 (60), 7 (40)
+        assertEquals(new Sale("alice@gmail.com", Domain.HOUSE, "Sale 0", "Updated", 55, 0), this.sales.get(0));
+        assertEquals(new Sale("Alice", Domain.HOUSE, "Sale 0", "Updated", 55, 0), this.sales.getListing(0));
+        assertNull(this.sales.get(4));
+        assertNull(this.sales.getListing(100));
+        assertEquals(7, this.sales.size());
+        assertArrayEquals(new int[] {0, 1, 3, 6, 7}, ids(this.sales.listings(Domain.HOUSE)));
+        SalePage first = this.sales.page(Domain.HOUSE, null, 3);
+        assertArrayEquals(new int[] {0, 1, 3}, ids(first.getSales()));
+        SalePage last = this.sales.page(Domain.HOUSE, first.getNextCursor(), 3);
+        assertArrayEquals(new int[] {6, 7}, ids(last.getSales()));
+        assertNull(last.getNextCursor());
+        assertArrayEquals(new int[] {1, 3, 7}, ids(this.sales.byPrice(Domain.HOUSE, 10, 50, false, 10)));
+        assertArrayEquals(new int[] {6, 0}, ids(this.sales.byPrice(Domain.HOUSE, 0, 100, true, 2)));
+        List<Integer> all = new ArrayList<>();
+        for (Sale sale: this.sales.sales())
+            all.add(sale.getId());
+        all.sort(null);
+        assertEquals(List.of(0, 1, 2, 3, 5, 6, 7), all);
+    }
+
+    private static int[] ids(Sale[] sales) {
+        int[] ids = new int[sales.length];
+        for (int i = 0; i < sales.length; i++)
+            ids[i] = sales[i].getId();
+        return ids;
+    }
+
+    /**
+     * Test that a mail is registered once, even by concurrent registrations.
+     */
+    @Test
+    public void clients() throws Exception {
+        assertTrue(this.clients.isEmpty());
+        AtomicInteger registered = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            String name = "Alice " + t;
+            threads[t] = new Thread(() -> {
+                try {
+                    if (this.clients.add(new Client("alice@gmail.com", name, "pwd", "salt")))
+                        registered.incrementAndGet();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread: threads)
+            thread.join();
+        assertEquals(1, registered.get());
+        assertTrue(this.clients.add(new Client("bob@gmail.com", "Bob", "pwd", null)));
+        assertEquals("pwd", this.clients.get("bob@gmail.com").getPwd());
+        assertNull(this.clients.get("bob@gmail.com").getSalt());
+        assertTrue(this.clients.contains("alice@gmail.com"));
+        assertNull(this.clients.get("carol@gmail.com"));
+        this.clients.remove("alice@gmail.com");
+        assertFalse(this.clients.contains("alice@gmail.com"));
+        List<String> mails = new ArrayList<>();
+        for (Client client: this.clients.clients())
+            mails.add(client.getMail());
+        assertEquals(List.of("bob@gmail.com"), mails);
+        assertFalse(this.clients.isEmpty());
+    }
+
+    @Test
+    public void udpCoordinates() {
+        UDPCoordinateRepository coordinates = new StorageSettings(this.engine, this.folder.getRoot().toPath()).openUDPCoordinateRepository();
+        coordinates.put("alice@gmail.com", new IpAddressUDPServer("127.0.0.1", 5000));
+        assertTrue(coordinates.contains("alice@gmail.com"));
+        assertEquals(5000, coordinates.get("alice@gmail.com").getPort());
+        assertNull(coordinates.get("bob@gmail.com"));
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the startup time of a server whose sales have been updated many times, with and without a snapshot.
+ *
+ * @details The live data is the same whatever the length of the history: with a snapshot, the startup time should stay flat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestartBenchmark {
+    private static final int SALES = 10_000;
+
+    @Param({"0", "200000"})
+    private int updates;
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private PersistenceSettings settings;
+
+    @Setup(Level.Trial)
+    public void writeHistory() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.settings = new PersistenceSettings(Files.createTempDirectory("server"), PersistenceSettings.DEFAULT_GROUP_COMMIT_SIZE, 0, 0);
+        Server server = new Server(true, false, this.settings);
+        server.addClient(new Client("alice@gmail.com", "Alice", "pwd", "salt"));
+        for (int i = 0; i < SALES; i++)
+            server.addSale("alice@gmail.com", Domain.values()[i % Domain.values().length], "Sale " + i, "Content of the sale " + i, i);
+        for (int i = 0; i < this.updates; i++)
+            server.updateSale("Sale " + i % SALES, "Content updated " + i, i, i % SALES);
+        if (this.snapshot)
+            server.takeSnapshot();
+        server.stopProcess();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.settings.getDirectory())) {
+            for (Path file: files)
+                Files.delete(file);
+        }
+        Files.delete(this.settings.getDirectory());
+    }
+
+    @Benchmark
+    public Server restart() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Server server = new Server(true, false, this.settings);
+        server.stopProcess();
+        return server;
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SaleBulkLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String[] titles(Sale[] sales) {
+        String[] titles = new String[sales.length];
+        for (int i = 0; i < sales.length; i++)
+            titles[i] = sales[i].getTitle() + " " + sales[i].getContent() + " " + sales[i].getPrice();
+        return titles;
+    }
+
+    /**
+     * Test that the sales exported by a server are imported by another one with the same fields, in the same order.
+     */
+    @Test
+    public void exportThenImport() throws Exception {
+        Path file = this.folder.getRoot().toPath().resolve("sales.ndjson");
+        Server source = new Server(true, true);
+        source.addSale("alice@gmail.com", Domain.CAR, "Car \"red\"", "Line\nbreak \u00e0", 500);
+        source.addSale("bob@gmail.com", Domain.HOUSE, "Flat", "Balcony", 800);
+        source.deleteSale(0);
+        Sale[] houses = source.getSalesOfDomain(Domain.HOUSE);
+        Sale[] cars = source.getSalesOfDomain(Domain.CAR);
+        assertEquals(3, SaleBulkLoader.exportSales(source, file));
+        source.stopProcess();
+
+        Server target = new Server(true, false);
+        try {
+            target.addClient("alice@gmail.com", "Alice", "test");
+            target.addClient("bob@gmail.com", "Bob", "test");
+            SaleBulkLoader.Report report = SaleBulkLoader.importSales(target, file);
+            assertEquals(3, report.getImported());
+            assertEquals(0, report.getRejected());
+            assertArrayEquals(titles(houses), titles(target.getSalesOfDomain(Domain.HOUSE)));
+            assertArrayEquals(titles(cars), titles(target.getSalesOfDomain(Domain.CAR)));
+            assertEquals(2, target.getSalesOfOwner("bob@gmail.com").length);
+            assertEquals(1, target.searchSales("red", 10).length);
+        } finally {
+            target.stopProcess();
+        }
+    }
+
+    /**
+     * Test that the invalid lines are rejected, that the valid ones are imported in the order of the file by several parsers, and that they are durable.
+     */
+    @Test
+    public void importInOrder() throws Exception {
+        List<String> lines = new ArrayList<>();
+        lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"HOUSE\",\"title\":\"First\",\"content\":\"\",\"price\":1,\"extra\":[1,2]}");
+        lines.add("");
+        lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"HOUSE\"");
+        lines.add("{\"owner\":\"carol@gmail.com\",\"domain\":\"HOUSE\",\"title\":\"Unknown owner\",\"content\":\"\",\"price\":1}");
+        lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"BOAT\",\"title\":\"Unknown domain\",\"content\":\"\",\"price\":1}");
+        lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"HOUSE\",\"title\":\"No price\",\"content\":\"\"}");
+        lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"HOUSE\",\"title\":null,\"content\":\"\",\"price\":1}");
+        lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"HOUSE\",\"title\":\"Two\",\"content\":\"\",\"price\":1} {}");
+        for (int i = 0; i < 100; i++)
+            lines.add("{\"owner\":\"alice@gmail.com\",\"domain\":\"" + Domain.values()[i % 2] + "\",\"title\":\"Sale " + i + "\",\"content\":\"\",\"price\":" + i + "}");
+        Path file = this.folder.getRoot().toPath().resolve("sales.ndjson");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        PersistenceSettings settings = new PersistenceSettings(this.folder.newFolder("data").toPath(), PersistenceSettings.DEFAULT_GROUP_COMMIT_SIZE, 0, 0);
+
+        Server server = new Server(true, false, settings);
+        server.addClient("alice@gmail.com", "Alice", "test");
+        SaleBulkLoader.Report report = SaleBulkLoader.importSales(server, file, 3, 2);
+        server.stopProcess();
+        assertEquals(101, report.getImported());
+        assertEquals(6, report.getRejected());
+
+        Server restored = new Server(true, false, settings);
+        try {
+            Sale[] houses = restored.getSalesOfDomain(Domain.HOUSE);
+            assertEquals(51, houses.length);
+            assertEquals("First", houses[0].getTitle());
+            for (int i = 1; i < houses.length; i++) {
+                assertEquals("Sale " + 2 * (i - 1), houses[i].getTitle());
+                assertTrue(houses[i].getId() > houses[i - 1].getId());
+            }
+            assertEquals(101, restored.getSalesOfOwner("alice@gmail.com").length);
+        } finally {
+            restored.stopProcess();
+        }
+    }
+
+    /**
+     * Test that the tool exports the sales of a data directory while a server listens to the default port, since its own server doesn't listen.
+     */
+    @Test
+    public void toolWhileServerListens() throws Exception {
+        Path data = this.folder.newFolder("data").toPath();
+        PersistenceSettings settings = new PersistenceSettings(data, PersistenceSettings.DEFAULT_GROUP_COMMIT_SIZE, 0, 0);
+        Server stopped = new Server(true, true, settings, null, new ConnectionSettings(ConnectionEngine.THREAD_PER_CLIENT, 1, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+        stopped.stopProcess();
+        Path file = this.folder.getRoot().toPath().resolve("sales.ndjson");
+        Server listening = new Server(true, false);
+        try {
+            SaleBulkLoader.main(new String[] {"export", data.toString(), file.toString()});
+        } finally {
+            listening.stopProcess();
+        }
+        assertEquals(2, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+}
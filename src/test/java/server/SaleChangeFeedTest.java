@@ -0,0 +1,122 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SaleChangeFeedTest {
+
+    private static Sale sale(int id) {
+        return new Sale("alice@gmail.com", Domain.HOUSE, "Sale " + id, "Content", id, id);
+    }
+
+    /**
+     * Test that the changes are read from an offset in order, and that the oldest ones are overwritten when no subscription holds them.
+     */
+    @Test
+    public void readRetainedChanges() {
+        SaleChangeFeed feed = new SaleChangeFeed(4);
+        for (int id = 0; id < 6; id++)
+            assertEquals(id, feed.append(SaleChange.Type.CREATED, sale(id)));
+        assertEquals(2, feed.oldestOffset());
+        assertEquals(6, feed.nextOffset());
+        List<SaleChange> changes = feed.read(3, 10);
+        assertEquals(3, changes.size());
+        assertEquals(3, changes.get(0).getOffset());
+        assertEquals(sale(5), changes.get(2).getSale());
+        assertTrue(feed.read(6, 10).isEmpty());
+        try {
+            feed.read(1, 10);
+            fail("A change which isn't retained has been read");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test that a slow subscription makes the writers wait instead of losing changes, and reads every change in order.
+     */
+    @Test
+    public void backpressure() throws Exception {
+        SaleChangeFeed feed = new SaleChangeFeed(8);
+        SaleChangeFeed.Subscription subscription = feed.subscribe(0);
+        AtomicLong appended = new AtomicLong();
+        Thread writer = new Thread(() -> {
+            for (int id = 0; id < 1000; id++) {
+                feed.append(id % 2 == 0 ? SaleChange.Type.CREATED : SaleChange.Type.UPDATED, sale(id));
+                appended.incrementAndGet();
+            }
+        });
+        writer.start();
+        Thread.sleep(100);
+        assertEquals(8, appended.get()); // the ring is full
+        List<SaleChange> read = new ArrayList<>();
+        while (read.size() < 1000)
+            read.addAll(subscription.poll(3, 1, TimeUnit.SECONDS));
+        writer.join();
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(i, read.get(i).getOffset());
+            assertEquals(i, read.get(i).getSale().getId());
+        }
+        assertTrue(subscription.poll(10, 10, TimeUnit.MILLISECONDS).isEmpty());
+        subscription.close();
+        for (int id = 0; id < 100; id++) // no subscription left to wait for
+            feed.append(SaleChange.Type.DELETED, sale(id));
+    }
+
+    /**
+     * Test that a stalled subscription doesn't block the writers: it is cut off after the maximum wait, and its consumer subscribes again from the oldest change retained.
+     */
+    @Test
+    public void stalledSubscriptionCutOff() throws Exception {
+        SaleChangeFeed feed = new SaleChangeFeed(4, 50);
+        SaleChangeFeed.Subscription stalled = feed.subscribe(0);
+        long start = System.nanoTime();
+        for (int id = 0; id < 100; id++)
+            feed.append(SaleChange.Type.CREATED, sale(id));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000); // waited once, not for every change
+        try {
+            stalled.poll(10, 10, TimeUnit.MILLISECONDS);
+            fail("A subscription cut off has been read");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        SaleChangeFeed.Subscription again = feed.subscribe(feed.oldestOffset());
+        List<SaleChange> read = again.poll(10, 10, TimeUnit.MILLISECONDS);
+        assertEquals(4, read.size());
+        assertEquals(96, read.get(0).getOffset());
+        again.close();
+    }
+
+    /**
+     * Test that the server emits a change for every sale created, updated or deleted, in order.
+     */
+    @Test
+    public void serverEmitsChanges() throws Exception {
+        Server server = new Server(true, false);
+        try {
+            server.addClient("alice@gmail.com", "Alice", "test");
+            SaleChangeFeed.Subscription subscription = server.getChangeFeed().subscribe(server.getChangeFeed().nextOffset());
+            server.addSale("alice@gmail.com", Domain.CAR, "Car", "Red", 100);
+            int id = server.getSalesOfDomain(Domain.CAR)[0].getId();
+            server.updateSale("Car", "Blue", 120, id);
+            server.deleteSale(id);
+            List<SaleChange> changes = subscription.poll(10, 1, TimeUnit.SECONDS);
+            assertEquals(3, changes.size());
+            assertEquals(SaleChange.Type.CREATED, changes.get(0).getType());
+            assertEquals(SaleChange.Type.UPDATED, changes.get(1).getType());
+            assertEquals("Blue", changes.get(1).getSale().getContent());
+            assertEquals(SaleChange.Type.DELETED, changes.get(2).getType());
+            assertEquals(id, changes.get(2).getSale().getId());
+        } finally {
+            server.stopProcess();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SaleSearchIndexTest {
+
+    private static Sale sale(int id, String title, String content) {
+        return new Sale("alice@gmail.com", Domain.HOUSE, title, content, 100, id);
+    }
+
+    /**
+     * Test that a query matches the sales containing every word, in the title or the content, whatever the case, the most recent first.
+     */
+    @Test
+    public void searchIntersectsWords() {
+        SaleSearchIndex index = new SaleSearchIndex();
+        index.add(sale(0, "Big House", "With a garden"));
+        index.add(sale(1, "Small house", "No garden"));
+        index.add(sale(2, "Big car", "Red, with a garden trailer"));
+        assertArrayEquals(new int[] {1, 0}, index.search("house", 10));
+        assertArrayEquals(new int[] {2, 0}, index.search("BIG garden", 10));
+        assertArrayEquals(new int[] {2}, index.search("garden, red!", 10));
+        assertArrayEquals(new int[] {2}, index.search("big garden", 1));
+        assertArrayEquals(new int[0], index.search("big boat", 10));
+        assertArrayEquals(new int[0], index.search(" ,;", 10));
+    }
+
+    /**
+     * Test that updates and deletions are reflected in the posting lists.
+     */
+    @Test
+    public void updateAndRemove() {
+        SaleSearchIndex index = new SaleSearchIndex();
+        Sale house = sale(0, "Big House", "With a garden");
+        Sale car = sale(1, "Big car", "Blue");
+        index.add(house);
+        index.add(car);
+        Sale updated = sale(0, "Big flat", "With a garden");
+        index.update(house, updated);
+        assertArrayEquals(new int[0], index.search("house", 10));
+        assertArrayEquals(new int[] {0}, index.search("flat garden", 10));
+        assertArrayEquals(new int[] {1, 0}, index.search("big", 10));
+        index.remove(car);
+        assertArrayEquals(new int[] {0}, index.search("big", 10));
+        index.update(updated, house);
+        assertArrayEquals(new int[] {0}, index.search("house", 10));
+    }
+
+    /**
+     * Test random insertions, updates and deletions against a scan of the sales.
+     */
+    @Test
+    public void randomMutations() {
+        String[] words = {"house", "car", "big", "small", "red", "blue", "garden", "pool"};
+        Random random = new Random(42);
+        SaleSearchIndex index = new SaleSearchIndex();
+        List<Sale> sales = new ArrayList<>();
+        for (int id = 0; id < 2_000; id++) {
+            Sale sale = sale(id, words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)], words[random.nextInt(words.length)]);
+            index.add(sale);
+            sales.add(sale);
+            if (random.nextInt(4) == 0) {
+                int position = random.nextInt(sales.size());
+                Sale old = sales.get(position);
+                if (random.nextBoolean()) {
+                    Sale updated = sale(old.getId(), words[random.nextInt(words.length)], words[random.nextInt(words.length)]);
+                    index.update(old, updated);
+                    sales.set(position, updated);
+                } else {
+                    index.remove(old);
+                    sales.remove(position);
+                }
+            }
+        }
+        for (String first: words)
+            for (String second: words) {
+                List<Integer> expected = new ArrayList<>();
+                for (int i = sales.size() - 1; i >= 0; i--) {
+                    Sale sale = sales.get(i);
+                    String text = (sale.getTitle() + " " + sale.getContent()).toLowerCase();
+                    if (SaleSearchIndex.terms(text).contains(first) && SaleSearchIndex.terms(text).contains(second))
+                        expected.add(sale.getId());
+                }
+                int[] found = index.search(first + " " + second, Integer.MAX_VALUE);
+                assertEquals(expected.size(), found.length);
+                for (int i = 0; i < found.length; i++)
+                    assertEquals((int) expected.get(i), found[i]);
+            }
+    }
+
+    /**
+     * Test that removed sales are skipped by the queries until their tombstones are purged, once they exceed the threshold, and that a removed sale can be added back.
+     */
+    @Test
+    public void removedSalesPurged() {
+        SaleSearchIndex index = new SaleSearchIndex(0.5);
+        for (int id = 0; id < 4; id++)
+            index.add(sale(id, "House " + id, "Garden"));
+        index.remove(sale(3, "House 3", "Garden"));
+        index.remove(sale(1, "House 1", "Garden"));
+        assertEquals(2, index.garbage());
+        assertArrayEquals(new int[] {2, 0}, index.search("house garden", 10));
+        assertArrayEquals(new int[0], index.search("1", 10));
+        index.remove(sale(0, "House 0", "Garden")); // 3 removed out of 4, beyond the threshold
+        assertEquals(0, index.garbage());
+        assertArrayEquals(new int[] {2}, index.search("garden", 10));
+        index.add(sale(1, "House 1", "Garden"));
+        index.remove(sale(2, "House 2", "Garden"));
+        index.add(sale(2, "House 2", "Garden"));
+        assertArrayEquals(new int[] {2, 1}, index.search("house", 10));
+        assertArrayEquals(new int[] {2}, index.search("2", 10));
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SaleTableTest {
+
+    private static Sale sale(int id) {
+        return new Sale("alice@gmail.com", Domain.HOUSE, "Title " + id, "Content " + id, id, id);
+    }
+
+    /**
+     * Test insertion, replacement and removal, including the id 0.
+     */
+    @Test
+    public void putGetRemove() {
+        SaleTable table = new SaleTable();
+        Sale first = sale(0);
+        Sale second = sale(0);
+        assertNull(table.put(0, first));
+        assertSame(first, table.get(0));
+        assertSame(first, table.put(0, second));
+        assertEquals(1, table.size());
+        assertSame(second, table.remove(0));
+        assertNull(table.get(0));
+        assertNull(table.remove(0));
+        assertTrue(table.isEmpty());
+    }
+
+    /**
+     * Test that the table keeps every entry while growing.
+     */
+    @Test
+    public void resize() {
+        SaleTable table = new SaleTable();
+        for (int id = 0; id < 100_000; id++)
+            table.put(id, sale(id));
+        assertEquals(100_000, table.size());
+        for (int id = 0; id < 100_000; id++)
+            assertEquals(id, table.get(id).getId());
+        assertFalse(table.contains(100_000));
+    }
+
+    /**
+     * Test random mutations against a HashMap, so that removals in the middle of probe sequences are covered.
+     */
+    @Test
+    public void randomMutations() {
+        SaleTable table = new SaleTable();
+        Map<Integer, Sale> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            int id = random.nextInt(5_000) - 100;
+            if (random.nextInt(3) == 0)
+                assertSame(expected.remove(id), table.remove(id));
+            else {
+                Sale sale = sale(id);
+                assertSame(expected.put(id, sale), table.put(id, sale));
+            }
+        }
+        assertEquals(expected.size(), table.size());
+        for (int id = -100; id < 4_900; id++)
+            assertSame(expected.get(id), table.get(id));
+    }
+
+    /**
+     * Test that lock-free lookups always find the stable entries while a writer inserts, removes and resizes.
+     */
+    @Test
+    public void concurrentLookups() throws InterruptedException {
+        SaleTable table = new SaleTable();
+        for (int id = 0; id < 1_000; id++)
+            table.put(id, sale(id));
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Thread writer = new Thread(() -> {
+            while (!stop.get()) {
+                for (int id = 1_000; id < 50_000; id++)
+                    table.put(id, sale(id));
+                for (int id = 1_000; id < 50_000; id++)
+                    table.remove(id);
+            }
+        });
+        writer.start();
+        Random random = new Random(42);
+        for (int i = 0; i < 2_000_000; i++) {
+            int id = random.nextInt(1_000);
+            Sale sale = table.get(id);
+            assertNotNull(sale);
+            assertEquals(id, sale.getId());
+        }
+        stop.set(true);
+        writer.join();
+    }
+}
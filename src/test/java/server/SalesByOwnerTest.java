@@ -0,0 +1,44 @@
+package server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SalesByOwnerTest {
+
+    /**
+     * Test that the ids of each owner stay sorted and separated from the ids of the other owners.
+     */
+    @Test
+    public void addContainsRemove() {
+        SalesByOwner index = new SalesByOwner();
+        index.add("alice@gmail.com", 3);
+        index.add("alice@gmail.com", 0);
+        index.add("bob@gmail.com", 1);
+        index.add("alice@gmail.com", 2);
+        assertArrayEquals(new int[] {0, 2, 3}, index.ids("alice@gmail.com"));
+        assertTrue(index.contains("bob@gmail.com", 1));
+        assertFalse(index.contains("alice@gmail.com", 1));
+        assertFalse(index.contains(null, 1));
+        index.remove("alice@gmail.com", 2);
+        index.remove("alice@gmail.com", 1);
+        assertArrayEquals(new int[] {0, 3}, index.ids("alice@gmail.com"));
+        index.remove("bob@gmail.com", 1);
+        assertArrayEquals(new int[0], index.ids("bob@gmail.com"));
+        assertArrayEquals(new int[0], index.ids("carol@gmail.com"));
+    }
+
+    /**
+     * Test that the ids added at once are merged with the ids of the owner, without duplicates.
+     */
+    @Test
+    public void addAll() {
+        SalesByOwner index = new SalesByOwner();
+        index.addAll("alice@gmail.com", new int[] {2, 5});
+        index.add("alice@gmail.com", 3);
+        index.addAll("alice@gmail.com", new int[] {1, 3, 4, 9});
+        assertArrayEquals(new int[] {1, 2, 3, 4, 5, 9}, index.ids("alice@gmail.com"));
+    }
+}
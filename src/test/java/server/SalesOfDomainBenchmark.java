@@ -0,0 +1,63 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the latency of a SALES_FROM_DOMAIN query while the other domain grows.
+ *
+ * @details The queried domain always holds the same number of sales: the latency should stay flat whatever the size of the other domain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class SalesOfDomainBenchmark {
+    @Param({"1000"})
+    private int salesInQueriedDomain;
+
+    @Param({"0", "1000000", "5000000"})
+    private int salesInOtherDomain;
+
+    private Server server;
+
+    @Setup(Level.Trial)
+    public void fillServer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(true, false);
+        this.server.addClient("alice@gmail.com", "Alice", "test");
+        for (int i = 0; i < this.salesInQueriedDomain; i++)
+            this.server.addSale("alice@gmail.com", Domain.HOUSE, "House " + i, "Content of the house " + i, i);
+        for (int i = 0; i < this.salesInOtherDomain; i++)
+            this.server.addSale("alice@gmail.com", Domain.CAR, "Car", "Content of the car", i);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    public Sale[] salesOfDomain() {
+        return this.server.getSalesOfDomain(Domain.HOUSE);
+    }
+}
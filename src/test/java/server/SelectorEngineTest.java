@@ -0,0 +1,149 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import protocol.RequestDeserializer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SelectorEngineTest {
+    private static final int WORKERS = 2;
+
+    private Server server;
+    private byte[] publicKeyRequest;
+    private final List<Socket> sockets = new ArrayList<>();
+
+    @Before
+    public void startServer() throws Exception {
+        this.server = new Server(false, false, null, null, new ConnectionSettings(ConnectionEngine.SELECTOR, WORKERS, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+        new Thread(this.server).start();
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, generator.generateKeyPair().getPublic().getEncoded())).getBytes();
+        this.publicKeyRequest = ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        for (Socket socket: this.sockets)
+            socket.close();
+        this.server.stopProcess();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", this.server.getPort());
+        socket.setSoTimeout(10_000);
+        this.sockets.add(socket);
+        return socket;
+    }
+
+    private static Request receive(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] json = in.readNBytes(in.readInt());
+        return new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create().fromJson(new String(json), Request.class);
+    }
+
+    /**
+     * Test that the requests are cut into frames whatever the way their bytes arrive, and answered in order.
+     */
+    @Test
+    public void framesSplitAndCoalesced() throws Exception {
+        Socket socket = this.connect();
+        OutputStream out = socket.getOutputStream();
+        out.write(ByteBuffer.allocate(2 * this.publicKeyRequest.length).put(this.publicKeyRequest).put(this.publicKeyRequest).array());
+        out.flush();
+        for (byte b: this.publicKeyRequest) {
+            out.write(b);
+            out.flush();
+        }
+        for (int i = 0; i < 3; i++)
+            assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, receive(socket).getCommand());
+
+        this.server.setRespondingToRequest(true);
+        out.write(this.publicKeyRequest);
+        Request response = receive(socket);
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK, response.getCommand());
+        assertArrayEquals(this.server.getPk().getEncoded(), (byte[]) response.getParams().get("PublicKey"));
+    }
+
+    /**
+     * Test that many clients are served by the selector thread and the workers only, each one being answered.
+     */
+    @Test
+    public void clientsShareThreads() throws Exception {
+        int threads = Thread.activeCount();
+        for (int i = 0; i < 500; i++)
+            this.connect();
+        for (Socket socket: this.sockets)
+            socket.getOutputStream().write(this.publicKeyRequest);
+        for (Socket socket: this.sockets)
+            assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, receive(socket).getCommand());
+        assertTrue(Thread.activeCount() <= threads + WORKERS);
+    }
+
+    /**
+     * Test that a client sending an invalid length is disconnected, without disturbing the others.
+     */
+    @Test
+    public void invalidFrameClosesConnection() throws Exception {
+        Socket invalid = this.connect();
+        Socket valid = this.connect();
+        new DataOutputStream(invalid.getOutputStream()).writeInt(-1);
+        assertEquals(-1, invalid.getInputStream().read());
+        valid.getOutputStream().write(this.publicKeyRequest);
+        assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, receive(valid).getCommand());
+    }
+
+    /**
+     * Test that once a server serving a client is stopped, its port is released at once, whatever its engine: another server can listen to it.
+     */
+    @Test
+    public void portReleasedOnStop() throws Exception {
+        for (ConnectionEngine engine: new ConnectionEngine[] {ConnectionEngine.THREAD_PER_CLIENT, ConnectionEngine.SELECTOR}) {
+            Server first = new Server(false, false, null, null, new ConnectionSettings(engine, WORKERS, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+            new Thread(first).start();
+            try (Socket socket = new Socket("127.0.0.1", first.getPort())) {
+                socket.setSoTimeout(10_000);
+                socket.getOutputStream().write(this.publicKeyRequest);
+                assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_KO, receive(socket).getCommand()); // the server is serving
+            }
+            first.stopProcess();
+            new Server(false, false, null, null, new ConnectionSettings(engine, WORKERS, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, first.getPort())).stopProcess();
+        }
+    }
+
+    /**
+     * Test that the thread accepting the clients of a thread per client exits once the socket of the server is closed, instead of failing to accept on it forever.
+     */
+    @Test
+    public void acceptLoopExitsOnceClosed() throws Exception {
+        Server server = new Server(false, false, null, null, new ConnectionSettings(ConnectionEngine.THREAD_PER_CLIENT, WORKERS, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0));
+        Thread engine = new Thread(server);
+        engine.start();
+        try {
+            server.closeConnection();
+            engine.join(10_000);
+            assertFalse(engine.isAlive());
+        } finally {
+            server.stopProcess();
+        }
+    }
+}
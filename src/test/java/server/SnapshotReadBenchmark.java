@@ -0,0 +1,76 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the throughput of the sale queries while a writer keeps updating the sales.
+ *
+ * @details The readers don't take any lock, so their throughput should grow with their number. Change the number of reader threads with the option -tg, e.g. "-tg 4,4,1" for 4 threads per query and 1 writer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotReadBenchmark {
+    private static final int SALES = 1_000;
+
+    private Server server;
+
+    @Setup(Level.Trial)
+    public void fillServer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(true, false);
+        this.server.addClient(new Client("alice@gmail.com", "Alice", "pwd", "salt"));
+        for (int i = 0; i < SALES; i++)
+            this.server.addSale("alice@gmail.com", Domain.HOUSE, "House " + i, "Content " + i, i);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(4)
+    public Sale[] salesOfDomain() {
+        return this.server.getSalesOfDomain(Domain.HOUSE);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(4)
+    public boolean isOwnerOfSale() {
+        return this.server.isOwnerOfSale("alice@gmail.com", ThreadLocalRandom.current().nextInt(SALES));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void updateSale() throws IOException {
+        int id = ThreadLocalRandom.current().nextInt(SALES);
+        this.server.updateSale("House " + id, "Updated content", id, id);
+    }
+}
@@ -0,0 +1,136 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PersistenceSettings settings() {
+        return new PersistenceSettings(this.folder.getRoot().toPath(), PersistenceSettings.DEFAULT_GROUP_COMMIT_SIZE, 0, 0);
+    }
+
+    private List<Path> files() throws IOException {
+        try (var files = Files.list(this.folder.getRoot().toPath())) {
+            return files.map(Path::getFileName).sorted().toList();
+        }
+    }
+
+    /**
+     * Test that a restart loads the snapshot then replays only the writes which followed it, and that the covered segments are deleted.
+     */
+    @Test
+    public void restartFromSnapshot() throws Exception {
+        Server server = new Server(true, false, this.settings());
+        server.addClient("alice@gmail.com", "Alice", "test");
+        server.addSale("alice@gmail.com", Domain.HOUSE, "House", "Garden", 1000);
+        server.addSale("alice@gmail.com", Domain.CAR, "Car", "Red", 500);
+        server.addSale("alice@gmail.com", Domain.HOUSE, "Flat", "Balcony", 800);
+        server.deleteSale(2);
+        server.takeSnapshot();
+        server.updateSale("House", "Pool", 1200, 0);
+        server.deleteSale(1);
+        server.addClient("bob@gmail.com", "Bob", "test");
+        server.addSale("bob@gmail.com", Domain.CAR, "Bike", "Blue", 100);
+        server.stopProcess();
+        assertEquals(List.of(Path.of("snapshot"), Path.of("wal-1.log")), this.files());
+
+        Server restored = new Server(true, false, this.settings());
+        try {
+            assertTrue(restored.isPasswordValid("alice@gmail.com", "test"));
+            assertTrue(restored.isPasswordValid("bob@gmail.com", "test"));
+            assertArrayEquals(new Sale[] {new Sale("Alice", Domain.HOUSE, "House", "Pool", 1200, 0)}, restored.getSalesOfDomain(Domain.HOUSE));
+            assertArrayEquals(new Sale[] {new Sale("Bob", Domain.CAR, "Bike", "Blue", 100, 3)}, restored.getSalesOfDomain(Domain.CAR));
+            restored.addSale("alice@gmail.com", Domain.HOUSE, "Barn", "Old", 10);
+            assertEquals(4, restored.getSalesOfDomain(Domain.HOUSE)[1].getId()); // the ids of the deleted sales aren't reused
+        } finally {
+            restored.stopProcess();
+        }
+    }
+
+    /**
+     * Test that a snapshot taken while the sales are written restores the same sales as the memory of the server when it stopped.
+     */
+    @Test
+    public void snapshotWhileWriting() throws Exception {
+        Server server = new Server(true, false, this.settings());
+        server.addClient("alice@gmail.com", "Alice", "test");
+        for (int i = 0; i < 200; i++)
+            server.addSale("alice@gmail.com", Domain.values()[i % 2], "Sale " + i, "Content " + i, i);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        Thread[] writers = new Thread[4];
+        for (int w = 0; w < writers.length; w++) {
+            long seed = w;
+            writers[w] = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    while (!stop.get()) {
+                        int id = random.nextInt(200);
+                        switch (random.nextInt(3)) {
+                            case 0 -> server.addSale("alice@gmail.com", Domain.values()[random.nextInt(2)], "New", "Content", random.nextInt(1000));
+                            case 1 -> server.updateSale("Updated " + id, "Content", random.nextInt(1000), id);
+                            default -> server.deleteSale(id);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers[w].start();
+        }
+        for (int i = 0; i < 5; i++)
+            server.takeSnapshot();
+        stop.set(true);
+        for (Thread writer: writers)
+            writer.join();
+        Sale[] houses = server.getSalesOfDomain(Domain.HOUSE);
+        Sale[] cars = server.getSalesOfDomain(Domain.CAR);
+        server.stopProcess();
+
+        Server restored = new Server(true, false, this.settings());
+        try {
+            assertArrayEquals(houses, restored.getSalesOfDomain(Domain.HOUSE));
+            assertArrayEquals(cars, restored.getSalesOfDomain(Domain.CAR));
+        } finally {
+            restored.stopProcess();
+        }
+    }
+
+    /**
+     * Test that a corrupt snapshot prevents the server from starting, rather than starting without the data.
+     */
+    @Test
+    public void refuseCorruptSnapshot() throws Exception {
+        Server server = new Server(true, false, this.settings());
+        server.addClient("alice@gmail.com", "Alice", "test");
+        server.addSale("alice@gmail.com", Domain.HOUSE, "House", "Garden", 1000);
+        server.takeSnapshot();
+        server.stopProcess();
+        Path snapshot = this.folder.getRoot().toPath().resolve("snapshot");
+        byte[] bytes = Files.readAllBytes(snapshot);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(snapshot, bytes);
+        try {
+            new Server(true, false, this.settings()).stopProcess();
+            fail("The server started from a corrupt snapshot");
+        } catch (IOException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package server;
+
+import client.IpAddressUDPServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Run the same workload against the repositories of each storage engine: point reads, pages, price ranges and updates of sales, lookups of clients and of UDP coordinates.
+ *
+ * @details Each benchmark is run by several threads on the same repositories. The updates of a domain are serialized, as the server does with the lock of the domain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Threads(4)
+public class StorageEngineBenchmark {
+    private static final int CLIENTS = 10_000;
+
+    @Param({"IN_MEMORY", "FILE"})
+    private StorageEngine engine;
+
+    @Param({"100000"})
+    private int sales;
+
+    private Path directory;
+    private SaleRepository saleRepository;
+    private ClientRepository clientRepository;
+    private UDPCoordinateRepository udpCoordinateRepository;
+    private final Object[] domainLocks = {new Object(), new Object()};
+
+    @State(Scope.Thread)
+    public static class Workload {
+        private final SplittableRandom random = new SplittableRandom();
+    }
+
+    @Setup(Level.Trial)
+    public void fillRepositories() throws IOException {
+        this.directory = Files.createTempDirectory("server");
+        StorageSettings settings = new StorageSettings(this.engine, this.directory);
+        this.saleRepository = settings.openSaleRepository();
+        this.clientRepository = settings.openClientRepository();
+        this.udpCoordinateRepository = settings.openUDPCoordinateRepository();
+        for (int i = 0; i < CLIENTS; i++) {
+            this.clientRepository.add(new Client("client" + i + "@gmail.com", "Client " + i, "[12, -34, 56, -78, 90]", "[1, 2, 3, 4, 5, 6, 7, 8]"));
+            this.udpCoordinateRepository.put("client" + i + "@gmail.com", new IpAddressUDPServer("127.0.0.1", 5000 + i));
+        }
+        for (int i = 0; i < this.sales; i++)
+            this.saleRepository.put(sale(i, i), "Client " + i % CLIENTS);
+    }
+
+    private static Sale sale(int id, int price) {
+        return new Sale("client" + id % CLIENTS + "@gmail.com", Domain.values()[id % 2], "Sale " + id, "Content of the sale " + id, price, id);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepositories() throws IOException {
+        this.saleRepository.close();
+        this.clientRepository.close();
+        Files.delete(this.directory);
+    }
+
+    @Benchmark
+    public Sale getSale(Workload workload) {
+        return this.saleRepository.get(workload.random.nextInt(this.sales));
+    }
+
+    @Benchmark
+    public SalePage pageOfDomain(Workload workload) {
+        int cursor = workload.random.nextInt(this.sales);
+        return this.saleRepository.page(Domain.values()[cursor % 2], cursor, Server.DEFAULT_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Sale[] byPrice(Workload workload) {
+        int minPrice = workload.random.nextInt(this.sales);
+        return this.saleRepository.byPrice(Domain.HOUSE, minPrice, minPrice + 1000, false, Server.DEFAULT_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public void updateSale(Workload workload) throws IOException {
+        int id = workload.random.nextInt(this.sales);
+        synchronized (this.domainLocks[id % 2]) {
+            this.saleRepository.put(sale(id, workload.random.nextInt(this.sales)), "Client " + id % CLIENTS);
+        }
+    }
+
+    @Benchmark
+    public Client getClient(Workload workload) {
+        return this.clientRepository.get("client" + workload.random.nextInt(CLIENTS) + "@gmail.com");
+    }
+
+    @Benchmark
+    public IpAddressUDPServer getUDPCoordinate(Workload workload) {
+        return this.udpCoordinateRepository.get("client" + workload.random.nextInt(CLIENTS) + "@gmail.com");
+    }
+}
@@ -0,0 +1,71 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TieredSaleRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Sale sale(int id, String title) {
+        return new Sale("alice@gmail.com", Domain.HOUSE, title, "Content", id, id);
+    }
+
+    /**
+     * Test that the hot tier keeps the recently used sales up to its size, and that an evicted sale is faulted back in from the cold tier.
+     */
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        try (TieredSaleRepository sales = new TieredSaleRepository(this.folder.getRoot().toPath(), 16)) {
+            for (int id = 0; id < 64; id++) // 4 sales per segment, for a segment of 1 sale
+                sales.put(sale(id, "Sale " + id), "Alice");
+            assertEquals(16, sales.hotSize());
+            assertEquals(48, sales.getEvictions());
+            assertEquals(sale(63, "Sale 63"), sales.get(63)); // the last written sale of its segment
+            assertEquals(1, sales.getHits());
+            assertEquals(new Sale("Alice", Domain.HOUSE, "Sale 0", "Content", 0, 0), sales.getListing(0));
+            assertEquals(1, sales.getMisses());
+            assertEquals(sale(0, "Sale 0"), sales.get(0)); // faulted in
+            assertEquals(2, sales.getHits());
+            assertEquals(16, sales.hotSize());
+            sales.put(sale(0, "Updated"), "Alice");
+            assertEquals(sale(0, "Updated"), sales.get(0));
+            assertTrue(sales.remove(0));
+            assertNull(sales.get(0));
+            assertEquals(63, sales.size());
+        }
+    }
+
+    /**
+     * Test that a read faulting a sale in concurrently with its writes never leaves a stale copy in the hot tier.
+     */
+    @Test
+    public void noStaleCopyAfterWrites() throws Exception {
+        try (TieredSaleRepository sales = new TieredSaleRepository(this.folder.getRoot().toPath(), 16)) {
+            sales.put(sale(0, "Title 0"), "Alice");
+            AtomicBoolean stop = new AtomicBoolean(false);
+            AtomicReference<Sale> read = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                while (!stop.get())
+                    read.set(sales.get(0));
+            });
+            reader.start();
+            for (int i = 1; i <= 2000; i++) {
+                sales.put(sale(0, "Title " + i), "Alice");
+                sales.put(sale(16, "Other"), "Alice"); // evict the sale 0 from its segment of 1 sale
+            }
+            stop.set(true);
+            reader.join();
+            assertEquals(sale(0, "Title 2000"), sales.get(0));
+        }
+    }
+}
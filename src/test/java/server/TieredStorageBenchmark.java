@@ -0,0 +1,70 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Measure the reads of sales when most of them go to the recent sales, and the heap retained by the sales, with each storage engine.
+ *
+ * @details 90% of the reads go to the most recent sales, as many as the hot tier holds, and the others to any sale.
+ * The retained heap is printed after the repository is filled, and the hits and misses of the hot tier at the end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class TieredStorageBenchmark {
+    @Param({"IN_MEMORY", "FILE", "TIERED"})
+    private StorageEngine engine;
+
+    @Param({"400000"})
+    private int sales;
+
+    private Path directory;
+    private SaleRepository repository;
+    private final SplittableRandom random = new SplittableRandom();
+
+    @Setup(Level.Trial)
+    public void fillRepository() throws IOException {
+        this.directory = Files.createTempDirectory("server");
+        this.repository = new StorageSettings(this.engine, this.directory).openSaleRepository();
+        for (int i = 0; i < this.sales; i++)
+            this.repository.put(new Sale("client" + i % 1000 + "@gmail.com", Domain.values()[i % 2], "Sale " + i, "Content of the sale " + i, i, i), "Client " + i % 1000);
+        System.gc();
+        System.out.println("\nRetained heap: " + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024) + " MB");
+    }
+
+    @TearDown(Level.Trial)
+    public void closeRepository() throws IOException {
+        if (this.repository instanceof TieredSaleRepository tiered)
+            System.out.println("\nHits: " + tiered.getHits() + ", misses: " + tiered.getMisses() + ", evictions: " + tiered.getEvictions());
+        this.repository.close();
+        Files.delete(this.directory);
+    }
+
+    @Benchmark
+    public Sale getMostlyRecentListing() {
+        int id = this.random.nextInt(10) == 0 ? this.random.nextInt(this.sales) : this.sales - 1 - this.random.nextInt(TieredSaleRepository.DEFAULT_HOT_SALES);
+        return this.repository.getListing(id);
+    }
+}
@@ -0,0 +1,124 @@
+package server;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Test;
+import protocol.ProtocolCommand;
+import protocol.Request;
+import protocol.RequestDeserializer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadEngineTest {
+    private static final int WORKERS = 2;
+
+    private static ConnectionSettings virtualThreads() {
+        return new ConnectionSettings(ConnectionEngine.VIRTUAL_THREAD_PER_CLIENT, WORKERS, ConnectionSettings.DEFAULT_MAX_CONNECTIONS, ConnectionSettings.DEFAULT_MAX_IN_FLIGHT_REQUESTS, 0);
+    }
+
+    /**
+     * @brief Connect 20 clients to a server with the virtual thread engine, and check that each agrees on a key with it.
+     *
+     * @return The number of threads counted while the clients are connected, minus the threads counted before.
+     */
+    private static int keyAgreements(Server server) throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            int threads = Thread.activeCount();
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(256);
+            for (int i = 0; i < 20; i++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                socket.setSoTimeout(30_000);
+                sockets.add(socket);
+                byte[] json = new Gson().toJson(new Request(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER, generator.generateKeyPair().getPublic().getEncoded())).getBytes();
+                socket.getOutputStream().write(ByteBuffer.allocate(Integer.BYTES + json.length).putInt(json.length).put(json).array());
+            }
+            for (Socket socket: sockets) {
+                Request response = receive(socket);
+                assertEquals(ProtocolCommand.REQUEST_PUBLIC_KEY_OF_CENTRAL_SERVER_OK, response.getCommand());
+                assertArrayEquals(server.getPk().getEncoded(), (byte[]) response.getParams().get("PublicKey"));
+            }
+            return Thread.activeCount() - threads;
+        } finally {
+            for (Socket socket: sockets)
+                socket.close();
+        }
+    }
+
+    /**
+     * Test that before Java 21 a server with the virtual thread engine warns that it falls back to a platform thread per client, and serves its clients with them.
+     */
+    @Test
+    public void platformThreadsBeforeJava21() throws Exception {
+        assumeFalse(ConnectionSettings.hasVirtualThreads());
+        List<LogRecord> warnings = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING)
+                    warnings.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger.getLogger("LogServer").addHandler(handler);
+        Server server;
+        try {
+            server = new Server(true, false, null, null, virtualThreads());
+        } finally {
+            Logger.getLogger("LogServer").removeHandler(handler);
+        }
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0).getMessage().contains("platform thread"));
+        new Thread(server).start();
+        try {
+            assertTrue(keyAgreements(server) >= 20); // a platform thread per client
+        } finally {
+            server.stopProcess();
+        }
+    }
+
+    /**
+     * Test that clients served by virtual threads agree on a key with the server, without a platform thread each.
+     */
+    @Test
+    public void keyAgreementOnVirtualThreads() throws Exception {
+        assumeTrue(ConnectionSettings.hasVirtualThreads());
+        Server server = new Server(true, false, null, null, virtualThreads());
+        new Thread(server).start();
+        try {
+            assertTrue(keyAgreements(server) <= WORKERS); // the virtual threads aren't counted, only the crypto workers
+        } finally {
+            server.stopProcess();
+        }
+    }
+
+    private static Request receive(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] json = in.readNBytes(in.readInt());
+        return new GsonBuilder().registerTypeAdapter(Request.class, new RequestDeserializer()).create().fromJson(new String(json), Request.class);
+    }
+}
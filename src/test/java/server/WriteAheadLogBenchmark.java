@@ -0,0 +1,99 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Measure the number of durable writes per second of the write-ahead log against the number of writers.
+ *
+ * @details commit appends a record then waits for its batch to be forced to the disk, as the server does before answering a write.
+ * commitOneByOne serializes the writers, so that every record is forced by its own fsync: it is the throughput without group commit.
+ * Run the main method to sweep the number of writer threads; a single run with the option -t is also possible.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteAheadLogBenchmark {
+    @Param({"512"})
+    private int batchSize;
+
+    @Param({"0", "200"})
+    private long maxWaitMicros;
+
+    private final Object oneByOne = new Object();
+    private Path directory;
+    private WriteAheadLog log;
+    private Sale sale;
+
+    @Setup(Level.Trial)
+    public void openLog() throws IOException {
+        this.directory = Files.createTempDirectory("server");
+        this.log = WriteAheadLog.open(this.directory, 0, new WriteAheadLog.Handler() {
+            @Override
+            public void clientAdded(Client client) {}
+
+            @Override
+            public void saleAdded(Sale sale) {}
+
+            @Override
+            public void saleUpdated(int id, String title, String content, int price) {}
+
+            @Override
+            public void saleDeleted(int id) {}
+        }, this.batchSize, this.maxWaitMicros);
+        this.sale = new Sale("alice@gmail.com", Domain.HOUSE, "Big house with a garden", "A big house with a garden, close to the city center and to the schools.", 250_000, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteLog() throws IOException {
+        this.log.close();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(this.directory)) {
+            for (Path segment: segments)
+                Files.delete(segment);
+        }
+        Files.delete(this.directory);
+    }
+
+    @Benchmark
+    public void commit() throws IOException {
+        this.log.awaitDurable(this.log.appendSaleAdded(this.sale));
+    }
+
+    @Benchmark
+    public void commitOneByOne() throws IOException {
+        synchronized (this.oneByOne) {
+            this.log.awaitDurable(this.log.appendSaleAdded(this.sale));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 1; threads <= 64; threads *= 2)
+            new Runner(new OptionsBuilder()
+                    .include(WriteAheadLogBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+    }
+}
@@ -0,0 +1,297 @@
+package server;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * @brief Record the replayed writes as strings.
+     */
+    private static class Recorder implements WriteAheadLog.Handler {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void clientAdded(Client client) {
+            this.records.add("client " + client.getMail() + " " + client.getName() + " " + client.getPwd() + " " + client.getSalt());
+        }
+
+        @Override
+        public void saleAdded(Sale sale) {
+            this.records.add("add " + sale.getId() + " " + sale.getOwner() + " " + sale.getDomain() + " " + sale.getTitle() + " " + sale.getContent() + " " + sale.getPrice());
+        }
+
+        @Override
+        public void saleUpdated(int id, String title, String content, int price) {
+            this.records.add("update " + id + " " + title + " " + content + " " + price);
+        }
+
+        @Override
+        public void saleDeleted(int id) {
+            this.records.add("delete " + id);
+        }
+    }
+
+    private static WriteAheadLog open(Path directory, WriteAheadLog.Handler handler) throws IOException {
+        return WriteAheadLog.open(directory, 0, handler, 16, 100);
+    }
+
+    private static void appendSomeWrites(WriteAheadLog log) throws IOException {
+        log.appendClientAdded(new Client("alice@gmail.com", "Alice", "pwd", "salt"));
+        log.appendSaleAdded(new Sale("alice@gmail.com", Domain.HOUSE, "Maison \u00e0 vendre", null, 1000, 0));
+        log.appendSaleUpdated(new Sale("alice@gmail.com", Domain.HOUSE, "Big house", "Garden", 900, 0));
+        log.awaitDurable(log.appendSaleDeleted(0));
+    }
+
+    private static final List<String> SOME_WRITES = List.of(
+            "client alice@gmail.com Alice pwd salt",
+            "add 0 alice@gmail.com HOUSE Maison \u00e0 vendre null 1000",
+            "update 0 Big house Garden 900",
+            "delete 0");
+
+    /**
+     * Test that the records are replayed in order, then that new records are appended after them.
+     */
+    @Test
+    public void replayInOrder() throws IOException {
+        Path path = this.folder.getRoot().toPath();
+        try (WriteAheadLog log = open(path, new Recorder())) {
+            appendSomeWrites(log);
+        }
+        Recorder recorder = new Recorder();
+        try (WriteAheadLog log = open(path, recorder)) {
+            log.appendSaleDeleted(1);
+        }
+        assertEquals(SOME_WRITES, recorder.records);
+        recorder = new Recorder();
+        open(path, recorder).close();
+        assertEquals(5, recorder.records.size());
+        assertEquals("delete 1", recorder.records.get(4));
+    }
+
+    /**
+     * Test that a record cut by a crash is dropped and overwritten by the next record.
+     */
+    @Test
+    public void truncateTornRecord() throws IOException {
+        Path path = this.folder.getRoot().toPath();
+        try (WriteAheadLog log = open(path, new Recorder())) {
+            appendSomeWrites(log);
+        }
+        Path segment = path.resolve("wal-0.log");
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 2);
+        }
+        Recorder recorder = new Recorder();
+        try (WriteAheadLog log = open(path, recorder)) {
+            log.appendSaleDeleted(2);
+        }
+        assertEquals(SOME_WRITES.subList(0, 3), recorder.records);
+        recorder = new Recorder();
+        open(path, recorder).close();
+        assertEquals("delete 2", recorder.records.get(3));
+    }
+
+    /**
+     * Test that the replay stops at a record whose checksum doesn't match.
+     */
+    @Test
+    public void stopAtCorruptRecord() throws IOException {
+        Path path = this.folder.getRoot().toPath();
+        try (WriteAheadLog log = open(path, new Recorder())) {
+            appendSomeWrites(log);
+        }
+        Path segment = path.resolve("wal-0.log");
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length - 20] ^= 1; // in the payload of the update, the deletion being the last 13 bytes
+        Files.write(segment, bytes);
+        Recorder recorder = new Recorder();
+        open(path, recorder).close();
+        assertEquals(SOME_WRITES.subList(0, 2), recorder.records);
+    }
+
+    /**
+     * Test that the records appended after a rotation go to a new segment, and that the segments before a given one are neither replayed nor kept.
+     */
+    @Test
+    public void rotateSegments() throws IOException {
+        Path path = this.folder.getRoot().toPath();
+        long generation;
+        try (WriteAheadLog log = open(path, new Recorder())) {
+            log.appendSaleDeleted(0);
+            generation = log.rotate();
+            log.awaitDurable(log.appendSaleDeleted(1));
+        }
+        assertEquals(1, generation);
+        assertTrue(Files.exists(path.resolve("wal-0.log")));
+        Recorder recorder = new Recorder();
+        open(path, recorder).close();
+        assertEquals(List.of("delete 0", "delete 1"), recorder.records);
+        recorder = new Recorder();
+        WriteAheadLog.open(path, generation, recorder, 16, 100).close();
+        assertEquals(List.of("delete 1"), recorder.records);
+        assertFalse(Files.exists(path.resolve("wal-0.log")));
+    }
+
+    /**
+     * Test that the records of concurrent writers are all durable once their tickets are, and that none is lost or interleaved.
+     */
+    @Test
+    public void groupCommit() throws Exception {
+        Path path = this.folder.getRoot().toPath();
+        int writers = 8;
+        int deletionsPerWriter = 500;
+        try (WriteAheadLog log = open(path, new Recorder())) {
+            Thread[] threads = new Thread[writers];
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                threads[w] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < deletionsPerWriter; i++)
+                            log.awaitDurable(log.appendSaleDeleted(writer * deletionsPerWriter + i));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                threads[w].start();
+            }
+            for (Thread thread: threads)
+                thread.join();
+        }
+        Recorder recorder = new Recorder();
+        open(path, recorder).close();
+        assertEquals(writers * deletionsPerWriter, recorder.records.size());
+        assertEquals(writers * deletionsPerWriter, new HashSet<>(recorder.records).size());
+    }
+
+    /**
+     * Test that a server restarted on its log gets back its clients and sales, and doesn't reuse the ids.
+     */
+    @Test
+    public void restoreServer() throws Exception {
+        Path path = this.folder.getRoot().toPath();
+        Server server = new Server(true, false, path);
+        server.addClient("alice@gmail.com", "Alice", "test");
+        server.addSale("alice@gmail.com", Domain.HOUSE, "House", "Garden", 1000);
+        server.addSale("alice@gmail.com", Domain.CAR, "Car", "Red", 500);
+        server.addSale("alice@gmail.com", Domain.HOUSE, "Flat", "Balcony", 800);
+        server.updateSale("House", "Pool", 1200, 0);
+        server.deleteSale(1);
+        server.stopProcess();
+
+        Server restored = new Server(true, false, path);
+        try {
+            assertTrue(restored.isPasswordValid("alice@gmail.com", "test"));
+            assertArrayEquals(new Sale[] {
+                    new Sale("Alice", Domain.HOUSE, "House", "Pool", 1200, 0),
+                    new Sale("Alice", Domain.HOUSE, "Flat", "Balcony", 800, 2)}, restored.getSalesOfDomain(Domain.HOUSE));
+            assertEquals(0, restored.getSalesOfDomain(Domain.CAR).length);
+            assertTrue(restored.isOwnerOfSale("alice@gmail.com", 2));
+            assertFalse(restored.isOwnerOfSale("alice@gmail.com", 1));
+            restored.addSale("alice@gmail.com", Domain.CAR, "Bike", "Blue", 100);
+            assertEquals(3, restored.getSalesOfDomain(Domain.CAR)[0].getId());
+        } finally {
+            restored.stopProcess();
+        }
+    }
+
+    /**
+     * Test that a sale without a registered owner is refused before being logged or stored: neither the server nor the server restarted on its log has it.
+     */
+    @Test
+    public void saleWithoutOwnerRefused() throws Exception {
+        Path path = this.folder.getRoot().toPath();
+        Server server = new Server(true, false, path);
+        assertThrows(IllegalArgumentException.class, () -> server.addSale(null, Domain.CAR, "Car", "Red", 500));
+        assertThrows(IllegalArgumentException.class, () -> server.addSale("bob@gmail.com", Domain.CAR, "Car", "Red", 500));
+        assertEquals(0, server.getSalesOfDomain(Domain.CAR).length);
+        assertEquals(0, server.searchSales("car", 10).length);
+        server.stopProcess();
+
+        Recorder recorder = new Recorder();
+        open(path, recorder).close();
+        assertTrue(recorder.records.isEmpty());
+    }
+
+    /**
+     * @brief A write of a server, which may be refused by its write-ahead log.
+     */
+    private interface Write {
+        void apply(Server server) throws IOException;
+    }
+
+    /**
+     * @brief Start a server with a sale in each domain, make its write-ahead log fail the next batch, then check that the write is refused and undone in memory.
+     */
+    private void writeRefusedByLog(Write write) throws Exception {
+        Server server = new Server(true, false, this.folder.newFolder().toPath());
+        try {
+            server.addClient("alice@gmail.com", "Alice", "test");
+            server.addSale("alice@gmail.com", Domain.HOUSE, "House", "Garden", 1000);
+            server.addSale("alice@gmail.com", Domain.CAR, "Car", "Red", 500);
+            Field log = Server.class.getDeclaredField("writeAheadLog");
+            log.setAccessible(true);
+            Field channel = WriteAheadLog.class.getDeclaredField("channel");
+            channel.setAccessible(true);
+            ((FileChannel) channel.get(log.get(server))).close(); // the committer fails to write the next batch
+            assertThrows(IOException.class, () -> write.apply(server));
+            assertArrayEquals(new Sale[] {new Sale("Alice", Domain.HOUSE, "House", "Garden", 1000, 0)}, server.getSalesOfDomain(Domain.HOUSE));
+            assertArrayEquals(new Sale[] {new Sale("Alice", Domain.CAR, "Car", "Red", 500, 1)}, server.getSalesOfDomain(Domain.CAR));
+            assertEquals(1, server.searchSales("garden", 10).length);
+            assertEquals(0, server.searchSales("pool", 10).length);
+            assertEquals(2, server.getSalesOfOwner("alice@gmail.com").length);
+        } finally {
+            try {
+                server.stopProcess();
+            } catch (IOException ignored) {
+                // the log is closed already
+            }
+        }
+    }
+
+    /**
+     * Test that a sale created but refused by the write-ahead log isn't kept in memory.
+     */
+    @Test
+    public void addSaleRefusedByLogRolledBack() throws Exception {
+        this.writeRefusedByLog(server -> server.addSale("alice@gmail.com", Domain.HOUSE, "Flat", "Pool", 800));
+    }
+
+    /**
+     * Test that a sale updated but refused by the write-ahead log gets back its previous content in memory.
+     */
+    @Test
+    public void updateSaleRefusedByLogRolledBack() throws Exception {
+        this.writeRefusedByLog(server -> server.updateSale("House", "Pool", 1200, 0));
+    }
+
+    /**
+     * Test that a sale deleted but refused by the write-ahead log is restored in memory.
+     */
+    @Test
+    public void deleteSaleRefusedByLogRolledBack() throws Exception {
+        this.writeRefusedByLog(server -> server.deleteSale(1));
+    }
+}
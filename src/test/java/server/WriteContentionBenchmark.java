@@ -0,0 +1,94 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * @brief Measure the write throughput of the server when 2 to 64 threads update sales of both domains and register UDP coordinates.
+ *
+ * @details Run the main method to sweep the number of writer threads; a single run with the option -t is also possible.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteContentionBenchmark {
+    private static final int SALES_PER_DOMAIN = 1_000;
+
+    private Server server;
+    private int[][] idsByDomain;
+
+    @State(Scope.Thread)
+    public static class Writer {
+        private Domain domain;
+        private String mail;
+
+        @Setup(Level.Trial)
+        public void pickDomain(ThreadParams threadParams) {
+            this.domain = Domain.values()[threadParams.getThreadIndex() % Domain.values().length];
+            this.mail = "user" + threadParams.getThreadIndex() + "@gmail.com";
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void fillServer() throws NoSuchAlgorithmException, IOException, InvalidKeySpecException {
+        Logger.getLogger("LogServer").setLevel(java.util.logging.Level.OFF);
+        this.server = new Server(true, false);
+        this.server.addClient(new Client("alice@gmail.com", "Alice", "pwd", "salt"));
+        this.idsByDomain = new int[Domain.values().length][SALES_PER_DOMAIN];
+        int id = 0;
+        for (int i = 0; i < SALES_PER_DOMAIN; i++)
+            for (Domain domain: Domain.values()) {
+                this.server.addSale("alice@gmail.com", domain, "Title", "Content", i);
+                this.idsByDomain[domain.ordinal()][i] = id++;
+            }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        this.server.stopProcess();
+    }
+
+    @Benchmark
+    public void updateSale(Writer writer) throws IOException {
+        int[] ids = this.idsByDomain[writer.domain.ordinal()];
+        int id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+        this.server.updateSale("Title", "Updated content", id, id);
+    }
+
+    @Benchmark
+    public void addUDPIpAddress(Writer writer) {
+        this.server.addUDPIpAddress(writer.mail, "127.0.0.1", 12341);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads = 2; threads <= 64; threads *= 2)
+            new Runner(new OptionsBuilder()
+                    .include(WriteContentionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build()).run();
+    }
+}